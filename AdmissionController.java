@@ -0,0 +1,565 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An AdmissionController keeps the dialogs answering when lines arrive
+ * faster than the Responder can answer them. Without it every line is
+ * answered however long it has to wait, so under overload waiting lines
+ * pile up and every answer gets later, until nothing useful is answered
+ * in time. With it, lines that cannot be answered soon are shed: given a
+ * quick "please try again" or, if the policy says so, dropped.
+ *
+ * Every line is stamped with the time it arrived, when its dialog read it
+ * (see SessionBacklog), and passes these checks before it is answered:
+ *  - Its session's token bucket must have a token. Each session may send
+ *    sessionRate lines a second on average, in bursts of up to
+ *    sessionBurst, so one fast sender cannot take everyone's turn. No
+ *    more than sessionBurst lines of a session may wait to be answered;
+ *    one that arrives when that many are waiting is shed at once.
+ *  - Fewer lines than the concurrency limit may be being answered. A line
+ *    that finds the limit reached may wait for a turn, but only while
+ *    fewer than maxQueue lines are waiting, and never for longer than
+ *    maxWait after it arrived.
+ *  - When it gets its turn, it must not have waited too long since it
+ *    arrived (the check of CoDel, "controlled delay"). A short wait is
+ *    fine: it is a burst going through. But if every line has waited
+ *    longer than TARGET_DELAY_MILLIS for a whole INTERVAL_MILLIS, the
+ *    waiting lines are a standing queue that answering alone will not
+ *    drain, and each line that has waited longer than the target is shed
+ *    until one gets through sooner. A line that has waited maxWait is
+ *    always shed.
+ *  - The concurrency limit itself adapts to how long answers take. The
+ *    controller keeps the shortest average answer time it has seen, which
+ *    creeps up slowly so that it can follow a real change. After every
+ *    WINDOW answers, if the window's average was more than TOLERANCE
+ *    times that baseline the limit is cut by a fifth, since more lines at
+ *    once are only making each one slower; if not, and the limit was
+ *    reached during the window, it is raised by one.
+ * A controller can also be made that only checks the token buckets, for
+ * dialogs that can never be answered more at once than the server has
+ * threads for, like those of NioSupportServer's event loops.
+ *
+ * The turns are the permits of a fair Semaphore, so a line that finds one
+ * free takes it without a lock, and a line giving one back only wakes a
+ * waiting line if there is one. The only lock is taken once a window, to
+ * move the limit.
+ *
+ * answer() runs a line through all of this for a dialog loop. A line
+ * that is shed is still kept in the Responder's TranscriptJournal, if it
+ * has one, with the answer it was given.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class AdmissionController
+{
+    /**
+     * What to do with a line that cannot be answered now.
+     */
+    public enum ShedPolicy
+    {
+        // Answer at once with RETRY_RESPONSE or SLOW_DOWN_RESPONSE.
+        RETRY,
+        // Give no answer at all.
+        DROP
+    }
+
+    // The answer to a line shed because the system is busy.
+    public static final String RETRY_RESPONSE =
+        "We are very busy just now. Please try again in a moment.";
+    // The answer to a line shed because its session sends too fast.
+    public static final String SLOW_DOWN_RESPONSE =
+        "You are typing faster than we can read! Please give us a moment.";
+
+    // How a session may send if not told otherwise: lines a second, and
+    // the most at once.
+    public static final double DEFAULT_SESSION_RATE = 5;
+    public static final int DEFAULT_SESSION_BURST = 10;
+    // How long a line may wait for its turn without harm, and for how
+    // long lines may all wait longer before they are shed; no more than
+    // maxWait. These are CoDel's own.
+    public static final long TARGET_DELAY_MILLIS = 5;
+    public static final long INTERVAL_MILLIS = 100;
+    // The number of answers between changes to the limit.
+    private static final int WINDOW = 100;
+    // How much slower than the baseline a window may be before the limit
+    // is cut.
+    private static final double TOLERANCE = 2.0;
+    // How much the baseline may rise in a window.
+    private static final double BASELINE_CREEP = 1.01;
+
+    private final double sessionRate;
+    private final int sessionBurst;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final ShedPolicy policy;
+    // false if only the token buckets are checked.
+    private final boolean limitsConcurrency;
+
+    // One permit for each line that may be answered now; fair, so lines
+    // that wait get their turns in order.
+    private final Turns turns;
+    // The number of lines waiting for a turn.
+    private final AtomicInteger queued = new AtomicInteger();
+    // Since when every line has waited longer than the target, by
+    // System.nanoTime(); 0 if the last one did not.
+    private volatile long aboveTargetSince;
+    // The current window: its answers, their total time, and whether the
+    // limit was reached.
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private final LongAdder windowNanos = new LongAdder();
+    private volatile boolean windowSaturated;
+
+    // Guards the limit and baseline while they are moved, once a window.
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile int limit;
+    // The shortest window average seen, allowing for creep; 0 until the
+    // first window ends.
+    private double baselineNanos;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shedBusy = new LongAdder();
+    private final LongAdder shedLate = new LongAdder();
+    private final LongAdder shedBacklog = new LongAdder();
+    private final LongAdder shedRate = new LongAdder();
+
+    /**
+     * Create a controller with the default session rate.
+     *
+     * @param initialLimit  The number of lines answered at once to start with
+     * @param minLimit      The fewest the limit may fall to; at least 1
+     * @param maxLimit      The most the limit may rise to
+     * @param maxQueue      The most lines that may wait for a turn
+     * @param maxWait       The longest a line may wait, from its arrival
+     *                      to its turn
+     * @param unit          The unit of maxWait
+     * @param policy        What to do with lines that are shed
+     */
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                               long maxWait, TimeUnit unit, ShedPolicy policy)
+    {
+        this(initialLimit, minLimit, maxLimit, maxQueue, maxWait, unit, policy,
+             DEFAULT_SESSION_RATE, DEFAULT_SESSION_BURST);
+    }
+
+    /**
+     * Create a controller.
+     *
+     * @param initialLimit  The number of lines answered at once to start with
+     * @param minLimit      The fewest the limit may fall to; at least 1
+     * @param maxLimit      The most the limit may rise to
+     * @param maxQueue      The most lines that may wait for a turn
+     * @param maxWait       The longest a line may wait, from its arrival
+     *                      to its turn
+     * @param unit          The unit of maxWait
+     * @param policy        What to do with lines that are shed
+     * @param sessionRate   The lines a second each session may send
+     * @param sessionBurst  The most lines a session may send at once, and
+     *                      the most that may wait to be answered
+     */
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                               long maxWait, TimeUnit unit, ShedPolicy policy,
+                               double sessionRate, int sessionBurst)
+    {
+        this(initialLimit, minLimit, maxLimit, maxQueue, maxWait, unit, policy,
+             sessionRate, sessionBurst, true);
+    }
+
+    /**
+     * Create a controller that only limits how fast each session may send
+     * lines, and answers every line that is within its session's rate at
+     * once.
+     *
+     * @param policy        What to do with lines that are shed
+     * @param sessionRate   The lines a second each session may send
+     * @param sessionBurst  The most lines a session may send at once
+     */
+    public AdmissionController(ShedPolicy policy, double sessionRate, int sessionBurst)
+    {
+        this(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0, TimeUnit.NANOSECONDS,
+             policy, sessionRate, sessionBurst, false);
+    }
+
+    /**
+     * Create a controller, with or without a concurrency limit.
+     */
+    private AdmissionController(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                                long maxWait, TimeUnit unit, ShedPolicy policy,
+                                double sessionRate, int sessionBurst, boolean limitsConcurrency)
+    {
+        if(minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit ||
+           initialLimit > maxLimit) {
+            throw new IllegalArgumentException("The limits must satisfy 1 <= minLimit <= " +
+                                               "initialLimit <= maxLimit");
+        }
+        if(maxQueue < 0 || maxWait < 0 || sessionRate <= 0 || sessionBurst < 1) {
+            throw new IllegalArgumentException("maxQueue, maxWait, sessionRate and " +
+                                               "sessionBurst must be positive");
+        }
+        limit = initialLimit;
+        turns = new Turns(initialLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        maxWaitNanos = unit.toNanos(maxWait);
+        targetNanos = Math.min(maxWaitNanos, TimeUnit.MILLISECONDS.toNanos(TARGET_DELAY_MILLIS));
+        intervalNanos = Math.min(maxWaitNanos, TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS));
+        this.policy = policy;
+        this.sessionRate = sessionRate;
+        this.sessionBurst = sessionBurst;
+        this.limitsConcurrency = limitsConcurrency;
+    }
+
+    /**
+     * @return  A full token bucket for a new session
+     */
+    public TokenBucket newSessionBucket()
+    {
+        return new TokenBucket(sessionRate, sessionBurst);
+    }
+
+    /**
+     * @return  The most lines of a session that may wait to be answered
+     */
+    public int getSessionBacklog()
+    {
+        return sessionBurst;
+    }
+
+    /**
+     * Answer a line of a dialog if it is admitted.
+     *
+     * @param responder  The responder to answer with
+     * @param line       The line
+     * @param session    The dialog's session id, or SessionStore.NO_SESSION
+     * @param bucket     The session's token bucket
+     * @param arrived    When the dialog read the line, by System.nanoTime()
+     * @param wait       true to wait for a turn if none is free, as a
+     *                   dialog with a thread of its own may; false never
+     *                   to block. Ignored if there is no concurrency limit
+     * @return           The response, a shed response, or null if the
+     *                   line was shed and the policy is DROP
+     */
+    public String answer(Responder responder, CharSequence line, long session,
+                         TokenBucket bucket, long arrived, boolean wait)
+    {
+        if(!bucket.tryTake(arrived)) {
+            shedRate.increment();
+            return shed(responder, line, session, SLOW_DOWN_RESPONSE);
+        }
+        if(!limitsConcurrency) {
+            admitted.increment();
+            return responder.generateResponse(line, session);
+        }
+        if(!(wait ? acquire(arrived) : tryAcquire())) {
+            shedBusy.increment();
+            return shed(responder, line, session, RETRY_RESPONSE);
+        }
+        long started = System.nanoTime();
+        if(waitedTooLong(started - arrived, started)) {
+            turns.release();
+            shedLate.increment();
+            return shed(responder, line, session, RETRY_RESPONSE);
+        }
+        admitted.increment();
+        try {
+            return responder.generateResponse(line, session);
+        }
+        finally {
+            release(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Shed a line that arrived when its session already had
+     * getSessionBacklog() lines waiting, keeping it in the Responder's
+     * journal if it has one. Only the first of the lines shed one after
+     * another is answered, so that the user is told once.
+     *
+     * @param responder  The responder whose journal keeps the line
+     * @param line       The line
+     * @param session    The dialog's session id, or SessionStore.NO_SESSION
+     * @param first      true if the line before it was not shed
+     * @return           The answer to give, or null for none
+     */
+    public String shedBacklog(Responder responder, CharSequence line, long session,
+                              boolean first)
+    {
+        shedBacklog.increment();
+        return shed(responder, line, session, first ? RETRY_RESPONSE : null);
+    }
+
+    /**
+     * Take a turn if one is free now.
+     *
+     * @return  true if a turn was taken; release() must then be called
+     */
+    public boolean tryAcquire()
+    {
+        if(turns.tryAcquire()) {
+            return true;
+        }
+        windowSaturated = true;
+        return false;
+    }
+
+    /**
+     * Take a turn, waiting for one if the queue is not full, but not past
+     * the longest wait after the line arrived.
+     *
+     * @param arrived  When the line arrived, by System.nanoTime()
+     * @return         true if a turn was taken; release() must then be
+     *                 called
+     */
+    public boolean acquire(long arrived)
+    {
+        if(tryAcquire()) {
+            return true;
+        }
+        long remaining = maxWaitNanos - (System.nanoTime() - arrived);
+        if(remaining <= 0) {
+            return false;
+        }
+        if(queued.incrementAndGet() > maxQueue) {
+            queued.decrementAndGet();
+            return false;
+        }
+        try {
+            return turns.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Give a turn back, with how long the answer took, and adjust the
+     * limit at the end of a window.
+     *
+     * @param nanos  How long the answer took
+     */
+    public void release(long nanos)
+    {
+        turns.release();
+        windowNanos.add(nanos);
+        if(windowCount.incrementAndGet() == WINDOW) {
+            adapt();
+        }
+    }
+
+    /**
+     * @return  The number of lines that may be answered at once now, or
+     *          Integer.MAX_VALUE if there is no limit
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return  The number of lines admitted
+     */
+    public long getAdmittedCount()
+    {
+        return admitted.sum();
+    }
+
+    /**
+     * @return  The number of lines shed because no turn was free
+     */
+    public long getShedBusyCount()
+    {
+        return shedBusy.sum();
+    }
+
+    /**
+     * @return  The number of lines shed at their turn because they had
+     *          waited too long since they arrived
+     */
+    public long getShedLateCount()
+    {
+        return shedLate.sum();
+    }
+
+    /**
+     * @return  The number of lines shed because their session had too
+     *          many lines waiting
+     */
+    public long getShedBacklogCount()
+    {
+        return shedBacklog.sum();
+    }
+
+    /**
+     * @return  The number of lines shed because their session sent too fast
+     */
+    public long getShedRateCount()
+    {
+        return shedRate.sum();
+    }
+
+    /**
+     * @return  What is done with lines that are shed
+     */
+    public ShedPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * @return  A one line summary of the limit and counters
+     */
+    public String toString()
+    {
+        return "AdmissionController[limit=" + getLimit() + ", admitted=" + getAdmittedCount() +
+               ", shedBusy=" + getShedBusyCount() + ", shedLate=" + getShedLateCount() +
+               ", shedBacklog=" + getShedBacklogCount() + ", shedRate=" + getShedRateCount() + "]";
+    }
+
+    /**
+     * Shed a line, keeping it in the Responder's journal, if it has one,
+     * with the answer it was given: the retry response, or an empty line
+     * if the policy is DROP.
+     *
+     * @param retryResponse  The answer under the RETRY policy
+     * @return               The answer to give, or null for none
+     */
+    private String shed(Responder responder, CharSequence line, long session,
+                        String retryResponse)
+    {
+        String response = policy == ShedPolicy.RETRY ? retryResponse : null;
+        TranscriptJournal journal = responder.getJournal();
+        if(journal != null) {
+            journal.record(session, line, response == null ? "" : response);
+        }
+        return response;
+    }
+
+    /**
+     * Decide whether a line that has a turn waited too long to use it:
+     * past the longest wait, or past the target when every line has for
+     * a whole interval.
+     *
+     * @param sojourn  How long the line waited since it arrived
+     * @param now      The time, by System.nanoTime()
+     * @return         true if the line should be shed
+     */
+    private boolean waitedTooLong(long sojourn, long now)
+    {
+        if(sojourn >= maxWaitNanos) {
+            return true;
+        }
+        long since = aboveTargetSince;
+        if(sojourn < targetNanos) {
+            // only write when it changes, as every line passes here
+            if(since != 0) {
+                aboveTargetSince = 0;
+            }
+            return false;
+        }
+        if(since == 0) {
+            aboveTargetSince = now;
+            return false;
+        }
+        return now - since >= intervalNanos;
+    }
+
+    /**
+     * End a window: compare its average answer time with the baseline
+     * and move the limit.
+     */
+    private void adapt()
+    {
+        lock.lock();
+        try {
+            // answers given back meanwhile count towards the next window
+            windowCount.addAndGet(-WINDOW);
+            double average = (double) windowNanos.sumThenReset() / WINDOW;
+            if(baselineNanos == 0 || average < baselineNanos) {
+                baselineNanos = average;
+            }
+            else if(average > TOLERANCE * baselineNanos) {
+                int cut = Math.min(limit - minLimit, Math.max(1, limit / 5));
+                limit -= cut;
+                turns.reduce(cut);
+            }
+            else if(windowSaturated && limit < maxLimit) {
+                limit++;
+                // the new turn may let a waiting line in
+                turns.release();
+            }
+            baselineNanos *= BASELINE_CREEP;
+            windowSaturated = false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The turns: a fair Semaphore whose permits can also be taken away
+     * while they are in use, when the limit is cut.
+     */
+    private static final class Turns extends Semaphore
+    {
+        private Turns(int permits)
+        {
+            super(permits, true);
+        }
+
+        private void reduce(int permits)
+        {
+            reducePermits(permits);
+        }
+    }
+
+    /**
+     * A token bucket for one session. Tokens are added at a steady rate
+     * up to the size of the bucket, and each line takes one. A bucket is
+     * used by one dialog at a time, so it is not thread safe.
+     */
+    public static final class TokenBucket
+    {
+        private final double tokensPerNano;
+        private final double size;
+        private double tokens;
+        private long refilled;
+
+        private TokenBucket(double ratePerSecond, int size)
+        {
+            tokensPerNano = ratePerSecond / 1e9;
+            this.size = size;
+            tokens = size;
+            refilled = System.nanoTime();
+        }
+
+        /**
+         * Take a token if there is one.
+         *
+         * @param now  The time, by System.nanoTime()
+         * @return     true if a token was taken
+         */
+        public boolean tryTake(long now)
+        {
+            tokens = Math.min(size, tokens + (now - refilled) * tokensPerNano);
+            refilled = now;
+            if(tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * AllocationCheck measures how many bytes of heap one call of
+ * Responder.generateResponse(CharSequence) allocates, and compares the
+ * result against our per-request budget. It asks the JVM how much the
+ * current thread has allocated before and after a large number of calls.
+ *
+ * Run it from the project directory:
+ *      java AllocationCheck
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/27/2020
+ */
+public class AllocationCheck
+{
+    // The most a single request may allocate, in bytes, when the response
+    // is served from the text knowledge base.
+    public static final long BUDGET_PER_REQUEST = 16;
+    // How many calls to average over.
+    private static final int CALLS = 1_000_000;
+
+    private final Responder responder;
+    private final com.sun.management.ThreadMXBean threads;
+
+    /**
+     * Create a check for the given responder.
+     *
+     * @param responder  The responder to measure
+     */
+    public AllocationCheck(Responder responder)
+    {
+        this.responder = responder;
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Measure the average number of bytes allocated per request.
+     *
+     * @param line  The input line to answer
+     * @return      Bytes allocated per call, on average
+     */
+    public double bytesPerRequest(String line)
+    {
+        // warm up so that the JIT compiler has done its work
+        for(int i = 0; i < CALLS; i++) {
+            responder.generateResponse(line);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for(int i = 0; i < CALLS; i++) {
+            responder.generateResponse(line);
+        }
+        long after = threads.getThreadAllocatedBytes(threadId);
+        return (double) (after - before) / CALLS;
+    }
+
+    /**
+     * Measure a hit, a miss, a punctuated hit and a phrase, and report them.
+     *
+     * @param args  Not used
+     */
+    public static void main(String[] args)
+    {
+        AllocationCheck check = new AllocationCheck(new Responder());
+        String[] lines = {
+            "my program crashes all the time",
+            "nothing here matches at all",
+            "Is it a BUG?  or a feature?!",
+            "I got a blue screen of death",
+        };
+        boolean withinBudget = true;
+        for(String line : lines) {
+            double bytes = check.bytesPerRequest(line);
+            System.out.printf("%8.2f bytes/request  \"%s\"%n", bytes, line);
+            withinBudget &= bytes <= BUDGET_PER_REQUEST;
+        }
+        System.out.println(withinBudget ? "Within budget of " + BUDGET_PER_REQUEST + " bytes"
+                                        : "OVER budget of " + BUDGET_PER_REQUEST + " bytes");
+    }
+}
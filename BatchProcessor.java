@@ -0,0 +1,265 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BatchProcessor answers a whole file of input lines at once, such as an
+ * archived ticket log, instead of one typed line at a time. Every line gets
+ * one line of output: its line number, a tab, and the response. Line
+ * breaks in a response are written as \n (and backslashes as \\), so that
+ * each answer stays on one line.
+ *
+ * The work is done as a pipeline:
+ *      1. the calling thread reads the input and cuts it into chunks of
+ *         LINES_PER_CHUNK lines;
+ *      2. a pool of worker threads tokenizes, matches and formats the
+ *         chunks, each into one String;
+ *      3. a writer thread writes the finished chunks in input order.
+ * Only a few chunks per worker may be in the pipeline at once. When the
+ * workers or the writer fall behind, the reader waits for them, so a file
+ * of any size is processed in a fixed amount of memory.
+ *
+ * Default responses are chosen at random, just as in a dialog.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class BatchProcessor
+{
+    // The number of input lines handed to a worker at a time.
+    public static final int LINES_PER_CHUNK = 1024;
+    // The number of chunks per worker that may be waiting to be written.
+    private static final int CHUNKS_PER_WORKER = 2;
+    // Marks the end of the chunks for the writer.
+    private static final Future<String> END = CompletableFuture.completedFuture(null);
+
+    private final Responder responder;
+    private final int workers;
+
+    /**
+     * Create a BatchProcessor with one worker per processor.
+     *
+     * @param responder  The responder that answers the lines
+     */
+    public BatchProcessor(Responder responder)
+    {
+        this(responder, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a BatchProcessor.
+     *
+     * @param responder  The responder that answers the lines
+     * @param workers    The number of worker threads
+     */
+    public BatchProcessor(Responder responder, int workers)
+    {
+        if(workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        this.responder = responder;
+        this.workers = workers;
+    }
+
+    /**
+     * Answer every line of the input. The output is flushed, but neither
+     * stream is closed.
+     *
+     * @param in   The input lines
+     * @param out  Where the answers are written
+     * @return     The number of lines answered
+     * @throws IOException  If the input cannot be read or the output written
+     */
+    public long process(BufferedReader in, Writer out) throws IOException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        // The chunks in input order; the writer waits for each in turn.
+        ArrayBlockingQueue<Future<String>> pending =
+            new ArrayBlockingQueue<>(workers * CHUNKS_PER_WORKER);
+        Future<?> writing = writer.submit(() -> {
+            Future<String> chunk = pending.take();
+            while(chunk != END) {
+                out.write(chunk.get());
+                chunk = pending.take();
+            }
+            out.flush();
+            return null;
+        });
+        try {
+            long lineNumber = 0;
+            String[] lines = new String[LINES_PER_CHUNK];
+            int count = 0;
+            String line = in.readLine();
+            while(line != null) {
+                lines[count++] = line;
+                if(count == lines.length) {
+                    enqueue(pending, respond(pool, lines, count, lineNumber + 1), writing);
+                    lineNumber += count;
+                    lines = new String[LINES_PER_CHUNK];
+                    count = 0;
+                }
+                line = in.readLine();
+            }
+            if(count > 0) {
+                enqueue(pending, respond(pool, lines, count, lineNumber + 1), writing);
+                lineNumber += count;
+            }
+            enqueue(pending, END, writing);
+            waitFor(writing);
+            return lineNumber;
+        }
+        finally {
+            pool.shutdownNow();
+            writer.shutdownNow();
+        }
+    }
+
+    /**
+     * Hand a chunk of lines to the workers.
+     *
+     * @param pool        The workers
+     * @param lines       The lines; the array is not reused afterwards
+     * @param count       How many of them are in use
+     * @param firstLine   The line number of the first one
+     * @return            The chunk's output, when it is ready
+     */
+    private Future<String> respond(ExecutorService pool, String[] lines, int count,
+                                   long firstLine)
+    {
+        return pool.submit(() -> {
+            StringBuilder text = new StringBuilder(count * 128);
+            for(int i = 0; i < count; i++) {
+                text.append(firstLine + i).append('\t');
+                appendEscaped(text, responder.generateResponse(lines[i]));
+                text.append('\n');
+            }
+            return text.toString();
+        });
+    }
+
+    /**
+     * Put a chunk in line for the writer, waiting while the pipeline is
+     * full. If the writer has failed there is no point going on, and its
+     * problem is thrown instead.
+     *
+     * @param pending  The chunks waiting to be written
+     * @param chunk    The chunk
+     * @param writing  The writer's progress
+     * @throws IOException  If the writer has failed
+     */
+    private static void enqueue(ArrayBlockingQueue<Future<String>> pending,
+                                Future<String> chunk, Future<?> writing) throws IOException
+    {
+        try {
+            while(!pending.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if(writing.isDone()) {
+                    waitFor(writing);
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while processing the batch");
+        }
+    }
+
+    /**
+     * Wait for the writer to finish, and pass on anything that went wrong.
+     *
+     * @param writing  The writer's progress
+     * @throws IOException  If the output could not be written or a line
+     *                      could not be answered
+     */
+    private static void waitFor(Future<?> writing) throws IOException
+    {
+        try {
+            writing.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while processing the batch");
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            // a worker's failure reaches us wrapped once more by the writer
+            if(cause instanceof ExecutionException) {
+                cause = cause.getCause();
+            }
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("the batch could not be processed", cause);
+        }
+    }
+
+    /**
+     * Append a response with its line breaks, tabs and backslashes escaped.
+     *
+     * @param text      Where to append it
+     * @param response  The response
+     */
+    private static void appendEscaped(StringBuilder text, String response)
+    {
+        for(int i = 0; i < response.length(); i++) {
+            char c = response.charAt(i);
+            switch(c) {
+                case '\n': text.append("\\n");  break;
+                case '\t': text.append("\\t");  break;
+                case '\\': text.append("\\\\"); break;
+                case '\r':                      break;
+                default:   text.append(c);
+            }
+        }
+    }
+
+    /**
+     * Answer a file of lines from the command line, using the knowledge
+     * base in the current directory. "-" stands for standard input or
+     * output.
+     *
+     * @param args  The input file, the output file and optionally the
+     *              number of worker threads
+     * @throws IOException  If a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 2) {
+            System.err.println("usage: BatchProcessor input output [workers]");
+            return;
+        }
+        Responder responder = new Responder();
+        BatchProcessor processor = args.length > 2
+            ? new BatchProcessor(responder, Integer.parseInt(args[2]))
+            : new BatchProcessor(responder);
+        long start = System.nanoTime();
+        long lines;
+        try (BufferedReader in = args[0].equals("-")
+                 ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                 : Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8);
+             Writer out = args[1].equals("-")
+                 ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+                 : Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8))
+        {
+            lines = processor.process(in, out);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Answered %d lines in %.2f s (%.0f lines/s)%n",
+                          lines, seconds, lines / seconds);
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A BlockReader reads a text file one block at a time, where a block is a
+ * run of non-blank lines and blocks are separated by one or more blank
+ * lines. Only the current block is held in memory, so files of any size can
+ * be read, and line numbers are kept so that problems can be reported
+ * precisely. The position of every line in the file is kept too, so that
+ * the text of a block can be found again later without reading the whole
+ * file (see LazyKnowledgeBase).
+ *
+ * The lines of a block are kept together in one buffer, and a line only
+ * becomes a String when getLine is called, so reading a block makes no
+ * garbage unless its text is asked for.
+ *
+ * A typical loop looks like this:
+ *      while(blocks.nextBlock()) {
+ *          String first = blocks.getLine(0);
+ *          String rest = blocks.join(1, "\n");
+ *          ...
+ *      }
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class BlockReader implements Closeable
+{
+    private final Reader reader;
+    // The name of the file, used in warnings.
+    private final String fileName;
+    // The text of the current block, its lines one after another with no
+    // line breaks. Reused from block to block.
+    private final StringBuilder text;
+    // Where each line of the current block starts and ends in text.
+    private int[] textStarts;
+    private int[] textEnds;
+    private int lineCount;
+    // Where each line of the current block starts and ends in the file,
+    // in characters, not counting its line break.
+    private long[] lineStarts;
+    private long[] lineEnds;
+    // Characters read from the file but not yet used, and the position in
+    // the file of the next one.
+    private final char[] buffer;
+    private int bufferStart;
+    private int bufferEnd;
+    private long position;
+    // Used to join lines. Reused from block to block.
+    private final StringBuilder builder;
+    // The number of the last line read from the file (the first line is 1).
+    private int lineNumber;
+    // The line number of the first line of the current block.
+    private int blockStart;
+    // The number of problems reported so far.
+    private int warnings;
+
+    /**
+     * Create a BlockReader.
+     *
+     * @param reader    The text to read; it is read in large pieces, so it
+     *                  need not be buffered
+     * @param fileName  The name to use when reporting problems
+     */
+    public BlockReader(Reader reader, String fileName)
+    {
+        this.reader = reader;
+        this.fileName = fileName;
+        text = new StringBuilder();
+        textStarts = new int[8];
+        textEnds = new int[8];
+        lineStarts = new long[8];
+        lineEnds = new long[8];
+        buffer = new char[8192];
+        builder = new StringBuilder();
+    }
+
+    /**
+     * Move to the next block. Any number of blank lines before it are
+     * skipped.
+     *
+     * @return  true if there is another block, false at the end of the file
+     * @throws IOException  If the file cannot be read
+     */
+    public boolean nextBlock() throws IOException
+    {
+        text.setLength(0);
+        lineCount = 0;
+        while(readLine()) {
+            lineNumber++;
+            if(isBlank(lineCount)) {
+                if(lineCount > 0) {
+                    break;
+                }
+                // blank lines before the block are dropped
+                text.setLength(0);
+            }
+            else {
+                if(lineCount == 0) {
+                    blockStart = lineNumber;
+                }
+                lineCount++;
+            }
+        }
+        return lineCount > 0;
+    }
+
+    /**
+     * @return  The number of lines in the current block
+     */
+    public int getLineCount()
+    {
+        return lineCount;
+    }
+
+    /**
+     * @param index  The index of a line within the current block
+     * @return       That line, exactly as it appears in the file
+     */
+    public String getLine(int index)
+    {
+        checkIndex(index);
+        return text.substring(textStarts[index], textEnds[index]);
+    }
+
+    /**
+     * @param index  The index of a line within the current block
+     * @return       The position in the file of the line's first character,
+     *               counted in characters from the start of the file; in
+     *               an ASCII file this is also its byte offset
+     */
+    public long getLineStart(int index)
+    {
+        checkIndex(index);
+        return lineStarts[index];
+    }
+
+    /**
+     * @param index  The index of a line within the current block
+     * @return       The position in the file just after the line's last
+     *               character, not counting the line break
+     */
+    public long getLineEnd(int index)
+    {
+        checkIndex(index);
+        return lineEnds[index];
+    }
+
+    /**
+     * @return  The line number of the first line of the current block
+     */
+    public int getBlockStart()
+    {
+        return blockStart;
+    }
+
+    /**
+     * Join lines of the current block together, from the given line to the
+     * end of the block, and trim white space from the ends of the result.
+     *
+     * @param from       The index of the first line to include
+     * @param separator  What to put between lines
+     * @return           The joined text
+     */
+    public String join(int from, String separator)
+    {
+        return joinInPlace(from, separator).toString();
+    }
+
+    /**
+     * Join lines like join does, without making a String.
+     *
+     * @param from       The index of the first line to include
+     * @param separator  What to put between lines
+     * @return           The joined text; it is overwritten by the next call
+     *                   to join or joinInPlace
+     */
+    public CharSequence joinInPlace(int from, String separator)
+    {
+        builder.setLength(0);
+        for(int i = from; i < lineCount; i++) {
+            if(i > from) {
+                builder.append(separator);
+            }
+            builder.append(text, textStarts[i], textEnds[i]);
+        }
+        // trim both ends without making an intermediate String
+        int start = 0;
+        int end = builder.length();
+        while(start < end && Character.isWhitespace(builder.charAt(start))) {
+            start++;
+        }
+        while(end > start && Character.isWhitespace(builder.charAt(end - 1))) {
+            end--;
+        }
+        builder.setLength(end);
+        builder.delete(0, start);
+        return builder;
+    }
+
+    /**
+     * Report a problem with the current block on System.err.
+     *
+     * @param message  What is wrong with the block
+     */
+    public void warn(String message)
+    {
+        warnings++;
+        System.err.println(fileName + ", line " + blockStart + ": " + message);
+    }
+
+    /**
+     * @return  The number of problems reported so far
+     */
+    public int getWarningCount()
+    {
+        return warnings;
+    }
+
+    /**
+     * Close the underlying reader.
+     *
+     * @throws IOException  If the reader cannot be closed
+     */
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+
+    /**
+     * @param index  The index of a line within the current block
+     * @throws IndexOutOfBoundsException  If there is no such line
+     */
+    private void checkIndex(int index)
+    {
+        if(index < 0 || index >= lineCount) {
+            throw new IndexOutOfBoundsException("No line " + index);
+        }
+    }
+
+    /**
+     * Read one line onto the end of text as line lineCount of the block,
+     * ending at "\n", "\r" or "\r\n" as with BufferedReader.readLine, and
+     * keep track of the position in the file.
+     *
+     * @return  false at the end of the file
+     * @throws IOException  If the file cannot be read
+     */
+    private boolean readLine() throws IOException
+    {
+        if(lineCount == textStarts.length) {
+            textStarts = Arrays.copyOf(textStarts, lineCount * 2);
+            textEnds = Arrays.copyOf(textEnds, lineCount * 2);
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+        }
+        textStarts[lineCount] = text.length();
+        lineStarts[lineCount] = position;
+        boolean any = false;
+        while(true) {
+            if(bufferStart == bufferEnd && !fill()) {
+                break;
+            }
+            any = true;
+            // copy up to the line break in one go
+            int end = bufferStart;
+            while(end < bufferEnd && buffer[end] != '\n' && buffer[end] != '\r') {
+                end++;
+            }
+            text.append(buffer, bufferStart, end - bufferStart);
+            position += end - bufferStart;
+            bufferStart = end;
+            if(end < bufferEnd) {
+                char c = buffer[bufferStart++];
+                position++;
+                if(c == '\r' && (bufferStart < bufferEnd || fill()) && buffer[bufferStart] == '\n') {
+                    bufferStart++;
+                    position++;
+                }
+                break;
+            }
+        }
+        textEnds[lineCount] = text.length();
+        lineEnds[lineCount] = lineStarts[lineCount] + textEnds[lineCount] - textStarts[lineCount];
+        return any;
+    }
+
+    /**
+     * Read more of the file into the buffer, which must be empty.
+     *
+     * @return  false at the end of the file
+     * @throws IOException  If the file cannot be read
+     */
+    private boolean fill() throws IOException
+    {
+        int count = reader.read(buffer, 0, buffer.length);
+        while(count == 0) {
+            count = reader.read(buffer, 0, buffer.length);
+        }
+        bufferStart = 0;
+        bufferEnd = Math.max(count, 0);
+        return count > 0;
+    }
+
+    /**
+     * @param index  The index of a line just read into text
+     * @return       true if the line is empty or only white space
+     */
+    private boolean isBlank(int index)
+    {
+        for(int i = textStarts[index]; i < textEnds[index]; i++) {
+            if(!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
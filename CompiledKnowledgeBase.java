@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A CompiledKnowledgeBase reads a knowledge base file written by
+ * KnowledgeBaseCompiler. The file is memory mapped rather than read, so
+ * opening it takes about the same time however large it is, and the text of
+ * the responses stays in the operating system's page cache instead of on
+ * the Java heap. A response only becomes a String when it is returned.
+ *
+ * The file layout (all numbers are big-endian ints, except where longs
+ * are said) is:
+ *      header:    magic, version, keyword count, string count,
+ *                 response count, default response count, hash table size,
+ *                 index start (the byte position of the index area)
+ *      table:     hash table size slots, each 0 (empty) or keyword index + 1
+ *      keywords:  for each keyword, its string id, response id and weight
+ *      responses: for each response id, its string id
+ *      defaults:  for each default response, its string id
+ *      strings:   for each string, its offset and length in the text area
+ *      text:      the ASCII bytes of every distinct string, stored once
+ *      index:     what a MatchingKnowledgeBase needs, already built:
+ *                 stems     stem table size, then the stem table's slots,
+ *                           each 0 or keyword index + 1, then for each
+ *                           keyword the string id of its stem, or -1
+ *                 spelling  the SpellingIndex's size, group area length
+ *                           and table size, then the group area, then the
+ *                           table as longs
+ *                 phrases   the PhraseMatcher's phrase count, state count
+ *                           and edge count, then its edge starts (state
+ *                           count + 1), fail links, key words, word counts
+ *                           and match links, then the character and target
+ *                           state of each edge
+ *
+ * Key words are found by hashing the word with KnowledgeBase.hash() and
+ * probing the table linearly. Key words are compared with the mapped bytes
+ * directly, so a lookup that misses allocates nothing. The index of a key
+ * word is its position in the keywords area.
+ *
+ * toMatchingKnowledgeBase uses the index area: stems are found in the
+ * stem table just as key words are, and the spelling index reads the
+ * mapped file directly. Only the phrase matcher, which is small, is copied
+ * onto the heap. So a Responder is ready as soon as the file is opened,
+ * instead of spending seconds building these for a large knowledge base.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/26/2020
+ */
+public final class CompiledKnowledgeBase implements KnowledgeBase
+{
+    // Identifies a compiled knowledge base file ("DSKB").
+    static final int MAGIC = 0x44534B42;
+    // The version of the layout described above.
+    static final int VERSION = 4;
+    // The size of the header in bytes.
+    static final int HEADER_SIZE = 8 * 4;
+    // The size of one entry in the keywords area in bytes.
+    static final int KEYWORD_SIZE = 3 * 4;
+
+    private final ByteBuffer buffer;
+    private final int keywordCount;
+    private final int responseCount;
+    private final int defaultCount;
+    private final int tableSize;
+    // Byte positions of each area in the file.
+    private final int tableStart;
+    private final int keywordStart;
+    private final int responseStart;
+    private final int defaultStart;
+    private final int stringStart;
+    private final int textStart;
+    private final int indexStart;
+    private final int stemTableSize;
+    private final int stemTableStart;
+    private final int stemStart;
+
+    /**
+     * Open a compiled knowledge base file.
+     *
+     * @param path  The file written by KnowledgeBaseCompiler
+     * @throws IOException  If the file cannot be read or is not a compiled
+     *                      knowledge base
+     */
+    public CompiledKnowledgeBase(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a compiled knowledge base");
+        }
+        if(buffer.getInt(4) != VERSION) {
+            throw new IOException(path + " has unsupported version " + buffer.getInt(4));
+        }
+        keywordCount = buffer.getInt(8);
+        int stringCount = buffer.getInt(12);
+        responseCount = buffer.getInt(16);
+        defaultCount = buffer.getInt(20);
+        tableSize = buffer.getInt(24);
+        if(defaultCount < 1 || Integer.bitCount(tableSize) != 1) {
+            throw new IOException(path + " is damaged");
+        }
+        tableStart = HEADER_SIZE;
+        keywordStart = tableStart + tableSize * 4;
+        responseStart = keywordStart + keywordCount * KEYWORD_SIZE;
+        defaultStart = responseStart + responseCount * 4;
+        stringStart = defaultStart + defaultCount * 4;
+        textStart = stringStart + stringCount * 8;
+        indexStart = buffer.getInt(28);
+        if(textStart > indexStart || indexStart + 4 > buffer.capacity()) {
+            throw new IOException(path + " is truncated");
+        }
+        stemTableSize = buffer.getInt(indexStart);
+        stemTableStart = indexStart + 4;
+        stemStart = stemTableStart + stemTableSize * 4;
+        if(Integer.bitCount(stemTableSize) != 1 ||
+           stemStart + keywordCount * 4 > buffer.capacity()) {
+            throw new IOException(path + " is damaged");
+        }
+    }
+
+    /**
+     * Find a key word.
+     *
+     * @param word  A word entered by the user
+     * @return      The key word's index, or -1 if it is not a key word
+     */
+    public int findKeyword(CharSequence word)
+    {
+        int mask = tableSize - 1;
+        int slot = KnowledgeBase.hash(word) & mask;
+        int entry = buffer.getInt(tableStart + slot * 4);
+        while(entry != 0) {
+            int keyword = entry - 1;
+            if(textEquals(buffer.getInt(keywordStart + keyword * KEYWORD_SIZE), word)) {
+                return keyword;
+            }
+            slot = (slot + 1) & mask;
+            entry = buffer.getInt(tableStart + slot * 4);
+        }
+        return -1;
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The response id of that key word
+     */
+    public int getResponseId(int keyword)
+    {
+        return buffer.getInt(keywordStart + keyword * KEYWORD_SIZE + 4);
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The weight of that key word
+     */
+    public int getWeight(int keyword)
+    {
+        return buffer.getInt(keywordStart + keyword * KEYWORD_SIZE + 8);
+    }
+
+    /**
+     * @param responseId  A response id
+     * @return            The text of that response
+     */
+    public String getResponse(int responseId)
+    {
+        if(responseId < 0 || responseId >= responseCount) {
+            throw new IndexOutOfBoundsException("No response " + responseId);
+        }
+        return text(buffer.getInt(responseStart + responseId * 4));
+    }
+
+    /**
+     * @return  The number of default responses
+     */
+    public int getDefaultResponseCount()
+    {
+        return defaultCount;
+    }
+
+    /**
+     * @param index  The index of a default response
+     * @return       The default response at that index
+     */
+    public String getDefaultResponse(int index)
+    {
+        if(index < 0 || index >= defaultCount) {
+            throw new IndexOutOfBoundsException("No default response " + index);
+        }
+        return text(buffer.getInt(defaultStart + index * 4));
+    }
+
+    /**
+     * @return  The number of key words
+     */
+    public int getKeywordCount()
+    {
+        return keywordCount;
+    }
+
+    /**
+     * @param keyword  A key word index, from 0 to getKeywordCount() - 1
+     * @return         The key word
+     */
+    public String getKeyword(int keyword)
+    {
+        return text(buffer.getInt(keywordStart + keyword * KEYWORD_SIZE));
+    }
+
+    /**
+     * Wrap this knowledge base in a MatchingKnowledgeBase, using the stem
+     * table, spelling index and phrase matcher stored in the file.
+     *
+     * @return  The matching knowledge base
+     * @throws IOException  If the index area is damaged
+     */
+    public MatchingKnowledgeBase toMatchingKnowledgeBase() throws IOException
+    {
+        try {
+            int position = stemStart + keywordCount * 4;
+            int spellingSize = buffer.getInt(position);
+            int groupLength = buffer.getInt(position + 4);
+            int slotCount = buffer.getInt(position + 8);
+            position += 12;
+            IntBuffer groups = buffer.slice(position, groupLength * 4).asIntBuffer();
+            position += groupLength * 4;
+            LongBuffer slots = buffer.slice(position, slotCount * 8).asLongBuffer();
+            position += slotCount * 8;
+            SpellingIndex spellings = new SpellingIndex(this, groups, slots, spellingSize);
+
+            int phraseCount = buffer.getInt(position);
+            int states = buffer.getInt(position + 4);
+            int edges = buffer.getInt(position + 8);
+            position += 12;
+            int[] edgeStarts = ints(position, states + 1);
+            position += (states + 1) * 4;
+            int[][] perState = new int[4][];
+            for(int i = 0; i < perState.length; i++) {
+                perState[i] = ints(position, states);
+                position += states * 4;
+            }
+            int[] chars = ints(position, edges);
+            position += edges * 4;
+            char[] edgeChars = new char[edges];
+            for(int e = 0; e < edges; e++) {
+                edgeChars[e] = (char) chars[e];
+            }
+            int[] edgeTargets = ints(position, edges);
+            PhraseMatcher phrases = new PhraseMatcher(phraseCount, edgeStarts, edgeChars,
+                                                      edgeTargets, perState[0], perState[1],
+                                                      perState[2], perState[3]);
+
+            return new MatchingKnowledgeBase(this, this::findStem, spellings, phrases);
+        }
+        catch(IndexOutOfBoundsException | IllegalArgumentException |
+              NegativeArraySizeException e) {
+            throw new IOException("the index area is damaged", e);
+        }
+    }
+
+    /**
+     * Find the key word that is found by a stem, as the stem table of a
+     * MatchingKnowledgeBase would.
+     *
+     * @param stem  A stem
+     * @return      The key word's index, or -1 if no key word has that stem
+     */
+    int findStem(CharSequence stem)
+    {
+        int mask = stemTableSize - 1;
+        int slot = KnowledgeBase.hash(stem) & mask;
+        int entry = buffer.getInt(stemTableStart + slot * 4);
+        while(entry != 0) {
+            int keyword = entry - 1;
+            if(textEquals(buffer.getInt(stemStart + keyword * 4), stem)) {
+                return keyword;
+            }
+            slot = (slot + 1) & mask;
+            entry = buffer.getInt(stemTableStart + slot * 4);
+        }
+        return -1;
+    }
+
+    /**
+     * Copy some of the file's ints onto the heap.
+     *
+     * @param position  The byte position of the first
+     * @param count     How many
+     * @return          The ints
+     */
+    private int[] ints(int position, int count)
+    {
+        int[] values = new int[count];
+        buffer.slice(position, count * 4).asIntBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Decode one of the stored strings.
+     *
+     * @param id  The string's id
+     * @return    The string
+     */
+    private String text(int id)
+    {
+        int entry = stringStart + id * 8;
+        int offset = buffer.getInt(entry);
+        int length = buffer.getInt(entry + 4);
+        byte[] bytes = new byte[length];
+        // an absolute get never touches the shared buffer's position
+        buffer.get(textStart + offset, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Compare a stored string with a word without decoding the string.
+     *
+     * @param id    The stored string's id
+     * @param word  The word to compare with
+     * @return      true if they are the same
+     */
+    private boolean textEquals(int id, CharSequence word)
+    {
+        int entry = stringStart + id * 8;
+        int offset = textStart + buffer.getInt(entry);
+        int length = buffer.getInt(entry + 4);
+        if(length != word.length()) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(buffer.get(offset + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.Arrays;
+
+/**
+ * A ConsistentHashRing shares the key words of a knowledge base out
+ * between a number of shards (see ShardRouter). Each shard is given
+ * VIRTUAL_NODES points on a ring of hash values, and a key belongs to the
+ * shard of the first point at or after the key's own hash. With many
+ * points per shard every shard gets close to an equal share, and changing
+ * the number of shards from n to n + 1 moves only about one key in n + 1.
+ *
+ * A key word is placed by the stem of its first word (see Stemmer). Every
+ * word of input that could match it, exactly or by stem, has that same
+ * stem, and every phrase starts with it, so a router that places each
+ * input word the same way always asks the shard that holds the key word.
+ *
+ * A ring never changes after it has been created, so it can be shared
+ * between threads without locking.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public final class ConsistentHashRing
+{
+    // The number of points each shard has on the ring.
+    public static final int VIRTUAL_NODES = 128;
+
+    // The points in increasing order, and the shard each one belongs to.
+    private final int[] points;
+    private final int[] owners;
+    private final int shardCount;
+
+    /**
+     * Create a ring.
+     *
+     * @param shardCount  The number of shards; at least 1
+     */
+    public ConsistentHashRing(int shardCount)
+    {
+        if(shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least one shard");
+        }
+        this.shardCount = shardCount;
+        // sort point and owner together: the point in the high half
+        long[] pairs = new long[shardCount * VIRTUAL_NODES];
+        for(int shard = 0; shard < shardCount; shard++) {
+            for(int node = 0; node < VIRTUAL_NODES; node++) {
+                int point = KnowledgeBase.hash("shard " + shard + " node " + node);
+                pairs[shard * VIRTUAL_NODES + node] = (long) point << 32 | shard;
+            }
+        }
+        Arrays.sort(pairs);
+        points = new int[pairs.length];
+        owners = new int[pairs.length];
+        for(int i = 0; i < pairs.length; i++) {
+            points[i] = (int) (pairs[i] >> 32);
+            owners[i] = (int) pairs[i];
+        }
+    }
+
+    /**
+     * @return  The number of shards
+     */
+    public int getShardCount()
+    {
+        return shardCount;
+    }
+
+    /**
+     * Find the shard a key belongs to.
+     *
+     * @param key  The key
+     * @return     Its shard, from 0 to getShardCount() - 1
+     */
+    public int getShard(CharSequence key)
+    {
+        int hash = KnowledgeBase.hash(key);
+        int low = 0;
+        int high = points.length;
+        // find the first point at or after the hash
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(points[middle] < hash) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        // past the last point the ring wraps round to the first
+        return owners[low == points.length ? 0 : low];
+    }
+
+    /**
+     * Find the shard of a key word or of a word of input: the shard its
+     * first word's stem belongs to.
+     *
+     * @param word  A key word or a word of input, normalized as by a
+     *              Tokenizer
+     * @param stem  Work space for the stem
+     * @return      Its shard, from 0 to getShardCount() - 1
+     */
+    public int getShardOfWord(CharSequence word, StringBuilder stem)
+    {
+        int end = 0;
+        while(end < word.length() && word.charAt(end) != ' ') {
+            end++;
+        }
+        Stemmer.stem(end == word.length() ? word : word.subSequence(0, end), stem);
+        return getShard(stem);
+    }
+}
@@ -1,24 +1,53 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.HashSet;
-import java.util.Scanner;
 
 /**
  * InputReader reads typed text input from the standard text terminal. 
  * The text typed by a user is then chopped into words, and a set of words 
- * is provided.
+ * is provided. Alternatively the line can be returned as it was typed, to
+ * be tokenized by whoever uses it.
+ * 
+ * An InputReader can also be attached to any other stream pair (for example
+ * a network connection), so that several dialogs can run side by side.
  * 
  * @author David J. Barnes and Michael Kölling.
  * @version 2016.02.29
  */
 public class InputReader
 {
-    private Scanner reader;
+    // Printed before each line is read.
+    public static final String PROMPT = "> ";
+
+    private BufferedReader reader;
+    // Where the prompt is printed.
+    private PrintStream out;
+    // Splits lines into words.
+    private Tokenizer tokenizer;
 
     /**
      * Create a new InputReader that reads text from the text terminal.
      */
     public InputReader()
     {
-        reader = new Scanner(System.in);
+        this(System.in, System.out);
+    }
+
+    /**
+     * Create a new InputReader that reads text from the given stream and
+     * prints its prompt to the given output.
+     * 
+     * @param in   The stream the user's text arrives on
+     * @param out  The stream the prompt is printed to
+     */
+    public InputReader(InputStream in, PrintStream out)
+    {
+        reader = new BufferedReader(new InputStreamReader(in));
+        this.out = out;
+        tokenizer = new Tokenizer();
     }
 
     /**
@@ -26,20 +55,76 @@ public class InputReader
      * and return it as a set of words.
      *
      * @return  A set of Strings, where each String is one of the 
-     *          words typed by the user
+     *          words typed by the user, or null if there is no more input
      */
     public HashSet<String> getInput() 
     {
-        System.out.print("> ");                // print prompt
-        String inputLine = reader.nextLine().trim().toLowerCase();
-
-        String[] wordArray = inputLine.split(" ");  // split at spaces
+        String inputLine = getInputLine();
+        if(inputLine == null) {
+            return null;
+        }
 
-        // add words from array into hashset 
+        // add the words of the line into a hashset; the tokenizer has
+        // already dropped punctuation and made them lower case
         HashSet<String> words = new HashSet<>();
-        for(String word : wordArray) {
-            words.add(word);
+        tokenizer.reset(inputLine);
+        while(tokenizer.next()) {
+            words.add(tokenizer.getToken().toString());
         }
         return words;
     }
+
+    /**
+     * Read a line of text from standard input (the text terminal),
+     * and return it exactly as it was typed.
+     *
+     * @return  The line typed by the user, or null if there is no more input
+     */
+    public String getInputLine()
+    {
+        printPrompt();
+        return readLine();
+    }
+
+    /**
+     * Print the prompt that asks for the next line.
+     */
+    public void printPrompt()
+    {
+        out.print(PROMPT);              // print prompt
+        out.flush();
+    }
+
+    /**
+     * Read a line of text without printing a prompt, waiting for one if
+     * none has arrived yet.
+     *
+     * @return  The line typed by the user, or null if there is no more input
+     */
+    public String readLine()
+    {
+        try {
+            return reader.readLine();   // null if the other side has gone away
+        }
+        catch(IOException e) {
+            return null;                // the connection broke
+        }
+    }
+
+    /**
+     * Tell whether text has arrived that has not been read yet, so that
+     * readLine() will not have to wait for it (unless only the start of a
+     * line has arrived).
+     *
+     * @return  true if there is text waiting to be read
+     */
+    public boolean isLineWaiting()
+    {
+        try {
+            return reader.ready();
+        }
+        catch(IOException e) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,134 @@
+/**
+ * A KnowledgeBase holds everything a Responder knows: the key words with
+ * their responses, and the default responses used when no key word is
+ * recognised.
+ *
+ * Every distinct response has a response id, numbered from 0 in the order
+ * the responses appear in the key word file. Several key words may share a
+ * response id, and each key word has a weight (1 unless the file says
+ * otherwise) that says how strongly it points at its response.
+ *
+ * Implementations never change once created, so they can be shared between
+ * threads without locking. Key words are looked up by their characters, so
+ * a word from a Tokenizer can be looked up without making a String of it.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/28/2020
+ */
+public interface KnowledgeBase
+{
+    /**
+     * Find a key word.
+     *
+     * @param word  A word entered by the user
+     * @return      The key word's index, or -1 if it is not a key word
+     */
+    int findKeyword(CharSequence word);
+
+    /**
+     * @return  The number of key words; key word indexes run from 0 to
+     *          one less than this
+     */
+    int getKeywordCount();
+
+    /**
+     * @param keyword  A key word index
+     * @return         The key word
+     */
+    String getKeyword(int keyword);
+
+    /**
+     * @param keyword  A key word index
+     * @return         The response id of that key word
+     */
+    int getResponseId(int keyword);
+
+    /**
+     * @param keyword  A key word index
+     * @return         The weight of that key word; at least 1
+     */
+    int getWeight(int keyword);
+
+    /**
+     * @param responseId  A response id
+     * @return            The text of that response, or null if it cannot
+     *                    be read (only a LazyKnowledgeBase reads its
+     *                    responses as they are needed)
+     */
+    String getResponse(int responseId);
+
+    /**
+     * @return  The number of default responses; always at least one
+     */
+    int getDefaultResponseCount();
+
+    /**
+     * @param index  The index of a default response
+     * @return       The default response at that index
+     */
+    String getDefaultResponse(int index);
+
+    /**
+     * @return  The matcher for key words of more than one word, or null if
+     *          this knowledge base does not match phrases
+     */
+    default PhraseMatcher getPhraseMatcher()
+    {
+        return null;
+    }
+
+    /**
+     * Look up the response for a key word.
+     *
+     * @param word  A word entered by the user
+     * @return      The response for that word, or null if it is not a key
+     *              word or its response cannot be read
+     */
+    default String getResponse(CharSequence word)
+    {
+        int keyword = findKeyword(word);
+        if(keyword < 0) {
+            return null;
+        }
+        return getResponse(getResponseId(keyword));
+    }
+
+    /**
+     * The hash function used for key word tables. It is FNV-1a over the
+     * characters of the word, which for ASCII text is the same as over its
+     * bytes, followed by a final mixing step. FNV-1a on its own has weak
+     * low bits, and the tables pick a slot from the low bits, so without
+     * the mixing large tables cluster badly. Unlike String.hashCode() it
+     * works on any CharSequence and does not depend on a cached value.
+     *
+     * @param word  The word to hash
+     * @return      The hash code
+     */
+    static int hash(CharSequence word)
+    {
+        int hash = 0x811C9DC5;
+        for(int i = 0; i < word.length(); i++) {
+            hash ^= word.charAt(i);
+            hash *= 0x01000193;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Spread the bits of a hash code so that every bit of the result
+     * depends on every bit of the input (the MurmurHash3 finaliser).
+     *
+     * @param hash  A hash code
+     * @return      The mixed hash code
+     */
+    static int mix(int hash)
+    {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,356 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * A KnowledgeBaseBuilder collects key words, responses and default
+ * responses while the text files are read, and then makes a
+ * TextKnowledgeBase of them.
+ *
+ * Everything is stored the way the TextKnowledgeBase will keep it, so
+ * nothing is copied when it is built. Each distinct response text is kept
+ * once, however many key words share it or however many blocks repeat it,
+ * and key words refer to it by an int response id. Both key words and
+ * responses are found through WordTables, so a million key words cost
+ * little more than the strings themselves plus a few ints each, with no
+ * map entries and no boxed Integers. When it is built the key words are
+ * given a PerfectHashTable, which takes about 7 bytes for each of them.
+ *
+ * A lazy builder (one given a response file) does not keep the text of
+ * responses at all, only where each one is in the file, and makes a
+ * LazyKnowledgeBase that reads them when they are needed. Responses are
+ * still kept once only: two blocks have the same response when the text of
+ * both has the same length and the same two 64-bit hashes.
+ *
+ * A builder can be given a filter so that it keeps only some of the key
+ * words, as a ShardNode does. Every response is still given its response
+ * id, so response ids are the same as those of a builder that kept them
+ * all.
+ *
+ * A builder is not thread safe, and must not be used after build().
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public final class KnowledgeBaseBuilder
+{
+    // Maps each key word to its index, in the order they were added.
+    private final WordTable keywordTable;
+    // The key words, response ids and weights, indexed by key word index.
+    // The arrays grow as key words are added.
+    private String[] keywords;
+    private int[] responseIds;
+    private int[] weights;
+    private int keywordCount;
+    // Maps each distinct response to its response id.
+    private final WordTable responseTable;
+    // Each distinct response, indexed by response id.
+    private String[] responses;
+    private int responseCount;
+    // For a lazy builder, the file the responses are in; null otherwise.
+    private final Path responseFile;
+    // For a lazy builder, where each response is in the file, and a hash
+    // table from the hashes and length of a response's text to its
+    // response id + 1 (0 is an empty slot).
+    private long[] responseStarts;
+    private int[] responseLengths;
+    private long[] hashTable;
+    private int[] idTable;
+    // Default responses to use if we don't recognise a word.
+    private final ArrayList<String> defaultResponses;
+    // Decides which key words are kept; null keeps them all.
+    private Predicate<String> keywordFilter;
+
+    /**
+     * Create an empty builder.
+     */
+    public KnowledgeBaseBuilder()
+    {
+        this(16, null);
+    }
+
+    /**
+     * Create an empty builder with room for a number of key words.
+     *
+     * @param capacity      The number of key words expected; more may be
+     *                      added
+     * @param responseFile  The file the responses will be read from, for a
+     *                      lazy builder; null to keep the text of responses
+     */
+    public KnowledgeBaseBuilder(int capacity, Path responseFile)
+    {
+        capacity = Math.max(capacity, 1);
+        keywordTable = new WordTable(capacity);
+        keywords = new String[capacity];
+        responseIds = new int[capacity];
+        weights = new int[capacity];
+        this.responseFile = responseFile;
+        if(responseFile == null) {
+            responseTable = new WordTable(capacity);
+            responses = new String[capacity];
+        }
+        else {
+            responseTable = null;
+            responseStarts = new long[capacity];
+            responseLengths = new int[capacity];
+            // a power of two at least twice the capacity, as the probes
+            // wrap with a mask
+            int slots = Integer.highestOneBit(capacity * 2 - 1) * 2;
+            hashTable = new long[slots * 2];
+            idTable = new int[slots];
+        }
+        defaultResponses = new ArrayList<>();
+    }
+
+    /**
+     * @return  true if this builder makes a LazyKnowledgeBase
+     */
+    public boolean isLazy()
+    {
+        return responseFile != null;
+    }
+
+    /**
+     * Keep only some of the key words added from now on.
+     *
+     * @param keywordFilter  Returns true for the key words to keep, or
+     *                       null to keep them all
+     */
+    public void setKeywordFilter(Predicate<String> keywordFilter)
+    {
+        this.keywordFilter = keywordFilter;
+    }
+
+    /**
+     * Add a key word with the text of its response. Only a builder that is
+     * not lazy can take the text this way.
+     *
+     * @param keyword   The key word, normalized as by a Tokenizer
+     * @param response  Its response
+     * @param weight    Its weight; values below 1 count as 1
+     * @return          true if the key word is new or was left out, false
+     *                  if it replaced an earlier one
+     */
+    public boolean addKeyword(String keyword, String response, int weight)
+    {
+        if(isLazy()) {
+            throw new IllegalStateException("A lazy builder needs the block of each response");
+        }
+        return addKeyword(keyword, internResponse(response), weight);
+    }
+
+    /**
+     * Add a key word. If the key word was added before, it keeps its index
+     * but is given the new response and weight. A key word rejected by the
+     * filter is left out.
+     *
+     * @param keyword     The key word, normalized as by a Tokenizer
+     * @param responseId  Its response, as returned by addResponse
+     * @param weight      Its weight; values below 1 count as 1
+     * @return            true if the key word is new or was left out, false
+     *                    if it replaced an earlier one
+     */
+    public boolean addKeyword(String keyword, int responseId, int weight)
+    {
+        if(keywordFilter != null && !keywordFilter.test(keyword)) {
+            return true;
+        }
+        int index = keywordTable.get(keyword);
+        boolean added = index < 0;
+        if(added) {
+            index = keywordCount++;
+            if(index == keywords.length) {
+                int length = keywords.length * 2;
+                keywords = Arrays.copyOf(keywords, length);
+                responseIds = Arrays.copyOf(responseIds, length);
+                weights = Arrays.copyOf(weights, length);
+            }
+            keywordTable.put(keyword, index);
+            keywords[index] = keyword;
+        }
+        responseIds[index] = responseId;
+        weights[index] = Math.max(1, weight);
+        return added;
+    }
+
+    /**
+     * Add a response: the lines of the current block of the response file,
+     * from the given line to the end, joined by line breaks. A response
+     * the same as an earlier one gets the earlier one's id.
+     *
+     * @param blocks  The reader of the response file
+     * @param from    The index of the response's first line in the block
+     * @return        The response id
+     */
+    public int addResponse(BlockReader blocks, int from)
+    {
+        if(!isLazy()) {
+            return internResponse(blocks.join(from, "\n"));
+        }
+        // only hashed, so it need not become a String
+        CharSequence text = blocks.joinInPlace(from, "\n");
+        long hash = hash64(text, 0x100000001b3L);
+        long check = hash64(text, 0x9e3779b97f4a7c15L) ^ text.length();
+        int mask = idTable.length - 1;
+        int slot = (int) hash & mask;
+        while(idTable[slot] != 0) {
+            if(hashTable[slot * 2] == hash && hashTable[slot * 2 + 1] == check) {
+                return idTable[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = responseCount++;
+        if(id == responseStarts.length) {
+            responseStarts = Arrays.copyOf(responseStarts, id * 2);
+            responseLengths = Arrays.copyOf(responseLengths, id * 2);
+        }
+        long start = blocks.getLineStart(from);
+        responseStarts[id] = start;
+        responseLengths[id] = (int) (blocks.getLineEnd(blocks.getLineCount() - 1) - start);
+        hashTable[slot * 2] = hash;
+        hashTable[slot * 2 + 1] = check;
+        idTable[slot] = id + 1;
+        if(responseCount == idTable.length / 2) {
+            growHashTable();
+        }
+        return id;
+    }
+
+    /**
+     * Add a default response.
+     *
+     * @param response  The response
+     */
+    public void addDefaultResponse(String response)
+    {
+        defaultResponses.add(response);
+    }
+
+    /**
+     * @return  The number of key words added so far
+     */
+    public int getKeywordCount()
+    {
+        return keywordCount;
+    }
+
+    /**
+     * @return  The number of distinct responses added so far
+     */
+    public int getResponseCount()
+    {
+        return responseCount;
+    }
+
+    /**
+     * @return  The number of default responses added so far
+     */
+    public int getDefaultResponseCount()
+    {
+        return defaultResponses.size();
+    }
+
+    /**
+     * Make a knowledge base of everything added: a LazyKnowledgeBase if
+     * this builder is lazy, otherwise a TextKnowledgeBase.
+     *
+     * @return  The new knowledge base
+     * @throws IllegalStateException  If no default response was added
+     */
+    public KnowledgeBase build()
+    {
+        if(defaultResponses.isEmpty()) {
+            throw new IllegalStateException("At least one default response is needed");
+        }
+        // the table only needed for adding key words is left behind
+        String[] keywords = Arrays.copyOf(this.keywords, keywordCount);
+        PerfectHashTable keywordTable = new PerfectHashTable(keywords);
+        if(isLazy()) {
+            return new LazyKnowledgeBase(keywordTable,
+                                         keywords,
+                                         Arrays.copyOf(responseIds, keywordCount),
+                                         Arrays.copyOf(weights, keywordCount),
+                                         responseFile,
+                                         Arrays.copyOf(responseStarts, responseCount),
+                                         Arrays.copyOf(responseLengths, responseCount),
+                                         defaultResponses.toArray(new String[0]));
+        }
+        return new TextKnowledgeBase(keywordTable,
+                                     keywords,
+                                     Arrays.copyOf(responseIds, keywordCount),
+                                     Arrays.copyOf(weights, keywordCount),
+                                     Arrays.copyOf(responses, responseCount),
+                                     defaultResponses.toArray(new String[0]));
+    }
+
+    /**
+     * Find the id of a response, giving it a new one if it has not been
+     * seen before. Identical texts share the first copy seen, so a later
+     * copy can be thrown away as soon as it has been read.
+     *
+     * @param response  The response
+     * @return          Its response id
+     */
+    private int internResponse(String response)
+    {
+        int id = responseTable.get(response);
+        if(id < 0) {
+            id = responseCount++;
+            if(id == responses.length) {
+                responses = Arrays.copyOf(responses, responses.length * 2);
+            }
+            responseTable.put(response, id);
+            responses[id] = response;
+        }
+        return id;
+    }
+
+    /**
+     * Double the size of the lazy builder's hash table.
+     */
+    private void growHashTable()
+    {
+        long[] oldHashes = hashTable;
+        int[] oldIds = idTable;
+        hashTable = new long[oldHashes.length * 2];
+        idTable = new int[oldIds.length * 2];
+        int mask = idTable.length - 1;
+        for(int i = 0; i < oldIds.length; i++) {
+            if(oldIds[i] != 0) {
+                int slot = (int) oldHashes[i * 2] & mask;
+                while(idTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashTable[slot * 2] = oldHashes[i * 2];
+                hashTable[slot * 2 + 1] = oldHashes[i * 2 + 1];
+                idTable[slot] = oldIds[i];
+            }
+        }
+    }
+
+    /**
+     * A 64-bit FNV-1a style hash of some text, finished with the MurmurHash3
+     * mixer so that every bit depends on every character.
+     *
+     * @param text        The text
+     * @param multiplier  An odd number; different multipliers give
+     *                    unrelated hashes
+     * @return            The hash
+     */
+    private static long hash64(CharSequence text, long multiplier)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= multiplier;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
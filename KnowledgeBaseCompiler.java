@@ -0,0 +1,307 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The KnowledgeBaseCompiler turns the key word and default response text
+ * files into a single binary file that CompiledKnowledgeBase can memory map.
+ * Identical strings are stored only once, so responses shared by several
+ * key words cost nothing extra. The stem table, spelling index and phrase
+ * matcher that a MatchingKnowledgeBase needs are stored as well, so a
+ * Responder that opens the file is ready to answer without building
+ * anything.
+ *
+ * Run it from the project directory after editing the text files:
+ *      java KnowledgeBaseCompiler
+ * The Responder uses the compiled file whenever it is newer than both text
+ * files.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class KnowledgeBaseCompiler
+{
+    // Each distinct string, in the order its id was given out.
+    private ArrayList<String> strings;
+    // Maps each distinct string to its id.
+    private WordTable stringIds;
+
+    /**
+     * Create a compiler.
+     */
+    public KnowledgeBaseCompiler()
+    {
+        strings = new ArrayList<>();
+        stringIds = new WordTable(0);
+    }
+
+    /**
+     * Compile a knowledge base into a binary file. The file is written next
+     * to its final name and then moved into place, so a Responder reloading
+     * at the same time never sees half a file.
+     *
+     * Key word indexes and response ids are kept as they are in the
+     * knowledge base.
+     *
+     * @param knowledgeBase  The knowledge base to compile
+     * @param target         The file to write
+     * @throws IOException   If a response cannot be read or the file
+     *                       cannot be written
+     */
+    public void compile(KnowledgeBase knowledgeBase, Path target) throws IOException
+    {
+        strings = new ArrayList<>();
+        stringIds = new WordTable(knowledgeBase.getKeywordCount());
+
+        // Give every key word, response and default response a string id.
+        int keywordCount = knowledgeBase.getKeywordCount();
+        int[] keywordIds = new int[keywordCount];
+        int[] responseIds = new int[keywordCount];
+        int[] keywordWeights = new int[keywordCount];
+        int responseCount = 0;
+        for(int k = 0; k < keywordCount; k++) {
+            responseCount = Math.max(responseCount, knowledgeBase.getResponseId(k) + 1);
+        }
+        int[] responseStrings = new int[responseCount];
+        Arrays.fill(responseStrings, -1);
+        for(int k = 0; k < keywordCount; k++) {
+            keywordIds[k] = intern(knowledgeBase.getKeyword(k));
+            responseIds[k] = knowledgeBase.getResponseId(k);
+            keywordWeights[k] = knowledgeBase.getWeight(k);
+            if(responseStrings[responseIds[k]] < 0) {
+                responseStrings[responseIds[k]] = intern(responseOf(knowledgeBase, responseIds[k]));
+            }
+        }
+        for(int id = 0; id < responseCount; id++) {
+            // a response no key word uses any more
+            if(responseStrings[id] < 0) {
+                responseStrings[id] = intern(responseOf(knowledgeBase, id));
+            }
+        }
+        int[] defaultIds = new int[knowledgeBase.getDefaultResponseCount()];
+        for(int i = 0; i < defaultIds.length; i++) {
+            defaultIds[i] = intern(knowledgeBase.getDefaultResponse(i));
+        }
+
+        // The stem table, spelling index and phrase matcher, built here
+        // once rather than every time the file is opened.
+        MatchingKnowledgeBase matching = knowledgeBase instanceof MatchingKnowledgeBase
+                                         ? (MatchingKnowledgeBase) knowledgeBase
+                                         : new MatchingKnowledgeBase(knowledgeBase);
+        String[] stems = matching.getStems();
+        int[] stemIds = new int[keywordCount];
+        for(int k = 0; k < keywordCount; k++) {
+            stemIds[k] = stems[k] == null ? -1 : intern(stems[k]);
+        }
+        SpellingIndex spellings = matching.getSpellingIndex();
+        PhraseMatcher phrases = matching.getPhraseMatcher();
+
+        // Build the hash tables of key words and of stems, at most half full.
+        int tableSize = Integer.highestOneBit(Math.max(keywordCount, 1) * 2 - 1) << 1;
+        int[] table = hashTable(keywordIds, tableSize);
+        int[] stemTable = hashTable(stemIds, tableSize);
+
+        long textLength = 0;
+        for(String text : strings) {
+            textLength += text.length();
+        }
+        long indexStart = CompiledKnowledgeBase.HEADER_SIZE + tableSize * 4L +
+                          keywordCount * (long) CompiledKnowledgeBase.KEYWORD_SIZE +
+                          responseStrings.length * 4L + defaultIds.length * 4L +
+                          strings.size() * 8L + textLength;
+        if(indexStart > Integer.MAX_VALUE) {
+            throw new IOException("The knowledge base is too large to compile");
+        }
+
+        // Each compiler writes a file of its own, so that two started at
+        // once cannot mix their output.
+        Path temporary = target.resolveSibling(target.getFileName() + "." +
+                                               ProcessHandle.current().pid() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(CompiledKnowledgeBase.MAGIC);
+            out.writeInt(CompiledKnowledgeBase.VERSION);
+            out.writeInt(keywordCount);
+            out.writeInt(strings.size());
+            out.writeInt(responseStrings.length);
+            out.writeInt(defaultIds.length);
+            out.writeInt(tableSize);
+            out.writeInt((int) indexStart);
+            for(int slot : table) {
+                out.writeInt(slot);
+            }
+            for(int i = 0; i < keywordCount; i++) {
+                out.writeInt(keywordIds[i]);
+                out.writeInt(responseIds[i]);
+                out.writeInt(keywordWeights[i]);
+            }
+            for(int text : responseStrings) {
+                out.writeInt(text);
+            }
+            for(int id : defaultIds) {
+                out.writeInt(id);
+            }
+            int offset = 0;
+            for(String text : strings) {
+                out.writeInt(offset);
+                out.writeInt(text.length());
+                offset += text.length();
+            }
+            for(String text : strings) {
+                out.write(text.getBytes(StandardCharsets.US_ASCII));
+            }
+            writeIndex(out, stemTable, stemIds, spellings, phrases);
+        }
+        catch(IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write the index area: what a MatchingKnowledgeBase needs besides
+     * the knowledge base itself. See CompiledKnowledgeBase for the layout.
+     *
+     * @param out        Where to write it
+     * @param stemTable  The hash table of stems
+     * @param stemIds    The string id of each key word's stem, or -1
+     * @param spellings  The spelling index
+     * @param phrases    The phrase matcher
+     * @throws IOException  If it cannot be written
+     */
+    private static void writeIndex(DataOutputStream out, int[] stemTable, int[] stemIds,
+                                   SpellingIndex spellings, PhraseMatcher phrases)
+        throws IOException
+    {
+        out.writeInt(stemTable.length);
+        for(int slot : stemTable) {
+            out.writeInt(slot);
+        }
+        for(int id : stemIds) {
+            out.writeInt(id);
+        }
+
+        IntBuffer groups = spellings.getGroups();
+        LongBuffer slots = spellings.getSlots();
+        out.writeInt(spellings.size());
+        out.writeInt(groups.capacity());
+        out.writeInt(slots.capacity());
+        for(int i = 0; i < groups.capacity(); i++) {
+            out.writeInt(groups.get(i));
+        }
+        for(int i = 0; i < slots.capacity(); i++) {
+            out.writeLong(slots.get(i));
+        }
+
+        int[] keywords = phrases.getKeywords();
+        char[] edgeChars = phrases.getEdgeChars();
+        out.writeInt(phrases.getPhraseCount());
+        out.writeInt(keywords.length);
+        out.writeInt(edgeChars.length);
+        for(int[] values : new int[][] { phrases.getEdgeStarts(), phrases.getFailLinks(),
+                                         keywords, phrases.getWordCounts(),
+                                         phrases.getMatchLinks() }) {
+            for(int value : values) {
+                out.writeInt(value);
+            }
+        }
+        for(char c : edgeChars) {
+            out.writeInt(c);
+        }
+        for(int state : phrases.getEdgeTargets()) {
+            out.writeInt(state);
+        }
+    }
+
+    /**
+     * Build a hash table of key word indexes, placed by the hash of a
+     * string each one has.
+     *
+     * @param stringIds  The string id of each key word's string, or -1 to
+     *                   leave the key word out
+     * @param tableSize  The number of slots, a power of two
+     * @return           The table: each slot is 0 or key word index + 1
+     */
+    private int[] hashTable(int[] stringIds, int tableSize)
+    {
+        int[] table = new int[tableSize];
+        for(int i = 0; i < stringIds.length; i++) {
+            if(stringIds[i] < 0) {
+                continue;
+            }
+            int slot = KnowledgeBase.hash(strings.get(stringIds[i])) & (tableSize - 1);
+            while(table[slot] != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = i + 1;
+        }
+        return table;
+    }
+
+    /**
+     * @param knowledgeBase  The knowledge base being compiled
+     * @param responseId     A response id
+     * @return               The text of that response
+     * @throws IOException   If the text cannot be read
+     */
+    private static String responseOf(KnowledgeBase knowledgeBase, int responseId)
+        throws IOException
+    {
+        String text = knowledgeBase.getResponse(responseId);
+        if(text == null) {
+            throw new IOException("unable to read response " + responseId);
+        }
+        return text;
+    }
+
+    /**
+     * Find the id of a string, giving it a new one if it has not been
+     * seen before.
+     *
+     * @param text  The string
+     * @return      Its id
+     */
+    private int intern(String text)
+    {
+        int id = stringIds.get(text);
+        if(id < 0) {
+            id = strings.size();
+            strings.add(text);
+            stringIds.put(text, id);
+        }
+        return id;
+    }
+
+    /**
+     * Compile the text files in the current directory, or in the directory
+     * given as the first argument. The compiled file is written next to them.
+     *
+     * @param args  An optional directory
+     * @throws IOException  If the compiled file cannot be written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        KnowledgeBaseBuilder builder = new KnowledgeBaseBuilder();
+        Path directory = Paths.get(args.length > 0 ? args[0] : "");
+        if(!Responder.readTextFiles(directory, builder)) {
+            System.err.println("Not compiling because the text files could not be read");
+            return;
+        }
+        Path target = directory.resolve(Responder.FILE_OF_COMPILED_KNOWLEDGE);
+        new KnowledgeBaseCompiler().compile(builder.build(), target);
+        System.out.println("Compiled " + builder.getKeywordCount() + " key words and " +
+                           builder.getDefaultResponseCount() + " default responses into " + target);
+    }
+}
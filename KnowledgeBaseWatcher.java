@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A KnowledgeBaseWatcher keeps an eye on the key word and default response
+ * files (and the compiled knowledge base, if there is one) and tells a
+ * Responder to reload them whenever one of them changes.
+ * The watching and the re-reading happen on a background thread, so users
+ * talking to the Responder never wait for a file to be parsed.
+ *
+ * Editors often save a file in several steps, so after the first change is
+ * seen the watcher waits a short while for things to settle before it
+ * reloads.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/26/2020
+ */
+public class KnowledgeBaseWatcher
+{
+    // How long to wait for more changes before reloading, in milliseconds.
+    private static final long SETTLE_TIME = 200;
+
+    private final Responder responder;
+    private final Path directory;
+    private WatchService watchService;
+    private Thread thread;
+
+    /**
+     * Create a watcher for the files in the directory the responder reads
+     * them from.
+     *
+     * @param responder  The responder to reload when a file changes
+     */
+    public KnowledgeBaseWatcher(Responder responder)
+    {
+        this.responder = responder;
+        directory = responder.getDirectory().toAbsolutePath();
+    }
+
+    /**
+     * Start watching on a background thread.
+     *
+     * @throws IOException  If the directory cannot be watched
+     */
+    public synchronized void start() throws IOException
+    {
+        if(thread != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService,
+                           StandardWatchEventKinds.ENTRY_CREATE,
+                           StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "knowledge-base-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching. No more reloads will happen after this returns.
+     */
+    public synchronized void stop()
+    {
+        if(thread == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        }
+        catch(IOException e) {
+            System.err.println("A problem was encountered closing the file watcher");
+        }
+        thread.interrupt();
+        thread = null;
+    }
+
+    /**
+     * Wait for changes to the files and reload them. Runs until the
+     * watcher is stopped.
+     */
+    private void watch()
+    {
+        try {
+            while(true) {
+                WatchKey key = watchService.take();
+                boolean changed = drain(key);
+                // Collect any further changes that arrive while the file
+                // is still being written.
+                while((key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= drain(key);
+                }
+                if(changed && !responder.reload()) {
+                    System.err.println("The knowledge base could not be reloaded; " +
+                                       "still using the previous version");
+                }
+            }
+        }
+        catch(InterruptedException | ClosedWatchServiceException e) {
+            // We have been stopped.
+        }
+    }
+
+    /**
+     * Take the events from a watch key and re-arm it.
+     *
+     * @param key  A signalled watch key
+     * @return     true if one of the knowledge base files was among the events
+     */
+    private boolean drain(WatchKey key)
+    {
+        boolean changed = false;
+        for(WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if(context instanceof Path) {
+                String name = ((Path) context).getFileName().toString();
+                if(name.equals(Responder.FILE_OF_KEYS_AND_VALUES) ||
+                   name.equals(Responder.FILE_OF_DEFAULT_RESPONSES) ||
+                   name.equals(Responder.FILE_OF_COMPILED_KNOWLEDGE)) {
+                    changed = true;
+                }
+            }
+            else if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
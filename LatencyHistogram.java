@@ -0,0 +1,181 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram counts how long something took, in nanoseconds, so
+ * that percentiles such as the median or the 99th percentile can be read
+ * off later. Like an HDR histogram it uses log-linear buckets: each power
+ * of two is split into SUB_BUCKETS equal buckets, so every value is counted
+ * within about 6% of its true size, from a nanosecond up to centuries,
+ * in under a thousand counters.
+ *
+ * Recording a value takes no lock, so any number of threads can record at
+ * once. The counts are striped: each thread records in the stripe its id
+ * leads to, so threads on different processors rarely write to the same
+ * memory, and a snapshot adds the stripes up. Reading percentiles works on
+ * that copy of the counts and does not stop the recording threads.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public final class LatencyHistogram
+{
+    // Each power of two is split into 2^SUB_BITS buckets.
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Enough buckets for any non-negative long.
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    // The number of stripes: a power of two, at least twice the number of
+    // processors, up to 64.
+    private static final int STRIPES =
+        Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1));
+    // Where the total and the largest value are in a stripe, after the
+    // buckets, and the length of a stripe, padded so that the end of one
+    // stripe does not share a cache line with the start of the next.
+    private static final int TOTAL = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    private static final int STRIPE_LENGTH = BUCKETS + 16;
+
+    // The counts of every stripe, one after the other.
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+
+    /**
+     * Count one measurement.
+     *
+     * @param nanos  How long it took; negative values count as 0
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(nanos, 0);
+        int stripe = stripe() * STRIPE_LENGTH;
+        counts.incrementAndGet(stripe + bucket(value));
+        counts.addAndGet(stripe + TOTAL, value);
+        // a new largest value is rare, so it is only written then
+        long max = counts.get(stripe + MAX);
+        while(value > max && !counts.compareAndSet(stripe + MAX, max, value)) {
+            max = counts.get(stripe + MAX);
+        }
+    }
+
+    /**
+     * @return  A copy of the counts so far, to read percentiles from
+     */
+    public Snapshot snapshot()
+    {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        long total = 0;
+        long max = 0;
+        for(int stripe = 0; stripe < STRIPES * STRIPE_LENGTH; stripe += STRIPE_LENGTH) {
+            for(int i = 0; i < BUCKETS; i++) {
+                long n = counts.get(stripe + i);
+                copy[i] += n;
+                count += n;
+            }
+            total += counts.get(stripe + TOTAL);
+            max = Math.max(max, counts.get(stripe + MAX));
+        }
+        return new Snapshot(copy, count, total, max);
+    }
+
+    /**
+     * @return  The stripe the current thread records in
+     */
+    private static int stripe()
+    {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    /**
+     * @param value  A non-negative value
+     * @return       The bucket it is counted in
+     */
+    private static int bucket(long value)
+    {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket  A bucket
+     * @return        The largest value counted in it
+     */
+    private static long highestValue(int bucket)
+    {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * The counts of a LatencyHistogram at one moment.
+     */
+    public static final class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long total, long max)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * @return  The number of measurements
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return  The mean, in nanoseconds, or 0 if there are none
+         */
+        public double getMean()
+        {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @return  The largest measurement, in nanoseconds
+         */
+        public long getMax()
+        {
+            return max;
+        }
+
+        /**
+         * @param percentile  A percentile, from 0 to 100
+         * @return            The value in nanoseconds that this percentage
+         *                    of the measurements did not exceed, or 0 if
+         *                    there are none
+         */
+        public long getValueAtPercentile(double percentile)
+        {
+            if(count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if(seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
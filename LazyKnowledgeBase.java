@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A LazyKnowledgeBase knows its key words like a TextKnowledgeBase, but
+ * not the text of its responses: only where each one is in the key word
+ * file. A response is read from the file the first time it is needed, and
+ * then kept in a small cache of soft references, so the memory it uses
+ * grows with the number of key words rather than the amount of text, and
+ * the garbage collector may take cached responses back when it is short of
+ * room. Default responses are few, and any of them may be picked, so they
+ * are always kept.
+ *
+ * The cache has CACHE_SIZE slots; a response goes in the slot its response
+ * id leads to, pushing out whatever was there. Looking a response up takes
+ * no lock: a thread that sees an empty or stale slot just reads the file.
+ * The file is opened once, when the first response is read, and kept open
+ * for as long as the knowledge base is in use. Any number of threads read
+ * it at once through the one channel, each at its own position, so a
+ * response costs a single read. If the channel is closed under them (an
+ * interrupted read closes it), the next read opens it again.
+ *
+ * If a response cannot be read, getResponse returns null, and the failure
+ * is reported once on System.err rather than for every line. It is
+ * reported again if reading starts to fail again after it has worked.
+ *
+ * The key word file must not be changed in place while the knowledge base
+ * is in use, since the positions would then point at the wrong text. A
+ * KnowledgeBaseWatcher replaces the knowledge base soon after a change.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public final class LazyKnowledgeBase implements KnowledgeBase
+{
+    // The number of responses that can be cached at once.
+    public static final int CACHE_SIZE = 4096;
+
+    // Maps each key word to its index. Never modified after construction.
+    private final PerfectHashTable keywordTable;
+    // The key words, response ids and weights, indexed by key word index.
+    private final String[] keywords;
+    private final int[] responseIds;
+    private final int[] weights;
+    // The file the responses are in, and where each one is, by response id.
+    private final Path responseFile;
+    private final long[] responseStarts;
+    private final int[] responseLengths;
+    // Default responses to use if we don't recognise a word.
+    private final String[] defaultResponses;
+    // Recently read responses, in the slot their response id leads to.
+    private final CachedResponse[] cache;
+    // The response file, open for reading; null until the first read.
+    private volatile FileChannel channel;
+    // Set while reading fails, so that the failure is reported once.
+    private volatile boolean failing;
+
+    /**
+     * Create a knowledge base from the tables of a lazy
+     * KnowledgeBaseBuilder, which are used as they are rather than copied.
+     *
+     * @param keywordTable      Maps each key word to its index
+     * @param keywords          The key words, by index
+     * @param responseIds       The response id of each key word
+     * @param weights           The weight of each key word
+     * @param responseFile      The file the responses are in
+     * @param responseStarts    Where each response starts in the file
+     * @param responseLengths   The length of each response in the file
+     * @param defaultResponses  The default responses; must not be empty
+     */
+    LazyKnowledgeBase(PerfectHashTable keywordTable, String[] keywords, int[] responseIds,
+                      int[] weights, Path responseFile, long[] responseStarts,
+                      int[] responseLengths, String[] defaultResponses)
+    {
+        this.keywordTable = keywordTable;
+        this.keywords = keywords;
+        this.responseIds = responseIds;
+        this.weights = weights;
+        this.responseFile = responseFile;
+        this.responseStarts = responseStarts;
+        this.responseLengths = responseLengths;
+        this.defaultResponses = defaultResponses;
+        cache = new CachedResponse[CACHE_SIZE];
+    }
+
+    /**
+     * Find a key word.
+     *
+     * @param word  A word entered by the user
+     * @return      The key word's index, or -1 if it is not a key word
+     */
+    public int findKeyword(CharSequence word)
+    {
+        return keywordTable.get(word);
+    }
+
+    /**
+     * @return  The number of key words
+     */
+    public int getKeywordCount()
+    {
+        return keywords.length;
+    }
+
+    /**
+     * @param keyword  A key word index, from 0 to getKeywordCount() - 1
+     * @return         The key word
+     */
+    public String getKeyword(int keyword)
+    {
+        return keywords[keyword];
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The response id of that key word
+     */
+    public int getResponseId(int keyword)
+    {
+        return responseIds[keyword];
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The weight of that key word
+     */
+    public int getWeight(int keyword)
+    {
+        return weights[keyword];
+    }
+
+    /**
+     * Get the text of a response, from the cache or else from the file.
+     *
+     * @param responseId  A response id
+     * @return            The text of that response, or null if the file
+     *                    cannot be read
+     */
+    public String getResponse(int responseId)
+    {
+        if(responseId < 0 || responseId >= responseStarts.length) {
+            throw new IndexOutOfBoundsException("No response " + responseId);
+        }
+        int slot = responseId & (CACHE_SIZE - 1);
+        CachedResponse cached = cache[slot];
+        if(cached != null && cached.responseId == responseId) {
+            // null if the collector took it back, or if the slot was
+            // filled by another thread and its text is not visible yet
+            String text = cached.get();
+            if(text != null) {
+                return text;
+            }
+        }
+        try {
+            String text = read(responseId);
+            cache[slot] = new CachedResponse(responseId, text);
+            failing = false;
+            return text;
+        }
+        catch(IOException e) {
+            if(!failing) {
+                failing = true;
+                System.err.println("Unable to read responses from " + responseFile +
+                                   ": " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return  The number of default responses
+     */
+    public int getDefaultResponseCount()
+    {
+        return defaultResponses.length;
+    }
+
+    /**
+     * @param index  The index of a default response
+     * @return       The default response at that index
+     */
+    public String getDefaultResponse(int index)
+    {
+        return defaultResponses[index];
+    }
+
+    /**
+     * Read a response from the file. Its lines are joined by single line
+     * breaks, whatever line breaks the file uses, and white space is
+     * trimmed from both ends, just as when the file is read as a whole.
+     *
+     * @param responseId  A response id
+     * @return            The text of the response
+     * @throws IOException  If the file cannot be read
+     */
+    private String read(int responseId) throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.allocate(responseLengths[responseId]);
+        long start = responseStarts[responseId];
+        FileChannel channel = channel();
+        while(bytes.hasRemaining()) {
+            if(channel.read(bytes, start + bytes.position()) < 0) {
+                throw new IOException("the file is shorter than it was");
+            }
+        }
+        String raw = new String(bytes.array(), StandardCharsets.US_ASCII);
+        StringBuilder text = new StringBuilder(raw.length());
+        for(int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if(c == '\r') {
+                if(i + 1 < raw.length() && raw.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                c = '\n';
+            }
+            text.append(c);
+        }
+        // trim the same white space as BlockReader.join does
+        int begin = 0;
+        int end = text.length();
+        while(begin < end && Character.isWhitespace(text.charAt(begin))) {
+            begin++;
+        }
+        while(end > begin && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(begin, end);
+    }
+
+    /**
+     * @return  The response file's channel, opened if it is not open
+     * @throws IOException  If the file cannot be opened
+     */
+    private FileChannel channel() throws IOException
+    {
+        FileChannel open = channel;
+        if(open == null || !open.isOpen()) {
+            synchronized(this) {
+                open = channel;
+                if(open == null || !open.isOpen()) {
+                    open = FileChannel.open(responseFile, StandardOpenOption.READ);
+                    channel = open;
+                }
+            }
+        }
+        return open;
+    }
+
+    /**
+     * A response in the cache. The collector may clear it when memory is
+     * short.
+     */
+    private static final class CachedResponse extends SoftReference<String>
+    {
+        private final int responseId;
+
+        private CachedResponse(int responseId, String text)
+        {
+            super(text);
+            this.responseId = responseId;
+        }
+    }
+}
@@ -0,0 +1,623 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A LoadGenerator measures the whole support dialog under load: many
+ * SupportSystems at once, each reading its lines with an InputReader,
+ * answering them with a shared Responder and printing the answers, just
+ * as they would for users. The streams are in memory instead of
+ * System.in and System.out, so a run needs nothing but this machine.
+ *
+ * Lines arrive on a schedule worked out in advance, at an average rate
+ * with random (exponential) gaps, and are handed to the conversations in
+ * turn. The schedule does not wait for answers, as real users arriving
+ * do not, so a slow answer cannot hold back the lines behind it and hide
+ * how slow it was. The latency of a line is measured from when it was due
+ * to arrive to when the conversation prints its next prompt, so time a
+ * line spends waiting for its conversation, or for a late scheduler, is
+ * counted too. When the Responder has an AdmissionController, the lines
+ * it sheds, answered with a "please try again" or an empty line, are
+ * counted apart: the throughput (goodput) and latencies are of the lines
+ * really answered.
+ *
+ * The lines are either made up from the knowledge base's key words (some
+ * as they are, some in another form, some misspelt and some with no key
+ * word), or replayed from a TranscriptJournal or a file of lines. A
+ * journal's conversations stay together: each of its sessions is given to
+ * one conversation here, in order.
+ *
+ * Everything random comes from the seed, so two runs with the same
+ * options send the same lines at the same moments, and the results of
+ * two versions of the code can be compared. Options are given as
+ * name=value:
+ *      java LoadGenerator rate=2000 conversations=100 seconds=30
+ *      java LoadGenerator replay=journal rate=500
+ * The last line printed sums the run up in one line, for keeping.
+ *
+ * A conversation knows an answer is finished when it sees the prompt at
+ * the start of a line, so a response with a line starting "> " would
+ * confuse it.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class LoadGenerator
+{
+    // What a run does if not told otherwise.
+    public static final int DEFAULT_RATE = 1000;
+    public static final int DEFAULT_CONVERSATIONS = 50;
+    public static final int DEFAULT_SECONDS = 10;
+    public static final int DEFAULT_WARM_UP_SECONDS = 3;
+    public static final long DEFAULT_SEED = 42;
+    // How long to wait for the last answers at the end of a run.
+    private static final long DRAIN_SECONDS = 10;
+    // The most cached lines and parked sessions, as the servers keep.
+    private static final int CACHE_SIZE = 10000;
+    private static final int MAX_SESSIONS = 100000;
+    // The limits of the "shed" option's admission controller.
+    private static final int MAX_ANSWERING = 256;
+    private static final int MAX_WAITING = 1000;
+    private static final int MAX_WAIT_MILLIS = 500;
+    // The number of different made-up lines, so that some repeat.
+    private static final int SYNTHETIC_LINES = 10000;
+
+    private final Responder responder;
+    private final int rate;
+    private final int conversationCount;
+    private final long seed;
+    // The lines of each conversation, used in turn and again from the
+    // start when they run out.
+    private final List<List<String>> scripts;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    /**
+     * Create a load generator.
+     *
+     * @param responder          The responder every conversation shares
+     * @param scripts            The lines of each script; conversations
+     *                           take them in turn
+     * @param rate               The average number of lines a second
+     * @param conversationCount  The number of conversations at once
+     * @param seed               The seed of the arrival schedule
+     */
+    public LoadGenerator(Responder responder, List<List<String>> scripts, int rate,
+                         int conversationCount, long seed)
+    {
+        if(rate < 1 || conversationCount < 1) {
+            throw new IllegalArgumentException("rate and conversationCount must be at least 1");
+        }
+        if(scripts.isEmpty()) {
+            throw new IllegalArgumentException("There are no lines to send");
+        }
+        this.responder = responder;
+        this.scripts = scripts;
+        this.rate = rate;
+        this.conversationCount = conversationCount;
+        this.seed = seed;
+    }
+
+    /**
+     * Run the conversations: first for a warm-up time whose latencies are
+     * not kept, then for the measured time. Returns once every line sent
+     * has been answered, or DRAIN_SECONDS after the last one was due.
+     *
+     * @param warmUpSeconds  How long to run before measuring
+     * @param seconds        How long to measure
+     * @return               What was measured
+     * @throws InterruptedException  If the thread is interrupted
+     */
+    public Result run(int warmUpSeconds, int seconds) throws InterruptedException
+    {
+        Conversation[] conversations = new Conversation[conversationCount];
+        for(int i = 0; i < conversationCount; i++) {
+            conversations[i] = new Conversation(scripts.get(i % scripts.size()));
+            conversations[i].start(i);
+        }
+        Random random = new Random(seed);
+        double meanGapNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmUpSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        long due = start;
+        long sent = 0;
+        long late = 0;
+        int next = 0;
+        while(true) {
+            due += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+            if(due >= end) {
+                break;
+            }
+            long wait = due - System.nanoTime();
+            if(wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            else if(wait < -TimeUnit.MILLISECONDS.toNanos(1)) {
+                late++;
+            }
+            conversations[next].send(due, due >= measureFrom);
+            next = next + 1 == conversationCount ? 0 : next + 1;
+            if(due >= measureFrom) {
+                sent++;
+            }
+        }
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        for(Conversation conversation : conversations) {
+            while(conversation.hasOutstanding() && System.nanoTime() < drainUntil) {
+                Thread.sleep(1);
+            }
+        }
+        long finished = System.nanoTime();
+        for(Conversation conversation : conversations) {
+            conversation.stop();
+        }
+        for(Conversation conversation : conversations) {
+            conversation.thread.join(TimeUnit.SECONDS.toMillis(DRAIN_SECONDS));
+        }
+        // answers still coming in after the end count against the time they took
+        return new Result(sent, answered.sum(), shed.sum(), late,
+                          Math.max(end, finished) - measureFrom, latencies.snapshot());
+    }
+
+    /**
+     * One conversation: a SupportSystem on a thread of its own, with
+     * streams that let this class type lines into it and time the
+     * answers.
+     */
+    private final class Conversation
+    {
+        private final List<String> script;
+        private int nextLine;
+        private final LineInput input = new LineInput();
+        private final PromptWatcher output = new PromptWatcher();
+        private Thread thread;
+
+        private Conversation(List<String> script)
+        {
+            this.script = script;
+        }
+
+        private void start(int number)
+        {
+            PrintStream out;
+            try {
+                out = new PrintStream(output, false, Charset.defaultCharset().name());
+            }
+            catch(UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            SupportSystem system = new SupportSystem(responder, input, out);
+            thread = new Thread(system::start, "conversation-" + number);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Type the conversation's next line.
+         *
+         * @param due       When it was due, by System.nanoTime()
+         * @param measured  Whether its latency is kept
+         */
+        private void send(long due, boolean measured)
+        {
+            String line = script.get(nextLine);
+            nextLine = nextLine + 1 == script.size() ? 0 : nextLine + 1;
+            // a measured line is remembered by its due time, the others as -1
+            output.outstanding.add(measured ? due : -1);
+            input.lines.add((line + "\n").getBytes(Charset.defaultCharset()));
+        }
+
+        private boolean hasOutstanding()
+        {
+            return !output.outstanding.isEmpty();
+        }
+
+        /**
+         * End the conversation as a user does.
+         */
+        private void stop()
+        {
+            output.outstanding.clear();
+            input.lines.add("bye\n".getBytes(Charset.defaultCharset()));
+        }
+    }
+
+    /**
+     * The keyboard of a conversation: the lines sent to it, waited for
+     * when there are none.
+     */
+    private static final class LineInput extends InputStream
+    {
+        private final LinkedBlockingQueue<byte[]> lines = new LinkedBlockingQueue<>();
+        // The line being read, and how much of it has been.
+        private byte[] current;
+        private int position;
+
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        public int available()
+        {
+            // the rest of the line being read, or a byte of the next one
+            int left = current == null ? 0 : current.length - position;
+            return left > 0 || lines.isEmpty() ? left : 1;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            if(length == 0) {
+                return 0;
+            }
+            if(current == null || position == current.length) {
+                try {
+                    current = lines.take();
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+                position = 0;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+
+    /**
+     * The screen of a conversation. Each prompt at the start of a line
+     * after the first finishes the answer to the oldest line outstanding.
+     * The text before the prompt tells whether the line was answered or
+     * shed.
+     */
+    private final class PromptWatcher extends OutputStream
+    {
+        // The due times of the lines sent and not answered yet.
+        private final ConcurrentLinkedQueue<Long> outstanding = new ConcurrentLinkedQueue<>();
+        private boolean atLineStart = true;
+        private boolean sawPromptStart;
+        private boolean welcomed;
+        // What has been printed since the last prompt, a byte to a char.
+        private final StringBuilder answer = new StringBuilder();
+
+        public void write(int b)
+        {
+            if(sawPromptStart && b == ' ') {
+                // leave out the '>' of the prompt
+                answer.setLength(answer.length() - 1);
+                promptSeen();
+                answer.setLength(0);
+                sawPromptStart = false;
+                atLineStart = false;
+                return;
+            }
+            sawPromptStart = atLineStart && b == '>';
+            atLineStart = b == '\n';
+            answer.append((char) (b & 0xFF));
+        }
+
+        public void write(byte[] bytes, int offset, int length)
+        {
+            for(int i = offset; i < offset + length; i++) {
+                write(bytes[i]);
+            }
+        }
+
+        private void promptSeen()
+        {
+            if(!welcomed) {
+                // the prompt after the welcome message answers nothing
+                welcomed = true;
+                return;
+            }
+            Long due = outstanding.poll();
+            if(due != null && due >= 0) {
+                if(isShed()) {
+                    shed.increment();
+                }
+                else {
+                    latencies.record(System.nanoTime() - due);
+                    answered.increment();
+                }
+            }
+        }
+
+        /**
+         * @return  true if the answer is one an AdmissionController gives
+         *          a line it sheds
+         */
+        private boolean isShed()
+        {
+            int end = answer.length();
+            if(end > 0 && answer.charAt(end - 1) == '\n') {
+                end--;
+            }
+            if(end > 0 && answer.charAt(end - 1) == '\r') {
+                end--;
+            }
+            answer.setLength(end);
+            return end == 0 || AdmissionController.RETRY_RESPONSE.contentEquals(answer) ||
+                   AdmissionController.SLOW_DOWN_RESPONSE.contentEquals(answer);
+        }
+    }
+
+    /**
+     * What a run measured.
+     */
+    public static final class Result
+    {
+        private final long sent;
+        private final long answered;
+        private final long shed;
+        private final long late;
+        private final long nanos;
+        private final LatencyHistogram.Snapshot latencies;
+
+        private Result(long sent, long answered, long shed, long late, long nanos,
+                       LatencyHistogram.Snapshot latencies)
+        {
+            this.sent = sent;
+            this.answered = answered;
+            this.shed = shed;
+            this.late = late;
+            this.nanos = nanos;
+            this.latencies = latencies;
+        }
+
+        /**
+         * @return  The number of lines sent while measuring
+         */
+        public long getSent()
+        {
+            return sent;
+        }
+
+        /**
+         * @return  The number of them answered before the run ended, not
+         *          counting those shed
+         */
+        public long getAnswered()
+        {
+            return answered;
+        }
+
+        /**
+         * @return  The number of them shed by an AdmissionController
+         */
+        public long getShedCount()
+        {
+            return shed;
+        }
+
+        /**
+         * @return  The number of lines the scheduler sent more than a
+         *          millisecond late; their latency still counts from when
+         *          they were due
+         */
+        public long getLateCount()
+        {
+            return late;
+        }
+
+        /**
+         * @return  The lines answered per second while measuring, not
+         *          counting those shed (the goodput)
+         */
+        public double getThroughput()
+        {
+            return nanos <= 0 ? 0 : answered * 1e9 / nanos;
+        }
+
+        /**
+         * @return  The latencies of the lines answered, not counting those
+         *          shed
+         */
+        public LatencyHistogram.Snapshot getLatencies()
+        {
+            return latencies;
+        }
+    }
+
+    /**
+     * Make up lines from a knowledge base's key words, as a user with
+     * these problems might type them.
+     *
+     * @param knowledgeBase  The knowledge base
+     * @param count          The number of lines
+     * @param random         Where the choices come from
+     * @return               The lines
+     */
+    static List<String> syntheticLines(KnowledgeBase knowledgeBase, int count, Random random)
+    {
+        String[] openings = { "My computer", "The printer", "It", "My laptop", "The program" };
+        String[] endings = { " is not working.", " keeps failing, again!", "?",
+                             " has been like this since yesterday.", "" };
+        List<String> lines = new ArrayList<>(count);
+        StringBuilder line = new StringBuilder();
+        for(int i = 0; i < count; i++) {
+            line.setLength(0);
+            line.append(openings[random.nextInt(openings.length)]).append(' ');
+            int kind = knowledgeBase.getKeywordCount() == 0 ? 3 : random.nextInt(4);
+            if(kind < 3) {
+                String keyword = knowledgeBase.getKeyword(random.nextInt(knowledgeBase.getKeywordCount()));
+                int start = line.length();
+                line.append(keyword);
+                if(kind == 1) {
+                    line.append("ing");
+                }
+                else if(kind == 2 && keyword.length() > 3) {
+                    int middle = start + keyword.length() / 2;
+                    line.setCharAt(middle, line.charAt(middle) == 'a' ? 'e' : 'a');
+                }
+            }
+            else {
+                line.append("xyzzy plugh");
+            }
+            line.append(endings[random.nextInt(endings.length)]);
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Read the conversations of a TranscriptJournal: the lines of each of
+     * its sessions, in order. Lines containing "bye" are left out, since
+     * they would end a conversation.
+     *
+     * @param directory  The journal's directory
+     * @return           The lines of each session
+     * @throws IOException  If the journal cannot be read
+     */
+    static List<List<String>> journalScripts(Path directory) throws IOException
+    {
+        Map<Long, List<String>> sessions = new HashMap<>();
+        List<List<String>> scripts = new ArrayList<>();
+        Tokenizer tokenizer = new Tokenizer();
+        TranscriptJournal.replay(directory, exchange -> {
+            if(!tokenizer.contains(exchange.getLine(), "bye")) {
+                sessions.computeIfAbsent(exchange.getSession(), session -> {
+                    List<String> script = new ArrayList<>();
+                    scripts.add(script);
+                    return script;
+                }).add(exchange.getLine());
+            }
+        });
+        return scripts;
+    }
+
+    /**
+     * Run a load test from the command line and print what it measured.
+     *
+     * @param args  Options as name=value: dir (the directory of the
+     *              knowledge base), rate (lines a second), conversations,
+     *              seconds, warmup (seconds), seed, replay (a journal
+     *              directory or a file of lines) instead of made-up lines,
+     *              and shed (retry or drop) to shed lines under overload
+     *              with an AdmissionController that lets each
+     *              conversation send sessionrate lines a second
+     * @throws IOException  If the lines to replay cannot be read
+     * @throws InterruptedException  If the run is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args) {
+            int equals = arg.indexOf('=');
+            if(equals < 0) {
+                System.err.println("Usage: java LoadGenerator [dir=.] [rate=" + DEFAULT_RATE +
+                                   "] [conversations=" + DEFAULT_CONVERSATIONS + "] [seconds=" +
+                                   DEFAULT_SECONDS + "] [warmup=" + DEFAULT_WARM_UP_SECONDS +
+                                   "] [seed=" + DEFAULT_SEED + "] [replay=<journal or file>]" +
+                                   " [shed=retry|drop] [sessionrate=" +
+                                   AdmissionController.DEFAULT_SESSION_RATE + "]");
+                return;
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        Path directory = Paths.get(options.getOrDefault("dir", ""));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "" + DEFAULT_RATE));
+        int conversations = Integer.parseInt(options.getOrDefault("conversations",
+                                                                  "" + DEFAULT_CONVERSATIONS));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "" + DEFAULT_SECONDS));
+        int warmUp = Integer.parseInt(options.getOrDefault("warmup", "" + DEFAULT_WARM_UP_SECONDS));
+        long seed = Long.parseLong(options.getOrDefault("seed", "" + DEFAULT_SEED));
+        String shed = options.get("shed");
+        double sessionRate = Double.parseDouble(options.getOrDefault(
+            "sessionrate", "" + AdmissionController.DEFAULT_SESSION_RATE));
+
+        List<List<String>> scripts = new ArrayList<>();
+        String replay = options.get("replay");
+        if(replay == null) {
+            KnowledgeBaseBuilder builder = new KnowledgeBaseBuilder();
+            Responder.readTextFiles(directory, builder);
+            List<String> lines = syntheticLines(builder.build(), SYNTHETIC_LINES, new Random(seed));
+            // each conversation starts at another place in the lines
+            for(int i = 0; i < conversations; i++) {
+                int from = (int) ((long) i * lines.size() / conversations);
+                List<String> script = new ArrayList<>(lines.subList(from, lines.size()));
+                script.addAll(lines.subList(0, from));
+                scripts.add(script);
+            }
+        }
+        else if(Files.isDirectory(Paths.get(replay))) {
+            scripts = journalScripts(Paths.get(replay));
+        }
+        else {
+            List<String> lines = new ArrayList<>();
+            Tokenizer tokenizer = new Tokenizer();
+            for(String line : Files.readAllLines(Paths.get(replay), StandardCharsets.UTF_8)) {
+                if(!tokenizer.contains(line, "bye")) {
+                    lines.add(line);
+                }
+            }
+            scripts.add(lines);
+        }
+
+        Responder responder = new Responder(directory);
+        responder.setCache(new ResponseCache(CACHE_SIZE, 10, TimeUnit.MINUTES));
+        responder.setSessions(new SessionStore(MAX_SESSIONS, 30, TimeUnit.MINUTES));
+        responder.setMetrics(new SupportMetrics());
+        if(shed != null) {
+            // as SupportServer sheds, but with the given session rate
+            int processors = Runtime.getRuntime().availableProcessors();
+            responder.setAdmission(new AdmissionController(
+                Math.min(processors, MAX_ANSWERING), 1, MAX_ANSWERING, MAX_WAITING,
+                MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS,
+                AdmissionController.ShedPolicy.valueOf(shed.toUpperCase()),
+                sessionRate, AdmissionController.DEFAULT_SESSION_BURST));
+        }
+        LoadGenerator generator = new LoadGenerator(responder, scripts, rate, conversations, seed);
+        System.out.println("Sending " + rate + " lines a second to " + conversations +
+                           " conversations for " + warmUp + " + " + seconds + " seconds...");
+        Result result = generator.run(warmUp, seconds);
+
+        LatencyHistogram.Snapshot latencies = result.getLatencies();
+        System.out.printf("sent %d, answered %d, shed %d, scheduled late %d%n",
+                          result.getSent(), result.getAnswered(), result.getShedCount(),
+                          result.getLateCount());
+        System.out.printf("goodput %.1f lines/s%n", result.getThroughput());
+        System.out.printf("latency us: p50 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                          latencies.getValueAtPercentile(50) / 1e3,
+                          latencies.getValueAtPercentile(99) / 1e3,
+                          latencies.getValueAtPercentile(99.9) / 1e3,
+                          latencies.getMax() / 1e3);
+        System.out.printf("RESULT rate=%d conversations=%d seconds=%d seed=%d replay=%s " +
+                          "sent=%d answered=%d shed=%d goodput=%.1f p50_us=%.1f p99_us=%.1f " +
+                          "p999_us=%.1f max_us=%.1f%n",
+                          rate, conversations, seconds, seed, replay == null ? "-" : replay,
+                          result.getSent(), result.getAnswered(), result.getShedCount(),
+                          result.getThroughput(),
+                          latencies.getValueAtPercentile(50) / 1e3,
+                          latencies.getValueAtPercentile(99) / 1e3,
+                          latencies.getValueAtPercentile(99.9) / 1e3,
+                          latencies.getMax() / 1e3);
+        if(responder.getAdmission() != null) {
+            System.out.println(responder.getAdmission());
+        }
+    }
+}
@@ -0,0 +1,296 @@
+import java.util.function.ToIntFunction;
+
+/**
+ * A MatchingKnowledgeBase wraps another KnowledgeBase and makes its key word
+ * lookup forgiving. A word that is not a key word itself is tried again:
+ *      1. by its stem (see Stemmer), so "crashing" finds "crash" and
+ *         "bugs" finds "bug" without listing every form in keyvalue.txt;
+ *      2. by spelling, so "instalation" finds "installation". Words of
+ *         MIN_FUZZY_LENGTH letters or more may be one edit away from a key
+ *         word, and words of LONG_WORD_LENGTH letters or more may be two.
+ * Short words are never matched by spelling, since too many short words
+ * are one letter away from each other.
+ *
+ * Key words of more than one word ("blue screen") cannot be found one word
+ * at a time, so they are left out of the stem table and spelling index and
+ * go into a PhraseMatcher instead, which ResponseScorer runs over the
+ * whole line.
+ *
+ * Everything needed for this is built once, when the MatchingKnowledgeBase
+ * is created: a table of stems, a SpellingIndex of key words and a
+ * PhraseMatcher of phrases. A lookup is therefore a couple of hash probes
+ * and, at worst, a few dozen binary searches and edit distance checks; it
+ * never scans all the key words. Building them takes far longer than
+ * opening a compiled knowledge base, so KnowledgeBaseCompiler stores them
+ * in the compiled file too, and CompiledKnowledgeBase hands them back.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public final class MatchingKnowledgeBase implements KnowledgeBase
+{
+    // Words shorter than this are only matched exactly or by stem.
+    public static final int MIN_FUZZY_LENGTH = 5;
+    // Words at least this long may be two edits away from a key word.
+    public static final int LONG_WORD_LENGTH = 9;
+
+    // Each thread's work space for stemming and tree searches.
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final KnowledgeBase base;
+    // Maps the stem of each key word to the key word's index, or to -1.
+    private final ToIntFunction<CharSequence> stems;
+    // All key words, by spelling.
+    private final SpellingIndex spellings;
+    // All key words of more than one word.
+    private final PhraseMatcher phrases;
+
+    /**
+     * Build the stem table, spelling index and phrase matcher for a
+     * knowledge base.
+     *
+     * @param base  The knowledge base to wrap
+     */
+    public MatchingKnowledgeBase(KnowledgeBase base)
+    {
+        this.base = base;
+        int count = base.getKeywordCount();
+        WordTable stemTable = new WordTable(count);
+        StringBuilder stem = new StringBuilder();
+        for(int i = 0; i < count; i++) {
+            String keyword = base.getKeyword(i);
+            if(PhraseMatcher.isPhrase(keyword)) {
+                continue;
+            }
+            Stemmer.stem(keyword, stem);
+            // if two key words share a stem, the first one keeps it
+            stemTable.put(stem.toString(), i);
+        }
+        stems = stemTable::get;
+        spellings = new SpellingIndex(base);
+        phrases = new PhraseMatcher(base);
+    }
+
+    /**
+     * Wrap a knowledge base with a stem table, spelling index and phrase
+     * matcher that were built before, and saved.
+     *
+     * @param base       The knowledge base to wrap
+     * @param stems      Finds the key word that has a stem, as the stem
+     *                   table built here would (see getStems)
+     * @param spellings  The spelling index of base
+     * @param phrases    The phrase matcher of base
+     */
+    MatchingKnowledgeBase(KnowledgeBase base, ToIntFunction<CharSequence> stems,
+                          SpellingIndex spellings, PhraseMatcher phrases)
+    {
+        this.base = base;
+        this.stems = stems;
+        this.spellings = spellings;
+        this.phrases = phrases;
+    }
+
+    /**
+     * Find a key word, exactly, by stem or by spelling.
+     *
+     * @param word  A word entered by the user
+     * @return      The index of the matching key word, or -1 if none matches
+     */
+    public int findKeyword(CharSequence word)
+    {
+        return findKeyword(word, true);
+    }
+
+    /**
+     * Find a key word, exactly, by stem and optionally by spelling.
+     *
+     * @param word        A word entered by the user
+     * @param bySpelling  Whether a word may match a key word spelt a little
+     *                    differently
+     * @return            The index of the matching key word, or -1 if none
+     *                    matches
+     */
+    public int findKeyword(CharSequence word, boolean bySpelling)
+    {
+        int keyword = base.findKeyword(word);
+        if(keyword >= 0) {
+            return keyword;
+        }
+        Scratch scratch = SCRATCH.get();
+        Stemmer.stem(word, scratch.stem);
+        keyword = stems.applyAsInt(scratch.stem);
+        if(keyword >= 0 || !bySpelling || word.length() < MIN_FUZZY_LENGTH) {
+            return keyword;
+        }
+        int maxDistance = word.length() >= LONG_WORD_LENGTH ? 2 : 1;
+        return scratch.searcher.nearest(spellings, word, maxDistance);
+    }
+
+    /**
+     * @return  A view of this knowledge base that finds key words exactly
+     *          or by stem, but never by spelling
+     */
+    public KnowledgeBase withoutSpelling()
+    {
+        return new WithoutSpelling();
+    }
+
+    /**
+     * @return  The number of key words
+     */
+    public int getKeywordCount()
+    {
+        return base.getKeywordCount();
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The key word
+     */
+    public String getKeyword(int keyword)
+    {
+        return base.getKeyword(keyword);
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The response id of that key word
+     */
+    public int getResponseId(int keyword)
+    {
+        return base.getResponseId(keyword);
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The weight of that key word
+     */
+    public int getWeight(int keyword)
+    {
+        return base.getWeight(keyword);
+    }
+
+    /**
+     * @param responseId  A response id
+     * @return            The text of that response
+     */
+    public String getResponse(int responseId)
+    {
+        return base.getResponse(responseId);
+    }
+
+    /**
+     * @return  The number of default responses
+     */
+    public int getDefaultResponseCount()
+    {
+        return base.getDefaultResponseCount();
+    }
+
+    /**
+     * @param index  The index of a default response
+     * @return       The default response at that index
+     */
+    public String getDefaultResponse(int index)
+    {
+        return base.getDefaultResponse(index);
+    }
+
+    /**
+     * @return  The matcher for key words of more than one word
+     */
+    public PhraseMatcher getPhraseMatcher()
+    {
+        return phrases;
+    }
+
+    /**
+     * @return  The spelling index of the key words
+     */
+    SpellingIndex getSpellingIndex()
+    {
+        return spellings;
+    }
+
+    /**
+     * @return  The stem each key word is found by, by key word index. A
+     *          key word that is a phrase, or whose stem an earlier key word
+     *          already has, has null.
+     */
+    String[] getStems()
+    {
+        String[] byKeyword = new String[base.getKeywordCount()];
+        StringBuilder stem = new StringBuilder();
+        for(int i = 0; i < byKeyword.length; i++) {
+            String keyword = base.getKeyword(i);
+            if(!PhraseMatcher.isPhrase(keyword)) {
+                Stemmer.stem(keyword, stem);
+                if(stems.applyAsInt(stem) == i) {
+                    byKeyword[i] = stem.toString();
+                }
+            }
+        }
+        return byKeyword;
+    }
+
+    /**
+     * The same knowledge base, with spelling matches turned off.
+     */
+    private final class WithoutSpelling implements KnowledgeBase
+    {
+        public int findKeyword(CharSequence word)
+        {
+            return MatchingKnowledgeBase.this.findKeyword(word, false);
+        }
+
+        public int getKeywordCount()
+        {
+            return base.getKeywordCount();
+        }
+
+        public String getKeyword(int keyword)
+        {
+            return base.getKeyword(keyword);
+        }
+
+        public int getResponseId(int keyword)
+        {
+            return base.getResponseId(keyword);
+        }
+
+        public int getWeight(int keyword)
+        {
+            return base.getWeight(keyword);
+        }
+
+        public String getResponse(int responseId)
+        {
+            return base.getResponse(responseId);
+        }
+
+        public int getDefaultResponseCount()
+        {
+            return base.getDefaultResponseCount();
+        }
+
+        public String getDefaultResponse(int index)
+        {
+            return base.getDefaultResponse(index);
+        }
+
+        public PhraseMatcher getPhraseMatcher()
+        {
+            return phrases;
+        }
+    }
+
+    /**
+     * The work space one thread needs for a lookup.
+     */
+    private static final class Scratch
+    {
+        private final StringBuilder stem = new StringBuilder();
+        private final SpellingIndex.Searcher searcher = new SpellingIndex.Searcher();
+    }
+}
@@ -0,0 +1,614 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A NioSupportServer runs technical support dialogs over the network like
+ * SupportServer, but without a thread per user. A handful of event loop
+ * threads, one per processor, each watch many connections with a Selector
+ * and only do work when a connection has something to read or is ready to
+ * take more output. Since a support user spends nearly all their time
+ * thinking and typing, this lets a few threads serve tens of thousands of
+ * mostly idle connections.
+ *
+ * The protocol is plain lines of UTF-8 text, just as in the text terminal:
+ * the server sends the welcome message and a "> " prompt, and answers each
+ * line the user sends with a response and a new prompt. A line containing
+ * "bye" gets the goodbye message and ends the connection. As in
+ * SupportServer, each connection is a session in a SessionStore, which
+ * keeps the little it needs outside the heap, and lines that come faster
+ * than they can be answered are shed (see shedLoad).
+ *
+ * To keep each connection small, input is read into one buffer that each
+ * event loop shares among all its connections, and lines are decoded from
+ * there into a shared character buffer and answered straight away. A
+ * connection only holds bytes of its own while it has half a line waiting
+ * for the rest, or output that the network could not take yet. A response
+ * and the prompt after it are sent with one gathering write.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class NioSupportServer
+{
+    // The port we listen on if none is given.
+    public static final int DEFAULT_PORT = 4243;
+    // The longest line accepted, in bytes. A longer line ends the connection.
+    public static final int MAX_LINE_LENGTH = 8192;
+    // The size of each event loop's read buffer.
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    // The most lines whose responses are cached, and for how long.
+    private static final int CACHE_SIZE = 10000;
+    private static final int CACHE_MINUTES = 10;
+    // The most dialogs whose state is kept, and how long an idle one is kept.
+    private static final int MAX_SESSIONS = 1000000;
+    private static final int SESSION_IDLE_MINUTES = 30;
+    // Where the "journal" option keeps the audit trail.
+    private static final String JOURNAL_DIRECTORY = "journal";
+
+    // What is sent at the start of a dialog, after each response, at the
+    // end, and when a line is too long. Each event loop sends duplicates.
+    private static final ByteBuffer WELCOME = encode(String.join("\n", SupportSystem.WELCOME) + "\n> ");
+    private static final ByteBuffer PROMPT = encode("\n> ");
+    private static final ByteBuffer GOODBYE = encode(SupportSystem.GOODBYE + "\n");
+    private static final ByteBuffer TOO_LONG = encode("\nThat line is too long. Bye...\n");
+
+    private final int port;
+    private final Responder responder;
+    private final KnowledgeBaseWatcher watcher;
+    private final EventLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    /**
+     * Create a server that listens on the default port, with one event
+     * loop per processor.
+     */
+    public NioSupportServer()
+    {
+        this(DEFAULT_PORT, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a server.
+     *
+     * @param port       The local port to accept connections on
+     * @param loopCount  The number of event loop threads
+     */
+    public NioSupportServer(int port, int loopCount)
+    {
+        this(port, loopCount, false);
+    }
+
+    /**
+     * Create a server.
+     *
+     * @param port           The local port to accept connections on
+     * @param loopCount      The number of event loop threads
+     * @param lazyResponses  true to read each response from the key word
+     *                       file only when it is first needed (see
+     *                       LazyKnowledgeBase)
+     */
+    public NioSupportServer(int port, int loopCount, boolean lazyResponses)
+    {
+        this.port = port;
+        responder = new Responder(Paths.get(""), lazyResponses);
+        responder.setCache(new ResponseCache(CACHE_SIZE, CACHE_MINUTES, TimeUnit.MINUTES));
+        responder.setSessions(new SessionStore(MAX_SESSIONS, SESSION_IDLE_MINUTES, TimeUnit.MINUTES));
+        watcher = new KnowledgeBaseWatcher(responder);
+        loops = new EventLoop[loopCount];
+    }
+
+    /**
+     * Keep an audit trail of every line answered and its response in a
+     * TranscriptJournal, until the server is stopped. Call it before
+     * start().
+     *
+     * @param directory  The directory the journal's segments go in
+     * @throws IOException  If the journal cannot be started there
+     */
+    public void keepJournal(Path directory) throws IOException
+    {
+        responder.setJournal(new TranscriptJournal(directory));
+    }
+
+    /**
+     * Shed lines that a connection sends faster than
+     * AdmissionController.DEFAULT_SESSION_RATE lines a second, with an
+     * AdmissionController. There is no limit on how many lines are
+     * answered at once: each event loop answers one line at a time, so
+     * there are never more than there are loops. Call it before start().
+     *
+     * @param policy  What to do with a line that is shed
+     */
+    public void shedLoad(AdmissionController.ShedPolicy policy)
+    {
+        responder.setAdmission(new AdmissionController(policy,
+                                                       AdmissionController.DEFAULT_SESSION_RATE,
+                                                       AdmissionController.DEFAULT_SESSION_BURST));
+    }
+
+    /**
+     * Get ready to answer quickly from the first connection: write the
+     * compiled knowledge base if it is out of date, so that the next
+     * server started here opens it instead of reading the text files, and
+     * warm the response path up (see QuickStart). Call it before start().
+     */
+    public void prepare()
+    {
+        responder.saveCompiled();
+        responder.warmUp(Responder.WARM_UP_LINES);
+    }
+
+    /**
+     * Accept connections until the server is stopped, handing them to the
+     * event loops in turn. This method does not return until stop() is
+     * called from another thread.
+     */
+    public void start()
+    {
+        try {
+            running = true;
+            for(int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop();
+                Thread thread = new Thread(loops[i], "support-loop-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+            watcher.start();
+            System.out.println("DodgySoft NIO support server listening on port " + port);
+            int next = 0;
+            while(running) {
+                SocketChannel channel = serverChannel.accept();
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+        catch(IOException e) {
+            if(running) {
+                System.err.println("The support server stopped: " + e.getMessage());
+            }
+        }
+        finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stop accepting connections and close all the open ones.
+     */
+    public void stop()
+    {
+        running = false;
+        try {
+            if(serverChannel != null) {
+                serverChannel.close();
+            }
+        }
+        catch(IOException e) {
+            System.err.println("A problem was encountered closing the server socket");
+        }
+        for(EventLoop loop : loops) {
+            if(loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        watcher.stop();
+        TranscriptJournal journal = responder.getJournal();
+        if(journal != null) {
+            responder.setJournal(null);
+            journal.close();
+        }
+    }
+
+    /**
+     * @param text  Some text
+     * @return      A read-only buffer of its UTF-8 bytes
+     */
+    private static ByteBuffer encode(String text)
+    {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    /**
+     * The state of one connection: any half line received so far, and any
+     * output the network has not taken yet.
+     */
+    private static final class Connection
+    {
+        private final SocketChannel channel;
+        // The start of a line whose end has not arrived; null if none.
+        private byte[] partial;
+        private int partialLength;
+        // Output waiting to be written; null if there is none.
+        private ArrayDeque<ByteBuffer> pending;
+        // Set when the connection should close once its output is written.
+        private boolean closing;
+        // The dialog's id in the session store, or SessionStore.NO_SESSION.
+        private final long session;
+        // How fast the dialog may send lines; made with its first line if
+        // there is an admission controller.
+        private AdmissionController.TokenBucket bucket;
+
+        private Connection(SocketChannel channel, long session)
+        {
+            this.channel = channel;
+            this.session = session;
+        }
+    }
+
+    /**
+     * One event loop thread, with its own selector and its own buffers,
+     * which all of its connections share.
+     */
+    private final class EventLoop implements Runnable
+    {
+        private final Selector selector;
+        // Connections accepted but not yet registered with the selector.
+        private final ConcurrentLinkedQueue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        // The bytes and characters of the line being answered.
+        private final ByteBuffer lineBytes = ByteBuffer.allocate(MAX_LINE_LENGTH);
+        private final CharBuffer lineChars = CharBuffer.allocate(MAX_LINE_LENGTH);
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Used to spot "bye".
+        private final Tokenizer tokenizer = new Tokenizer();
+        // Room for a response and the prompt after it, for gathering writes.
+        private final ByteBuffer[] gather = new ByteBuffer[2];
+
+        private EventLoop() throws IOException
+        {
+            selector = Selector.open();
+        }
+
+        /**
+         * Hand a newly accepted connection to this loop.
+         *
+         * @param channel  The connection
+         */
+        private void add(SocketChannel channel)
+        {
+            added.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Wait for connections to become ready and serve them, until the
+         * server stops.
+         */
+        public void run()
+        {
+            try {
+                while(running) {
+                    selector.select();
+                    registerAdded();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while(keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if(key.isValid() && key.isWritable()) {
+                                flush(key, connection);
+                            }
+                            if(key.isValid() && key.isReadable()) {
+                                read(key, connection);
+                            }
+                        }
+                        catch(IOException e) {
+                            // the user has gone away; nothing to report
+                            close(key);
+                        }
+                    }
+                }
+            }
+            catch(IOException e) {
+                System.err.println("A support event loop stopped: " + e.getMessage());
+            }
+            finally {
+                for(SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                try {
+                    selector.close();
+                }
+                catch(IOException e) {
+                    System.err.println("A problem was encountered closing a selector");
+                }
+            }
+        }
+
+        /**
+         * Register the connections handed to this loop, and welcome them.
+         */
+        private void registerAdded()
+        {
+            SocketChannel channel = added.poll();
+            while(channel != null) {
+                try {
+                    channel.configureBlocking(false);
+                    SessionStore sessions = responder.getSessions();
+                    Connection connection = new Connection(channel, sessions == null ?
+                        SessionStore.NO_SESSION : sessions.open());
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    send(key, connection, WELCOME.duplicate(), null);
+                }
+                catch(IOException e) {
+                    try {
+                        channel.close();
+                    }
+                    catch(IOException closing) {
+                        // already closed
+                    }
+                }
+                channel = added.poll();
+            }
+        }
+
+        /**
+         * Read what has arrived on a connection and answer every complete
+         * line in it.
+         */
+        private void read(SelectionKey key, Connection connection) throws IOException
+        {
+            readBuffer.clear();
+            int count = connection.channel.read(readBuffer);
+            if(count < 0) {
+                // the user hung up (or stopped sending); say goodbye anyway
+                connection.closing = true;
+                send(key, connection, GOODBYE.duplicate(), null);
+                return;
+            }
+            // every line in what was read arrived now
+            long arrived = System.nanoTime();
+            readBuffer.flip();
+            int lineStart = readBuffer.position();
+            for(int i = lineStart; i < readBuffer.limit() && !connection.closing; i++) {
+                if(readBuffer.get(i) == '\n') {
+                    answer(key, connection, lineStart, i, arrived);
+                    lineStart = i + 1;
+                }
+            }
+            if(!connection.closing && lineStart < readBuffer.limit()) {
+                keepPartial(key, connection, lineStart, readBuffer.limit());
+            }
+        }
+
+        /**
+         * Answer one line: the connection's partial line, if any, followed
+         * by readBuffer from start to end, which arrived at the given time.
+         */
+        private void answer(SelectionKey key, Connection connection, int start, int end,
+                            long arrived)
+            throws IOException
+        {
+            int length = connection.partialLength + end - start;
+            if(length > MAX_LINE_LENGTH) {
+                tooLong(key, connection);
+                return;
+            }
+            lineBytes.clear();
+            if(connection.partial != null) {
+                lineBytes.put(connection.partial, 0, connection.partialLength);
+                connection.partial = null;
+                connection.partialLength = 0;
+            }
+            for(int i = start; i < end; i++) {
+                lineBytes.put(readBuffer.get(i));
+            }
+            lineBytes.flip();
+            lineChars.clear();
+            decoder.reset();
+            decoder.decode(lineBytes, lineChars, true);
+            decoder.flush(lineChars);
+            lineChars.flip();
+
+            if(tokenizer.contains(lineChars, "bye")) {
+                connection.closing = true;
+                send(key, connection, GOODBYE.duplicate(), null);
+                return;
+            }
+            SupportMetrics metrics = responder.getMetrics();
+            long started = metrics == null ? 0 : System.nanoTime();
+            AdmissionController admission = responder.getAdmission();
+            String response;
+            if(admission == null) {
+                response = responder.generateResponse(lineChars, connection.session);
+            }
+            else {
+                if(connection.bucket == null) {
+                    connection.bucket = admission.newSessionBucket();
+                }
+                response = admission.answer(responder, lineChars, connection.session,
+                                            connection.bucket, arrived, false);
+            }
+            if(metrics != null) {
+                metrics.recordRespond(System.nanoTime() - started);
+            }
+            if(response == null) {
+                // shed without an answer: just ask for the next line
+                send(key, connection, PROMPT.duplicate(), null);
+                return;
+            }
+            send(key, connection, ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8)),
+                 PROMPT.duplicate());
+        }
+
+        /**
+         * Keep the start of a line until the rest of it arrives.
+         */
+        private void keepPartial(SelectionKey key, Connection connection, int start, int end)
+            throws IOException
+        {
+            int length = connection.partialLength + end - start;
+            if(length > MAX_LINE_LENGTH) {
+                tooLong(key, connection);
+                return;
+            }
+            if(connection.partial == null) {
+                connection.partial = new byte[Math.max(64, length)];
+            }
+            else if(connection.partial.length < length) {
+                connection.partial = Arrays.copyOf(connection.partial,
+                                                   Math.min(MAX_LINE_LENGTH, length * 2));
+            }
+            for(int i = start; i < end; i++) {
+                connection.partial[connection.partialLength++] = readBuffer.get(i);
+            }
+        }
+
+        /**
+         * End a connection whose user sent a line that is too long.
+         */
+        private void tooLong(SelectionKey key, Connection connection) throws IOException
+        {
+            connection.partial = null;
+            connection.partialLength = 0;
+            connection.closing = true;
+            send(key, connection, TOO_LONG.duplicate(), null);
+        }
+
+        /**
+         * Send output on a connection: write as much as the network takes
+         * now, and keep the rest until the connection is ready for more.
+         * While output is waiting no more input is read, so a user who
+         * does not read their answers cannot make the server store more
+         * and more of them.
+         *
+         * @param first   The output
+         * @param second  More output to send with it, or null
+         */
+        private void send(SelectionKey key, Connection connection, ByteBuffer first,
+                          ByteBuffer second) throws IOException
+        {
+            if(connection.pending != null) {
+                connection.pending.add(first);
+                if(second != null) {
+                    connection.pending.add(second);
+                }
+                return;
+            }
+            if(second == null) {
+                connection.channel.write(first);
+            }
+            else {
+                gather[0] = first;
+                gather[1] = second;
+                connection.channel.write(gather);
+                gather[0] = null;
+                gather[1] = null;
+            }
+            if(first.hasRemaining() || (second != null && second.hasRemaining())) {
+                connection.pending = new ArrayDeque<>(4);
+                if(first.hasRemaining()) {
+                    connection.pending.add(first);
+                }
+                if(second != null) {
+                    connection.pending.add(second);
+                }
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+            else if(connection.closing) {
+                close(key);
+            }
+        }
+
+        /**
+         * Write waiting output to a connection that is ready for it.
+         */
+        private void flush(SelectionKey key, Connection connection) throws IOException
+        {
+            ArrayDeque<ByteBuffer> pending = connection.pending;
+            while(!pending.isEmpty()) {
+                ByteBuffer buffer = pending.peek();
+                connection.channel.write(buffer);
+                if(buffer.hasRemaining()) {
+                    return;
+                }
+                pending.poll();
+            }
+            connection.pending = null;
+            if(connection.closing) {
+                close(key);
+            }
+            else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Close a connection.
+         */
+        private void close(SelectionKey key)
+        {
+            SessionStore sessions = responder.getSessions();
+            if(sessions != null) {
+                sessions.close(((Connection) key.attachment()).session);
+            }
+            key.cancel();
+            try {
+                key.channel().close();
+            }
+            catch(IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Start a server from the command line.
+     *
+     * @param args  Optionally, the port number to listen on and the number
+     *              of event loops, followed by "lazy" to read responses
+     *              only when needed, "quick" to prepare() before
+     *              listening and "journal" to keep an audit trail in
+     *              the journal directory. Lines are shed under overload
+     *              with a "please try again", or with no answer if
+     *              "drop" is given
+     */
+    public static void main(String[] args)
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int loopCount = args.length > 1 ? Integer.parseInt(args[1])
+                                        : Runtime.getRuntime().availableProcessors();
+        List<String> options = Arrays.asList(args).subList(Math.min(2, args.length), args.length);
+        NioSupportServer server = new NioSupportServer(port, loopCount, options.contains("lazy"));
+        server.shedLoad(options.contains("drop") ? AdmissionController.ShedPolicy.DROP
+                                                 : AdmissionController.ShedPolicy.RETRY);
+        if(options.contains("journal")) {
+            try {
+                server.keepJournal(Paths.get(JOURNAL_DIRECTORY));
+            }
+            catch(IOException e) {
+                System.err.println("Unable to start the journal: " + e.getMessage());
+                return;
+            }
+        }
+        if(options.contains("quick")) {
+            server.prepare();
+        }
+        server.start();
+    }
+}
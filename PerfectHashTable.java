@@ -0,0 +1,268 @@
+/**
+ * A PerfectHashTable finds the index of a word in a fixed array of
+ * distinct words. It is built once, when a knowledge base is made, from a
+ * minimal perfect hash function: every word of the array has a slot of its
+ * own, and there are exactly as many slots as words, so there are no
+ * empty slots and no probing.
+ *
+ * The function is found by hashing and displacing. Each word has a 64-bit
+ * hash, and its high half picks one of about a third as many buckets as
+ * there are words. The buckets are placed largest first: for each one a
+ * seed is found that sends all of its words, mixed with the seed, to
+ * slots still free. A bucket of one word just records its slot. Looking a
+ * word up takes its hash, the seed of its bucket and one mixing step.
+ *
+ * Since any word at all leads to some slot, each slot also keeps the low
+ * 16 bits of its word's hash, which are not used to place it: the bucket
+ * is picked by the high 32 bits, and the slot by bits 16 to 63. A word
+ * that is not in the table is turned away there, without its text being
+ * compared, except one time in 65536. Most words a user types are not key
+ * words, so this is what most lookups cost.
+ *
+ * The table keeps about 7 bytes per word, and the words themselves are
+ * the array it was built from, which is not copied. Like a WordTable it
+ * can look up any CharSequence without making a String of it, and once
+ * built it never changes, so any number of threads can read it.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public final class PerfectHashTable
+{
+    // The average number of words in a bucket.
+    private static final int BUCKET_SIZE = 3;
+    // The most seeds tried for one bucket before starting again with
+    // another hash seed.
+    private static final int MAX_SEEDS = 1 << 20;
+    // The most hash seeds tried before deciding the words are not all
+    // different.
+    private static final int MAX_HASH_SEEDS = 16;
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    // The words, by index. Shared with the caller.
+    private final String[] words;
+    // Mixed into every word's hash; changed if no function can be found.
+    private long hashSeed;
+    // For each bucket, its seed, or ~slot for a bucket of one word.
+    private int[] seeds;
+    // For each slot, 16 bits of its word's hash and the word's index.
+    private short[] fingerprints;
+    private int[] indexes;
+
+    /**
+     * Build a table of words. The value of each word is its index in the
+     * array.
+     *
+     * @param words  The words; they must all be different, and the array
+     *               must not be changed afterwards
+     * @throws IllegalArgumentException  If a word is there twice
+     */
+    public PerfectHashTable(String[] words)
+    {
+        this.words = words;
+        int attempts = 1;
+        while(!build()) {
+            // two words with the same hash, or an unlucky bucket
+            if(attempts++ == MAX_HASH_SEEDS) {
+                throw new IllegalArgumentException("The words are not all different");
+            }
+            hashSeed += GOLDEN;
+        }
+    }
+
+    /**
+     * Look up a word.
+     *
+     * @param word  The word to find
+     * @return      Its index, or -1 if it is not in the table
+     */
+    public int get(CharSequence word)
+    {
+        if(words.length == 0) {
+            return -1;
+        }
+        long hash = hash(word, hashSeed);
+        int seed = seeds[reduce(hash >>> 32, seeds.length)];
+        int slot = seed < 0 ? ~seed : slot(hash, seed, words.length);
+        if(fingerprints[slot] != (short) hash) {
+            return -1;
+        }
+        int index = indexes[slot];
+        return words[index].contentEquals(word) ? index : -1;
+    }
+
+    /**
+     * @return  The number of words in the table
+     */
+    public int size()
+    {
+        return words.length;
+    }
+
+    /**
+     * Try to find a perfect hash function with the current hash seed.
+     *
+     * @return  false if none was found and another hash seed is needed
+     */
+    private boolean build()
+    {
+        int count = words.length;
+        int bucketCount = Math.max(1, count / BUCKET_SIZE);
+        seeds = new int[bucketCount];
+        fingerprints = new short[count];
+        indexes = new int[count];
+        if(count == 0) {
+            return true;
+        }
+        long[] hashes = new long[count];
+        for(int i = 0; i < count; i++) {
+            hashes[i] = hash(words[i], hashSeed);
+        }
+
+        // the words of each bucket, grouped by a counting sort
+        int[] bucketStarts = new int[bucketCount + 1];
+        for(long hash : hashes) {
+            bucketStarts[reduce(hash >>> 32, bucketCount) + 1]++;
+        }
+        int largest = 0;
+        for(int b = 0; b < bucketCount; b++) {
+            largest = Math.max(largest, bucketStarts[b + 1]);
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        int[] bucketWords = new int[count];
+        int[] filled = bucketStarts.clone();
+        for(int i = 0; i < count; i++) {
+            bucketWords[filled[reduce(hashes[i] >>> 32, bucketCount)]++] = i;
+        }
+
+        // the buckets, largest first, again by a counting sort
+        int[] sizeStarts = new int[largest + 2];
+        for(int b = 0; b < bucketCount; b++) {
+            sizeStarts[largest - (bucketStarts[b + 1] - bucketStarts[b]) + 1]++;
+        }
+        for(int s = 0; s <= largest; s++) {
+            sizeStarts[s + 1] += sizeStarts[s];
+        }
+        int[] order = new int[bucketCount];
+        for(int b = 0; b < bucketCount; b++) {
+            order[sizeStarts[largest - (bucketStarts[b + 1] - bucketStarts[b])]++] = b;
+        }
+
+        boolean[] taken = new boolean[count];
+        int[] slots = new int[largest];
+        int nextFree = 0;
+        for(int bucket : order) {
+            int start = bucketStarts[bucket];
+            int size = bucketStarts[bucket + 1] - start;
+            if(size == 0) {
+                // no word leads here; any seed will do
+                break;
+            }
+            if(size == 1) {
+                while(taken[nextFree]) {
+                    nextFree++;
+                }
+                place(nextFree, bucketWords[start], hashes, taken);
+                seeds[bucket] = ~nextFree;
+                continue;
+            }
+            int seed = findSeed(bucketWords, start, size, hashes, taken, slots);
+            if(seed < 0) {
+                return false;
+            }
+            for(int i = 0; i < size; i++) {
+                place(slots[i], bucketWords[start + i], hashes, taken);
+            }
+            seeds[bucket] = seed;
+        }
+        return true;
+    }
+
+    /**
+     * Find a seed that sends every word of a bucket to a different free
+     * slot.
+     *
+     * @param slots  Where to put the slots the seed sends the words to
+     * @return       The seed, or -1 if none was found
+     */
+    private static int findSeed(int[] bucketWords, int start, int size, long[] hashes,
+                                boolean[] taken, int[] slots)
+    {
+        int count = taken.length;
+        for(int seed = 0; seed < MAX_SEEDS; seed++) {
+            boolean fits = true;
+            for(int i = 0; i < size && fits; i++) {
+                int slot = slot(hashes[bucketWords[start + i]], seed, count);
+                fits = !taken[slot];
+                for(int j = 0; j < i && fits; j++) {
+                    fits = slots[j] != slot;
+                }
+                slots[i] = slot;
+            }
+            if(fits) {
+                return seed;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Put a word in a slot.
+     */
+    private void place(int slot, int word, long[] hashes, boolean[] taken)
+    {
+        taken[slot] = true;
+        fingerprints[slot] = (short) hashes[word];
+        indexes[slot] = word;
+    }
+
+    /**
+     * @param hash   A word's hash
+     * @param seed   Its bucket's seed
+     * @param count  The number of slots
+     * @return       The slot the seed sends the word to; the low 16 bits
+     *               of the hash, which are the fingerprint, play no part
+     */
+    private static int slot(long hash, int seed, int count)
+    {
+        long mixed = (hash >>> 16 ^ seed * GOLDEN) * 0xBF58476D1CE4E5B9L;
+        return reduce((mixed ^ mixed >>> 31) >>> 32, count);
+    }
+
+    /**
+     * Map a 32-bit value evenly onto 0 to range - 1, with a multiply
+     * instead of a division.
+     *
+     * @param value  A value from 0 to 2^32 - 1
+     * @param range  The size of the range
+     * @return       A value in the range
+     */
+    private static int reduce(long value, int range)
+    {
+        return (int) (value * range >>> 32);
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the characters of a word, mixed with a seed
+     * and finished like MurmurHash3.
+     *
+     * @param word  The word
+     * @param seed  The hash seed
+     * @return      The hash
+     */
+    private static long hash(CharSequence word, long seed)
+    {
+        long hash = 0xCBF29CE484222325L ^ seed;
+        for(int i = 0; i < word.length(); i++) {
+            hash ^= word.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
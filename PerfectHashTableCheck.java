@@ -0,0 +1,116 @@
+import java.util.Random;
+
+/**
+ * PerfectHashTableCheck builds PerfectHashTables of several sizes and
+ * checks that each finds every one of its words at the word's own index,
+ * and turns away words it does not hold. The sizes run from an empty
+ * table, through tables of one to a few words, where most buckets have one
+ * word or none, to a million words, where the seed search does most of the
+ * work. It also checks that a table of words that are not all different
+ * is refused once every hash seed has been tried.
+ *
+ * Run it from the project directory:
+ *      java PerfectHashTableCheck
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class PerfectHashTableCheck
+{
+    // The numbers of words in the tables checked.
+    private static final int[] SIZES = { 0, 1, 2, 3, 4, 5, 10, 100, 10_000, 1_000_000 };
+    // How many words that are not in a table are looked up in it.
+    private static final int MISSES = 100_000;
+
+    private final Random random;
+
+    /**
+     * Create a check whose words are made from the given seed.
+     *
+     * @param seed  The seed of the random words
+     */
+    public PerfectHashTableCheck(long seed)
+    {
+        random = new Random(seed);
+    }
+
+    /**
+     * Build a table of distinct words and look up every word in it, as a
+     * String and as a StringBuilder, and words that are not in it.
+     *
+     * @param size  The number of words
+     * @return      true if every word was found at its index and no other
+     *              word was found
+     */
+    public boolean check(int size)
+    {
+        String[] words = new String[size];
+        for(int i = 0; i < size; i++) {
+            // the index keeps the words different
+            words[i] = randomLetters(1 + random.nextInt(8)) + i;
+        }
+        PerfectHashTable table = new PerfectHashTable(words);
+        boolean ok = table.size() == size;
+        for(int i = 0; i < size && ok; i++) {
+            ok = table.get(words[i]) == i && table.get(new StringBuilder(words[i])) == i;
+        }
+        // the words end in a digit, so a word of letters is never one of them
+        ok &= table.get("") == -1;
+        for(int i = 0; i < MISSES && ok; i++) {
+            ok = table.get(randomLetters(1 + random.nextInt(10))) == -1;
+        }
+        // near misses of the words themselves
+        for(int i = 0; i < size && ok; i++) {
+            ok = table.get(words[i] + "s") == -1 && table.get(words[i].toUpperCase()) == -1;
+        }
+        return ok;
+    }
+
+    /**
+     * @return  true if a table with the same word twice is refused
+     */
+    public boolean refusesDuplicates()
+    {
+        try {
+            new PerfectHashTable(new String[] { "crash", "slow", "crash" });
+            return false;
+        }
+        catch(IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @param length  The number of letters
+     * @return        A word of random lower case letters
+     */
+    private String randomLetters(int length)
+    {
+        StringBuilder word = new StringBuilder(length);
+        for(int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    /**
+     * Check tables of every size, and report them.
+     *
+     * @param args  Not used
+     */
+    public static void main(String[] args)
+    {
+        PerfectHashTableCheck check = new PerfectHashTableCheck(42);
+        boolean allPassed = true;
+        for(int size : SIZES) {
+            boolean passed = check.check(size);
+            System.out.printf("%-6s %,d words%n", passed ? "ok" : "FAILED", size);
+            allPassed &= passed;
+        }
+        boolean refused = check.refusesDuplicates();
+        System.out.printf("%-6s duplicate words refused%n", refused ? "ok" : "FAILED");
+        allPassed &= refused;
+        System.out.println(allPassed ? "All checks passed" : "Some checks FAILED");
+    }
+}
@@ -0,0 +1,365 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A PhraseMatcher finds key phrases (key words made of several words, such
+ * as "blue screen" or "out of memory") in a line of input. It is an
+ * Aho-Corasick automaton: all the phrases are compiled into one state
+ * machine, and the words of the line are fed through it once. Every phrase
+ * that occurs is reported as the machine passes its last letter, so the
+ * cost is proportional to the length of the line however many phrases
+ * there are.
+ *
+ * The machine reads the words of the line as a Tokenizer produces them,
+ * each followed by a space, after an initial space. Phrases are stored the
+ * same way (" blue screen "), so a phrase only matches whole words.
+ *
+ * To use it, keep a state (starting with start()), pass each word to
+ * advance(), and after each word walk the matches:
+ *      for(int s = matcher.firstMatch(state); s > 0; s = matcher.nextMatch(s)) {
+ *          int keyword = matcher.getKeyword(s);
+ *          ...
+ *      }
+ *
+ * A PhraseMatcher never changes once built, so it can be shared between
+ * threads; the state is just an int held by the caller.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/28/2020
+ */
+public final class PhraseMatcher
+{
+    // The number of phrases in the machine.
+    private final int phraseCount;
+    // The edges of each state, sorted by character: the edges of state s
+    // are at positions edgeStart[s] to edgeStart[s + 1] - 1.
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    // The state to fall back to when no edge fits.
+    private final int[] fail;
+    // The key word index of the phrase that ends at each state, or -1.
+    private final int[] keywords;
+    // The number of words in that phrase.
+    private final int[] wordCounts;
+    // The nearest state along the fail links that ends a phrase, or 0.
+    private final int[] matchLinks;
+
+    /**
+     * Build the machine for every key word of a knowledge base that is
+     * made of more than one word.
+     *
+     * @param knowledgeBase  The knowledge base to take phrases from
+     */
+    public PhraseMatcher(KnowledgeBase knowledgeBase)
+    {
+        // Build a plain trie first, one list of children per state.
+        ArrayList<StringBuilder> childChars = new ArrayList<>();
+        ArrayList<ArrayList<Integer>> childStates = new ArrayList<>();
+        ArrayList<Integer> endKeyword = new ArrayList<>();
+        ArrayList<Integer> endWords = new ArrayList<>();
+        addState(childChars, childStates, endKeyword, endWords);   // the root
+        int phrases = 0;
+        for(int k = 0; k < knowledgeBase.getKeywordCount(); k++) {
+            String keyword = knowledgeBase.getKeyword(k);
+            if(!isPhrase(keyword)) {
+                continue;
+            }
+            String pattern = " " + keyword + " ";
+            int state = 0;
+            for(int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int index = childChars.get(state).indexOf(String.valueOf(c));
+                if(index >= 0) {
+                    state = childStates.get(state).get(index);
+                }
+                else {
+                    int next = addState(childChars, childStates, endKeyword, endWords);
+                    childChars.get(state).append(c);
+                    childStates.get(state).add(next);
+                    state = next;
+                }
+            }
+            if(endKeyword.get(state) < 0) {
+                endKeyword.set(state, k);
+                endWords.set(state, wordCount(keyword));
+                phrases++;
+            }
+        }
+        phraseCount = phrases;
+
+        // Flatten the trie into sorted edge arrays.
+        int states = childChars.size();
+        edgeStart = new int[states + 1];
+        int edges = 0;
+        for(int s = 0; s < states; s++) {
+            edgeStart[s] = edges;
+            edges += childChars.get(s).length();
+        }
+        edgeStart[states] = edges;
+        edgeChars = new char[edges];
+        edgeTargets = new int[edges];
+        for(int s = 0; s < states; s++) {
+            StringBuilder chars = childChars.get(s);
+            Integer[] order = new Integer[chars.length()];
+            for(int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> chars.charAt(a) - chars.charAt(b));
+            for(int i = 0; i < order.length; i++) {
+                edgeChars[edgeStart[s] + i] = chars.charAt(order[i]);
+                edgeTargets[edgeStart[s] + i] = childStates.get(s).get(order[i]);
+            }
+        }
+        keywords = new int[states];
+        wordCounts = new int[states];
+        for(int s = 0; s < states; s++) {
+            keywords[s] = endKeyword.get(s);
+            wordCounts[s] = endWords.get(s);
+        }
+
+        // Work out the fail and match links breadth first, so that every
+        // state's links are known before its children need them.
+        fail = new int[states];
+        matchLinks = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for(int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            queue[tail++] = edgeTargets[e];
+        }
+        while(head < tail) {
+            int s = queue[head++];
+            for(int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                int child = edgeTargets[e];
+                int f = fail[s];
+                int target = edge(f, edgeChars[e]);
+                while(target < 0 && f != 0) {
+                    f = fail[f];
+                    target = edge(f, edgeChars[e]);
+                }
+                fail[child] = target < 0 ? 0 : target;
+                matchLinks[child] = keywords[fail[child]] >= 0 ? fail[child]
+                                                                : matchLinks[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Use a machine that was built before, and saved. The arrays are
+     * those the getters of the saved machine returned.
+     */
+    PhraseMatcher(int phraseCount, int[] edgeStart, char[] edgeChars, int[] edgeTargets,
+                  int[] fail, int[] keywords, int[] wordCounts, int[] matchLinks)
+    {
+        int states = keywords.length;
+        if(edgeStart.length != states + 1 || fail.length != states ||
+           wordCounts.length != states || matchLinks.length != states ||
+           edgeChars.length != edgeTargets.length || edgeStart[states] != edgeChars.length) {
+            throw new IllegalArgumentException("The arrays of the machine do not fit together");
+        }
+        this.phraseCount = phraseCount;
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.keywords = keywords;
+        this.wordCounts = wordCounts;
+        this.matchLinks = matchLinks;
+    }
+
+    /**
+     * @return  The number of phrases the machine looks for
+     */
+    public int getPhraseCount()
+    {
+        return phraseCount;
+    }
+
+    /**
+     * @return  The state to start a new line in
+     */
+    public int start()
+    {
+        return step(0, ' ');
+    }
+
+    /**
+     * Feed one word, and the space after it, through the machine.
+     *
+     * @param state  The current state
+     * @param word   The next word of the line
+     * @return       The new state
+     */
+    public int advance(int state, CharSequence word)
+    {
+        for(int i = 0; i < word.length(); i++) {
+            state = step(state, word.charAt(i));
+        }
+        return step(state, ' ');
+    }
+
+    /**
+     * @param state  The current state
+     * @return       The first state in which a phrase ends here, or 0 if no
+     *               phrase ends here
+     */
+    public int firstMatch(int state)
+    {
+        return keywords[state] >= 0 ? state : matchLinks[state];
+    }
+
+    /**
+     * @param match  A state returned by firstMatch or nextMatch
+     * @return       The next state in which a (shorter) phrase ends here,
+     *               or 0 if there are no more
+     */
+    public int nextMatch(int match)
+    {
+        return matchLinks[match];
+    }
+
+    /**
+     * @param match  A state returned by firstMatch or nextMatch
+     * @return       The key word index of the phrase that ends there
+     */
+    public int getKeyword(int match)
+    {
+        return keywords[match];
+    }
+
+    /**
+     * @param match  A state returned by firstMatch or nextMatch
+     * @return       The number of words in the phrase that ends there
+     */
+    public int getWordCount(int match)
+    {
+        return wordCounts[match];
+    }
+
+    /**
+     * @param keyword  A key word
+     * @return         true if it is made of more than one word
+     */
+    static boolean isPhrase(String keyword)
+    {
+        return keyword.indexOf(' ') >= 0;
+    }
+
+    /**
+     * @return  Where the edges of each state start; not to be changed
+     */
+    int[] getEdgeStarts()
+    {
+        return edgeStart;
+    }
+
+    /**
+     * @return  The character of each edge; not to be changed
+     */
+    char[] getEdgeChars()
+    {
+        return edgeChars;
+    }
+
+    /**
+     * @return  The state each edge leads to; not to be changed
+     */
+    int[] getEdgeTargets()
+    {
+        return edgeTargets;
+    }
+
+    /**
+     * @return  The fail link of each state; not to be changed
+     */
+    int[] getFailLinks()
+    {
+        return fail;
+    }
+
+    /**
+     * @return  The key word index of the phrase each state ends, or -1; not to be changed
+     */
+    int[] getKeywords()
+    {
+        return keywords;
+    }
+
+    /**
+     * @return  The number of words in that phrase; not to be changed
+     */
+    int[] getWordCounts()
+    {
+        return wordCounts;
+    }
+
+    /**
+     * @return  The match link of each state; not to be changed
+     */
+    int[] getMatchLinks()
+    {
+        return matchLinks;
+    }
+
+    /**
+     * Move the machine on by one character.
+     *
+     * @param state  The current state
+     * @param c      The character
+     * @return       The new state
+     */
+    private int step(int state, char c)
+    {
+        int target = edge(state, c);
+        while(target < 0 && state != 0) {
+            state = fail[state];
+            target = edge(state, c);
+        }
+        return target < 0 ? 0 : target;
+    }
+
+    /**
+     * @param state  A state
+     * @param c      A character
+     * @return       The state the trie edge for c leads to, or -1 if none
+     */
+    private int edge(int state, char c)
+    {
+        int found = Arrays.binarySearch(edgeChars, edgeStart[state], edgeStart[state + 1], c);
+        return found < 0 ? -1 : edgeTargets[found];
+    }
+
+    /**
+     * Add an empty state to the trie being built.
+     *
+     * @return  The new state's number
+     */
+    private static int addState(ArrayList<StringBuilder> childChars,
+                                ArrayList<ArrayList<Integer>> childStates,
+                                ArrayList<Integer> endKeyword, ArrayList<Integer> endWords)
+    {
+        childChars.add(new StringBuilder());
+        childStates.add(new ArrayList<>());
+        endKeyword.add(-1);
+        endWords.add(0);
+        return childChars.size() - 1;
+    }
+
+    /**
+     * @param phrase  A phrase whose words are separated by single spaces
+     * @return        The number of words in it
+     */
+    private static int wordCount(String phrase)
+    {
+        int count = 1;
+        for(int i = 0; i < phrase.length(); i++) {
+            if(phrase.charAt(i) == ' ') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,78 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * QuickStart gets a directory ready for Responders that must answer
+ * quickly as soon as they start, such as short lived servers started on
+ * demand, and shows how quickly they do.
+ *
+ * A new Responder spends most of its start up reading the text files and
+ * building its stem table, spelling index and phrase matcher, and its
+ * first answers are slow because the JIT has not compiled anything yet.
+ * So QuickStart
+ *      1. writes the compiled knowledge base, which holds everything the
+ *         Responder builds, so later Responders just map it (see
+ *         KnowledgeBaseCompiler);
+ *      2. warms the response path up with made-up lines (see
+ *         Responder.warmUp);
+ *      3. reports how long each step took, and how long after the JVM
+ *         started the first real answer was ready.
+ *
+ * Run it from the project directory, or give the directory:
+ *      java QuickStart [directory]
+ * The servers do steps 1 and 2 themselves when given "quick" on the
+ * command line.
+ *
+ * QuickStart is also the training run for a class data sharing archive,
+ * which saves the JVM loading and checking the classes at every start
+ * (see the "cds" profile in pom.xml):
+ *      java -XX:ArchiveClassesAtExit=techsupport.jsa -cp techsupport-1.0.jar QuickStart
+ *      java -XX:SharedArchiveFile=techsupport.jsa -jar techsupport-1.0.jar 4242 quick
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class QuickStart
+{
+    // The line answered once the Responder is ready.
+    private static final String FIRST_LINE = "My computer keeps crashing when I print.";
+
+    /**
+     * Prepare a directory and report the start up times.
+     *
+     * @param args  Optionally, the directory holding the text files
+     */
+    public static void main(String[] args)
+    {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "");
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        long start = System.nanoTime();
+        Responder responder = new Responder(directory);
+        long loaded = System.nanoTime();
+        long loadedUptime = runtime.getUptime();
+        boolean saved = responder.saveCompiled();
+        if(saved) {
+            // warm up what the next start will use
+            responder = new Responder(directory);
+        }
+        long compiled = System.nanoTime();
+        responder.warmUp(Responder.WARM_UP_LINES);
+        long warm = System.nanoTime();
+        responder.generateResponse(FIRST_LINE);
+        long answered = System.nanoTime();
+
+        System.out.printf("Loaded the knowledge base in %.1f ms, %d ms after the JVM started%n",
+                          (loaded - start) / 1e6, loadedUptime);
+        if(saved) {
+            System.out.printf("Wrote %s in %.1f ms; the next start will open it%n",
+                              directory.resolve(Responder.FILE_OF_COMPILED_KNOWLEDGE),
+                              (compiled - loaded) / 1e6);
+        }
+        System.out.printf("Warmed up in %.1f ms%n", (warm - compiled) / 1e6);
+        System.out.printf("First answer took %.1f us, %d ms after the JVM started%n",
+                          (answered - warm) / 1e3, runtime.getUptime());
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A RemoteShard is a Shard served by a ShardNode in another process (see
+ * ShardNode for what is sent). Connections are opened as they are needed
+ * and kept for the next request, so a RemoteShard used by many threads at
+ * once holds one connection for each request in progress at the busiest
+ * moment.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class RemoteShard implements Shard, Closeable
+{
+    // How long to wait for a connection or a reply, in milliseconds.
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private final InetSocketAddress address;
+    // Connections not in use at the moment.
+    private final ConcurrentLinkedQueue<Connection> idle;
+
+    /**
+     * Create a shard reached at an address. No connection is made until
+     * the first request.
+     *
+     * @param address  The address the ShardNode listens on
+     */
+    public RemoteShard(InetSocketAddress address)
+    {
+        this.address = address;
+        idle = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Find every response the shard's key words in a line point to.
+     *
+     * @param line        A line of input, normalized as by a Tokenizer
+     * @param bySpelling  Whether words may match key words spelt a little
+     *                    differently
+     * @return            The candidate responses
+     * @throws IOException  If the shard could not be reached
+     */
+    public List<Candidate> score(CharSequence line, boolean bySpelling) throws IOException
+    {
+        List<Candidate> candidates = new ArrayList<>();
+        for(String reply : ask((bySpelling ? "S " : "W ") + line)) {
+            // C <response id> <score> <position> <response>
+            int idEnd = reply.indexOf(' ', 2);
+            int scoreEnd = reply.indexOf(' ', idEnd + 1);
+            int positionEnd = reply.indexOf(' ', scoreEnd + 1);
+            candidates.add(new Candidate(Integer.parseInt(reply.substring(2, idEnd)),
+                                         Integer.parseInt(reply.substring(idEnd + 1, scoreEnd)),
+                                         Integer.parseInt(reply.substring(scoreEnd + 1, positionEnd)),
+                                         ShardNode.unescape(reply, positionEnd + 1)));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return  The default responses
+     * @throws IOException  If the shard could not be reached
+     */
+    public List<String> getDefaultResponses() throws IOException
+    {
+        List<String> responses = new ArrayList<>();
+        for(String reply : ask("D")) {
+            responses.add(ShardNode.unescape(reply, 2));
+        }
+        return responses;
+    }
+
+    /**
+     * Close the idle connections. Requests still in progress keep theirs
+     * until they finish.
+     */
+    public void close()
+    {
+        Connection connection = idle.poll();
+        while(connection != null) {
+            connection.close();
+            connection = idle.poll();
+        }
+    }
+
+    /**
+     * Send a request and read the reply.
+     *
+     * @param request  The request line
+     * @return         The lines of the reply, without the empty line that
+     *                 ends it
+     * @throws IOException  If the shard could not be reached
+     */
+    private List<String> ask(String request) throws IOException
+    {
+        Connection connection = idle.poll();
+        if(connection == null) {
+            connection = new Connection(address);
+        }
+        try {
+            connection.out.write(request);
+            connection.out.write('\n');
+            connection.out.flush();
+            List<String> reply = new ArrayList<>();
+            String line = connection.in.readLine();
+            while(line != null && !line.isEmpty()) {
+                reply.add(line);
+                line = connection.in.readLine();
+            }
+            if(line == null) {
+                throw new EOFException("shard at " + address + " closed the connection");
+            }
+            idle.add(connection);
+            return reply;
+        }
+        catch(IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * One open connection to the ShardNode.
+     */
+    private static final class Connection
+    {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        private Connection(InetSocketAddress address) throws IOException
+        {
+            socket = new Socket();
+            try {
+                socket.connect(address, TIMEOUT_MILLIS);
+                socket.setSoTimeout(TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            }
+            catch(IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        private void close()
+        {
+            try {
+                socket.close();
+            }
+            catch(IOException e) {
+                // nothing more can be done with it
+            }
+        }
+    }
+}
@@ -1,7 +1,11 @@
 import java.io.*;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.*;
 import java.util.Arrays;
 
@@ -12,9 +16,41 @@ import java.util.Arrays;
  * words the responder will generate a String that represents the response.
  *
  * Internally, the reponder uses a HashMap to associate words with response
- * strings and a list of default responses. If any of the input words is found
- * in the HashMap, the corresponding response is returned. If none of the input
- * words is recognized, one of the default responses is randomly chosen.
+ * strings and a list of default responses. Each key word found among the input
+ * words adds its weight to its response, and the response with the highest
+ * score is returned. If none of the input words is recognized, one of the
+ * default responses is randomly chosen.
+ *
+ * The map and the list are only used while the files are read. They are then
+ * frozen into an immutable KnowledgeBase, and the random choice uses the
+ * calling thread's own generator, so generateResponse can be called from any
+ * number of threads without locking.
+ *
+ * Calling reload() re-reads the files and swaps the new KnowledgeBase in
+ * with a single write. A response that is being generated at that moment
+ * keeps using the KnowledgeBase it started with.
+ *
+ * If a compiled knowledge base (see KnowledgeBaseCompiler) is newer than
+ * both text files, it is memory mapped instead of parsing the text files.
+ * Either way the knowledge base is wrapped in a MatchingKnowledgeBase, so
+ * that other forms and misspellings of key words, and key phrases of more
+ * than one word, are recognised too.
+ * 
+ * saveCompiled writes the compiled knowledge base for the next Responder
+ * to start from, and warmUp runs made-up lines through generateResponse
+ * so that the first real line is answered by compiled code (see
+ * QuickStart).
+ * 
+ * A ResponseCache can be set to remember the responses to lines that have
+ * been answered before; it is emptied whenever the files are reloaded.
+ * SupportMetrics can be set to count the responses and time how long
+ * a sample of the lines take to tokenize. A SessionStore can be set so that lines that
+ * are part of a dialog are answered with what was said before in mind:
+ * no default response is repeated until they have all been given, and a
+ * user whose lines keep finding no key word is sent to a person. A
+ * TranscriptJournal can be set to keep every line and its response. An
+ * AdmissionController can be set for the dialog loops to shed lines with
+ * when they come faster than they can be answered.
  * 
  * @author Catherine Oldfield
  * for RVCC GDEV242 - Fall 2020
@@ -23,55 +59,543 @@ import java.util.Arrays;
  */
 public class Responder
 {
-    // Used to map key words to responses.
-    private HashMap<String, String> responseMap;
-    // Default responses to use if we don't recognise a word.
-    private ArrayList<String> defaultResponses;
+    // The frozen key words, responses and default responses. Replaced as
+    // a whole when the files are reloaded.
+    private volatile KnowledgeBase knowledgeBase;
+    // The directory the files are read from.
+    private final Path directory;
+    // Whether responses are read from the key word file only when needed.
+    private final boolean lazyResponses;
+    // When the files of the knowledge base in use started to be read, in
+    // milliseconds since the epoch.
+    private volatile long loadTime;
+    // Remembers the responses to lines seen before, or null for no cache.
+    private volatile ResponseCache cache;
+    // Counts the responses, or null for no counting.
+    private volatile SupportMetrics metrics;
+    // Remembers what has been said in each dialog, or null for nothing.
+    private volatile SessionStore sessions;
+    // Keeps every line and response, or null for no audit trail.
+    private volatile TranscriptJournal journal;
+    // Decides which lines of a dialog are answered, or null for all.
+    private volatile AdmissionController admission;
     // The name of the file containing the default responses.
-    // private static final String FILE_OF_DEFAULT_RESPONSES = "default.txt";
+    // static final String FILE_OF_DEFAULT_RESPONSES = "default.txt";
     
     // The name of the file containing the default responses as multiline responses.
-    private static final String FILE_OF_DEFAULT_RESPONSES = "default2.txt";
+    static final String FILE_OF_DEFAULT_RESPONSES = "default2.txt";
     
     // The name of the file containing the keys and values for the response map.
-    private static final String FILE_OF_KEYS_AND_VALUES = "keyvalue.txt";
-    private Random randomGenerator;
+    static final String FILE_OF_KEYS_AND_VALUES = "keyvalue.txt";
+    
+    // The name of the file written by KnowledgeBaseCompiler.
+    static final String FILE_OF_COMPILED_KNOWLEDGE = "knowledgebase.bin";
+
+    // The number of made-up lines warmUp needs to answer before the
+    // response path has been compiled by the JIT.
+    public static final int WARM_UP_LINES = 10000;
+    // The number of key words warmUp makes its lines from.
+    private static final int WARM_UP_KEYWORDS = 1000;
+
+    // The number of lines in a row without a key word, in a session, after
+    // which the user is sent to a person instead of given a default response.
+    public static final int ESCALATE_AFTER = 3;
+    // What the user is told then.
+    static final String ESCALATION_RESPONSE =
+        "I'm sorry, I don't seem to be able to help you with this myself.\n" +
+        "Please call DodgySoft support on 555-0142 and one of our engineers\n" +
+        "will take it from here.";
+
+    // Each thread reuses its own scorer, so answering a line allocates nothing.
+    private static final ThreadLocal<ResponseScorer> SCORERS =
+        ThreadLocal.withInitial(ResponseScorer::new);
 
     /**
-     * Construct a Responder
+     * Construct a Responder that reads its files from the current directory.
      */
     public Responder()
     {
-        responseMap = new HashMap<>();
-        defaultResponses = new ArrayList<>();
-        // fillResponseMap();          // the original authors' method
-        fillResponseMap2();      // my new method
-        // fillDefaultResponses();  // the original authors' method
-        fillDefaultResponses2();    // my new method
-        // fillDefaultResponsesLambdaVersion();     // my other new method
-        randomGenerator = new Random();
+        this(Paths.get(""));
+    }
+
+    /**
+     * Construct a Responder that reads its files from the given directory.
+     * 
+     * @param directory  The directory holding keyvalue.txt and default2.txt
+     */
+    public Responder(Path directory)
+    {
+        this(directory, false);
+    }
+
+    /**
+     * Construct a Responder that reads its files from the given directory,
+     * optionally leaving the text of responses in the key word file until
+     * each is first needed (see LazyKnowledgeBase). This saves memory and
+     * time at start up when the knowledge base is large. A compiled
+     * knowledge base is used if it is up to date either way, since it
+     * keeps its text off the heap already.
+     * 
+     * @param directory      The directory holding keyvalue.txt and default2.txt
+     * @param lazyResponses  true to read responses only when needed
+     */
+    public Responder(Path directory, boolean lazyResponses)
+    {
+        this.directory = directory;
+        this.lazyResponses = lazyResponses;
+        loadTime = System.currentTimeMillis();
+        knowledgeBase = loadKnowledgeBase(false);
+    }
+
+    /**
+     * @return  The directory the files are read from
+     */
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Read the key word and default response files again and start using
+     * the new contents. If either file cannot be read, the current
+     * knowledge base is kept.
+     * 
+     * @return  true if the new contents are now in use
+     */
+    public boolean reload()
+    {
+        long startTime = System.currentTimeMillis();
+        KnowledgeBase newKnowledgeBase = loadKnowledgeBase(true);
+        if(newKnowledgeBase == null) {
+            return false;
+        }
+        knowledgeBase = newKnowledgeBase;
+        loadTime = startTime;
+        ResponseCache cache = this.cache;
+        if(cache != null) {
+            // the old entries can no longer be used, so free them
+            cache.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Write the knowledge base in use to the compiled file (see
+     * KnowledgeBaseCompiler), so that the next Responder started in the
+     * same directory opens it instead of reading and indexing the text
+     * files. Nothing is written if the compiled file is already up to
+     * date, or if a text file has changed since it was read, since the
+     * compiled file would then hide the change.
+     * 
+     * @return  true if the compiled file was written
+     */
+    public boolean saveCompiled()
+    {
+        Path compiled = directory.resolve(FILE_OF_COMPILED_KNOWLEDGE);
+        if(isUpToDate(directory, compiled)) {
+            return false;
+        }
+        KnowledgeBase knowledgeBase = this.knowledgeBase;
+        try {
+            for(String name : new String[] { FILE_OF_KEYS_AND_VALUES, FILE_OF_DEFAULT_RESPONSES }) {
+                Path text = directory.resolve(name);
+                if(Files.exists(text) && Files.getLastModifiedTime(text).toMillis() >= loadTime) {
+                    return false;
+                }
+            }
+            new KnowledgeBaseCompiler().compile(knowledgeBase, compiled);
+            return true;
+        }
+        catch(IOException e) {
+            System.err.println("Unable to write " + FILE_OF_COMPILED_KNOWLEDGE + ": " +
+                               e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Answer made-up lines until the JIT compiler has compiled the
+     * response path, so that the first real line is answered at full
+     * speed. The lines are made from the knowledge base's own key words:
+     * some as they are, some in another form, some misspelt and some with
+     * no key word at all, so that every way of finding a response is
+     * taken. Half of them go through a cache, metrics and a session of
+     * their own, so the ones set on this Responder are not touched.
+     * 
+     * @param lineCount  The number of lines to answer; WARM_UP_LINES is
+     *                   enough for the compiler to finish
+     */
+    public void warmUp(int lineCount)
+    {
+        ResponseCache warmUpCache = new ResponseCache(WARM_UP_KEYWORDS);
+        SupportMetrics warmUpMetrics = new SupportMetrics();
+        SessionStore warmUpSessions = new SessionStore(1, 1, TimeUnit.HOURS);
+        long warmUpSession = warmUpSessions.open();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder line = new StringBuilder();
+        for(int i = 0; i < lineCount; i++) {
+            KnowledgeBase knowledgeBase = this.knowledgeBase;
+            // a few key words only, so that lines repeat and hit the cache
+            int keywordCount = Math.min(knowledgeBase.getKeywordCount(), WARM_UP_KEYWORDS);
+            line.setLength(0);
+            line.append("My computer ");
+            int kind = keywordCount == 0 ? 3 : i % 4;
+            if(kind < 3) {
+                String keyword = knowledgeBase.getKeyword(random.nextInt(keywordCount));
+                int start = line.length();
+                line.append(keyword);
+                if(kind == 1) {
+                    line.append("ing");
+                }
+                else if(kind == 2) {
+                    int middle = start + keyword.length() / 2;
+                    line.setCharAt(middle, line.charAt(middle) == 'a' ? 'e' : 'a');
+                }
+            }
+            else {
+                line.append("xyzzy");
+            }
+            line.append(" is not working, again!");
+            // as Strings and CharBuffers, the kinds of line the servers
+            // pass: code the JIT compiled for one kind of CharSequence
+            // would be thrown away on the first real line of another kind
+            String text = line.toString();
+            CharSequence input = (i & 2) == 0 ? text : CharBuffer.wrap(text.toCharArray());
+            if(i % 2 == 0) {
+                generateResponse(input, null, null, null, SessionStore.NO_SESSION);
+            }
+            else {
+                generateResponse(input, warmUpCache, warmUpMetrics, warmUpSessions, warmUpSession);
+            }
+        }
+    }
+
+    /**
+     * Start or stop remembering the responses to lines of input. With a
+     * cache, a line that has been answered before (ignoring case, spacing
+     * and punctuation) is answered without scoring it again. Only
+     * generateResponse(CharSequence) uses the cache.
+     * 
+     * @param cache  The cache to use, or null for none
+     */
+    public void setCache(ResponseCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * @return  The cache in use, or null if there is none
+     */
+    public ResponseCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Start or stop counting responses, default responses and the key
+     * words that decide them, and timing how long a sample of the lines
+     * take to tokenize.
+     * 
+     * @param metrics  The metrics to record in, or null for none
+     */
+    public void setMetrics(SupportMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return  The metrics in use, or null if there are none
+     */
+    public SupportMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Start or stop remembering what has been said in each dialog. With a
+     * store, generateResponse(CharSequence, long) avoids giving a session
+     * a default response it has had already, and after ESCALATE_AFTER
+     * lines in a row without a key word sends the user to a person.
+     * 
+     * @param sessions  The store to use, or null for none
+     */
+    public void setSessions(SessionStore sessions)
+    {
+        this.sessions = sessions;
+    }
+
+    /**
+     * @return  The session store in use, or null if there is none
+     */
+    public SessionStore getSessions()
+    {
+        return sessions;
+    }
+
+    /**
+     * Start or stop keeping an audit trail of every line given to
+     * generateResponse(CharSequence) or generateResponse(CharSequence,
+     * long) and the response to it. The journal writes on a thread of its
+     * own, so answering a line never waits for the disk.
+     * 
+     * @param journal  The journal to record in, or null for none
+     */
+    public void setJournal(TranscriptJournal journal)
+    {
+        this.journal = journal;
+    }
+
+    /**
+     * @return  The journal in use, or null if there is none
+     */
+    public TranscriptJournal getJournal()
+    {
+        return journal;
+    }
+
+    /**
+     * Start or stop shedding lines under overload. The Responder itself
+     * answers every line it is given; the controller is used by the
+     * dialog loops (SupportSystem and NioSupportServer) to decide which
+     * lines to give it.
+     * 
+     * @param admission  The controller to use, or null to answer every line
+     */
+    public void setAdmission(AdmissionController admission)
+    {
+        this.admission = admission;
+    }
+
+    /**
+     * @return  The admission controller in use, or null if there is none
+     */
+    public AdmissionController getAdmission()
+    {
+        return admission;
+    }
+
+    /**
+     * Read the files into a new knowledge base. The compiled file is used
+     * if it is up to date, otherwise the text files are read. The stem
+     * table, spelling index and phrase matcher are built here too, so
+     * that they are ready before the knowledge base is put in use.
+     * 
+     * @param strict  If true, return null when a file could not be read
+     *                instead of using whatever was read
+     * @return        The new knowledge base
+     */
+    private KnowledgeBase loadKnowledgeBase(boolean strict)
+    {
+        Path compiled = directory.resolve(FILE_OF_COMPILED_KNOWLEDGE);
+        if(isUpToDate(directory, compiled)) {
+            try {
+                return new CompiledKnowledgeBase(compiled).toMatchingKnowledgeBase();
+            }
+            catch(IOException e) {
+                System.err.println("Unable to use " + FILE_OF_COMPILED_KNOWLEDGE +
+                                   " (" + e.getMessage() + "); reading the text files");
+            }
+        }
+        KnowledgeBaseBuilder builder = new KnowledgeBaseBuilder(
+            16, lazyResponses ? directory.resolve(FILE_OF_KEYS_AND_VALUES) : null);
+        boolean readOk = readTextFiles(directory, builder);
+        if(strict && !readOk) {
+            return null;
+        }
+        return new MatchingKnowledgeBase(builder.build());
+    }
+
+    /**
+     * Check whether the compiled knowledge base exists and is newer than
+     * both text files.
+     * 
+     * @param directory  The directory holding the text files
+     * @param compiled   The compiled file
+     * @return           true if the compiled file can be used
+     */
+    private static boolean isUpToDate(Path directory, Path compiled)
+    {
+        try {
+            if(!Files.exists(compiled)) {
+                return false;
+            }
+            FileTime compiledTime = Files.getLastModifiedTime(compiled);
+            for(String name : new String[] { FILE_OF_KEYS_AND_VALUES, FILE_OF_DEFAULT_RESPONSES }) {
+                Path text = directory.resolve(name);
+                if(Files.exists(text) && Files.getLastModifiedTime(text).compareTo(compiledTime) > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the key word and default response text files.
+     * 
+     * @param directory  The directory holding the files
+     * @param builder    The builder to add the key words and default
+     *                   responses to
+     * @return           true if both files were read without problems
+     */
+    static boolean readTextFiles(Path directory, KnowledgeBaseBuilder builder)
+    {
+        boolean readOk = true;
+        // fillResponseMap(responseMap);          // the original authors' method
+        // fillResponseMap2(responseMap);      // my first file reading method
+        readOk &= fillResponseMap3(directory, builder);      // my streaming method
+        // fillDefaultResponses(defaultResponses);  // the original authors' method
+        // fillDefaultResponses2(defaultResponses);    // my first file reading method
+        readOk &= fillDefaultResponses3(directory, builder);    // my streaming method
+        // fillDefaultResponsesLambdaVersion(defaultResponses);     // my other new method
+        return readOk;
     }
 
     /**
      * Generate a response from a given set of input words.
+     * Every key word among the words counts towards its response, and the
+     * response with the highest total weight is chosen (see ResponseScorer
+     * for how ties are broken).
      * 
      * @param words  A set of words entered by the user
      * @return       A string that should be displayed as the response
      */
     public String generateResponse(HashSet<String> words)
     {
-        Iterator<String> it = words.iterator();
-        while(it.hasNext()) {
-            String word = it.next();
-            String response = responseMap.get(word);
-            if(response != null) {
-                return response;
-            }
+        // Read the field once, so that a reload part way through cannot
+        // mix two versions of the knowledge base.
+        KnowledgeBase knowledgeBase = this.knowledgeBase;
+        ResponseScorer scorer = SCORERS.get();
+        int responseId = scorer.score(knowledgeBase, words);
+        SupportMetrics metrics = this.metrics;
+        if(metrics != null) {
+            metrics.recordResponse(knowledgeBase, scorer.getDecidingKeyword());
         }
-        // If we get here, none of the words from the input line was recognized.
+        String response = responseId < 0 ? null : knowledgeBase.getResponse(responseId);
+        if(response != null) {
+            return response;
+        }
+        // If we get here, none of the words from the input line was recognized
+        // (or its response could not be read).
         // In this case we pick one of our default responses (what we say when
         // we cannot think of anything else to say...)
-        return pickDefaultResponse();
+        return pickDefaultResponse(knowledgeBase);
+    }
+
+    /**
+     * Generate a response from a line of text, as typed by the user.
+     * The words are taken straight from the line by a Tokenizer and looked
+     * up one at a time, so no Strings or sets are made for them. Every key
+     * word in the line counts towards its response, and the response with
+     * the highest total weight is chosen (see ResponseScorer for how ties
+     * are broken).
+     * 
+     * If a cache is set, the line is looked up there first, and a key word
+     * response is added to it.
+     * 
+     * @param inputLine  A line of text entered by the user
+     * @return           A string that should be displayed as the response
+     */
+    public String generateResponse(CharSequence inputLine)
+    {
+        return generateResponse(inputLine, SessionStore.NO_SESSION);
+    }
+
+    /**
+     * Generate a response to a line of text that is part of a dialog. The
+     * response is chosen as by generateResponse(CharSequence), except that
+     * when no key word is found the session's state (see setSessions) is
+     * used: a default response the session has not had yet is picked,
+     * and after ESCALATE_AFTER such lines in a row the user is sent to a
+     * person instead.
+     * 
+     * @param inputLine  A line of text entered by the user
+     * @param session    The dialog's id from the session store, or
+     *                   SessionStore.NO_SESSION
+     * @return           A string that should be displayed as the response
+     */
+    public String generateResponse(CharSequence inputLine, long session)
+    {
+        String response = generateResponse(inputLine, cache, metrics, sessions, session);
+        TranscriptJournal journal = this.journal;
+        if(journal != null) {
+            journal.record(session, inputLine, response);
+        }
+        return response;
+    }
+
+    /**
+     * Generate a response from a line of text, with a given cache, metrics
+     * and session.
+     * 
+     * @param inputLine  A line of text entered by the user
+     * @param cache      The cache to use, or null for none
+     * @param metrics    The metrics to record in, or null for none
+     * @param sessions   The session store, or null for none
+     * @param session    The session's id, or SessionStore.NO_SESSION
+     * @return           A string that should be displayed as the response
+     */
+    private String generateResponse(CharSequence inputLine, ResponseCache cache,
+                                    SupportMetrics metrics, SessionStore sessions,
+                                    long session)
+    {
+        KnowledgeBase knowledgeBase = this.knowledgeBase;
+        ResponseScorer scorer = SCORERS.get();
+        // the key word that decides the response, or -1 for a default one
+        int keyword;
+        SupportMetrics.Recorder recorder = metrics == null ? null : metrics.getRecorder();
+        // the few lines whose tokenizing is timed (see SupportMetrics)
+        boolean timed = recorder != null && recorder.shouldTimeTokenize();
+        if(cache == null && !timed) {
+            scorer.score(knowledgeBase, inputLine);
+            keyword = scorer.getDecidingKeyword();
+        }
+        else if(cache == null) {
+            // tokenized on its own first, so that the time can be taken
+            long started = System.nanoTime();
+            CharSequence key = scorer.normalize(inputLine);
+            metrics.recordTokenize(System.nanoTime() - started);
+            scorer.score(knowledgeBase, key);
+            keyword = scorer.getDecidingKeyword();
+        }
+        else {
+            long started = timed ? System.nanoTime() : 0;
+            CharSequence key = scorer.normalize(inputLine);
+            if(timed) {
+                metrics.recordTokenize(System.nanoTime() - started);
+            }
+            keyword = cache.get(knowledgeBase, key);
+            if(keyword == ResponseCache.MISSING) {
+                scorer.score(knowledgeBase, key);
+                keyword = scorer.getDecidingKeyword();
+                if(keyword >= 0) {
+                    cache.put(knowledgeBase, key, keyword);
+                }
+            }
+        }
+        if(recorder != null) {
+            recorder.recordResponse(knowledgeBase, keyword);
+        }
+        if(sessions == null || session == SessionStore.NO_SESSION) {
+            String response = keyword < 0 ? null
+                              : knowledgeBase.getResponse(knowledgeBase.getResponseId(keyword));
+            // a default response too if the key word's could not be read
+            return response != null ? response : pickDefaultResponse(knowledgeBase);
+        }
+        if(keyword >= 0) {
+            sessions.recordKeyword(session, keyword);
+            String response = knowledgeBase.getResponse(knowledgeBase.getResponseId(keyword));
+            return response != null ? response
+                                    : pickDefaultResponse(knowledgeBase, sessions, session);
+        }
+        if(sessions.recordMiss(session) >= ESCALATE_AFTER) {
+            sessions.clearMisses(session);
+            return ESCALATION_RESPONSE;
+        }
+        return pickDefaultResponse(knowledgeBase, sessions, session);
     }
 
     /**
@@ -80,8 +604,10 @@ public class Responder
      * 
      * This is the original version of the method written by Barnes and Kölling.
      * It is here for reference.
+     * 
+     * @param responseMap  The map to fill
      */
-    private void fillResponseMap()
+    private void fillResponseMap(HashMap<String, String> responseMap)
     {
         responseMap.put("crash", 
                         "Well, it never crashes on our system. It must have something\n" +
@@ -142,8 +668,11 @@ public class Responder
      *      or it can span multiple lines
      *      
      * A blank line indicates the end of a key, value pair.
+     * 
+     * @param responseMap  The map to fill
+     * @return             true if the file was read without problems
      */
-    private void fillResponseMap2()
+    private boolean fillResponseMap2(HashMap<String, String> responseMap)
     {
         // for reference in populating a map:
         responseMap.put("crash", 
@@ -227,11 +756,113 @@ public class Responder
         }
         catch(FileNotFoundException e) {
             System.err.println("Unable to open " + FILE_OF_KEYS_AND_VALUES);
+            return false;
+        }
+        catch(IOException e) {
+            System.err.println("A problem was encountered reading " +
+                               FILE_OF_KEYS_AND_VALUES);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Enter all the known keywords and their associated responses
+     * into our response map.
+     * 
+     * The file format is the same as for fillResponseMap2, but the file is
+     * read one block at a time instead of all at once, and each response is
+     * built with a StringBuilder. Blocks that are not well formed are
+     * reported on System.err with their line number and skipped.
+     * 
+     * A key may be given a weight by following it with a colon and a whole
+     * number, as in "crash:3". Keys without one have weight 1.
+     * 
+     * Keys are stored the way a Tokenizer splits the input, in lower case
+     * with single spaces between words. A key of several words, such as
+     * "blue screen", is a phrase and only matches those words in that order.
+     * 
+     * The keys and responses go straight into a KnowledgeBaseBuilder
+     * rather than a map. The response of a block is shared by all of its
+     * keys, and a response repeated in several blocks is kept only once.
+     * A lazy builder only notes where the response is in the file.
+     * 
+     * @param directory  The directory holding the file
+     * @param builder    The builder to add the keys to
+     * @return           true if the file was read without problems
+     */
+    private static boolean fillResponseMap3(Path directory, KnowledgeBaseBuilder builder)
+    {
+        Charset charset = Charset.forName("US-ASCII");
+        Path path = directory.resolve(FILE_OF_KEYS_AND_VALUES);
+        Tokenizer tokenizer = new Tokenizer();
+        try (BlockReader blocks = new BlockReader(Files.newBufferedReader(path, charset),
+                                                  FILE_OF_KEYS_AND_VALUES))
+        {
+            while(blocks.nextBlock())
+            {
+                // the first line of a block holds the keys, the rest is the value
+                String keyLine = blocks.getLine(0);
+                if(blocks.getLineCount() < 2)
+                {
+                    blocks.warn("no response given for \"" + keyLine.trim() + "\"");
+                    continue;
+                }
+                // the value is added with the first good key
+                int value = -1;
+                for(String key : keyLine.split(",", -1))
+                {
+                    key = key.trim();
+                    int weight = 1;
+                    int colon = key.lastIndexOf(':');
+                    if(colon >= 0)
+                    {
+                        // the key has a weight, as in "crash:3"
+                        try
+                        {
+                            weight = Integer.parseInt(key.substring(colon + 1).trim());
+                        }
+                        catch(NumberFormatException e)
+                        {
+                            weight = 0;
+                        }
+                        if(weight < 1)
+                        {
+                            blocks.warn("bad weight in \"" + key + "\"; using 1");
+                            weight = 1;
+                        }
+                        key = key.substring(0, colon);
+                    }
+                    key = tokenizer.normalize(key);
+                    if(key.isEmpty())
+                    {
+                        blocks.warn("empty key in \"" + keyLine.trim() + "\"");
+                    }
+                    else
+                    {
+                        if(value < 0)
+                        {
+                            value = builder.addResponse(blocks, 1);
+                        }
+                        if(!builder.addKeyword(key, value, weight))
+                        {
+                            blocks.warn("key \"" + key + "\" was already defined; " +
+                                        "using this response instead");
+                        }
+                    }
+                }
+            }
+        }
+        catch(FileNotFoundException | NoSuchFileException e) {
+            System.err.println("Unable to open " + FILE_OF_KEYS_AND_VALUES);
+            return false;
         }
         catch(IOException e) {
             System.err.println("A problem was encountered reading " +
                                FILE_OF_KEYS_AND_VALUES);
+            return false;
         }
+        return true;
     }
 
     /**
@@ -240,8 +871,10 @@ public class Responder
      * 
      * This is the original version of the method written by Barnes and Kölling.
      * It is here for reference.
+     * 
+     * @param defaultResponses  The list to fill
      */
-    private void fillDefaultResponses()
+    private void fillDefaultResponses(ArrayList<String> defaultResponses)
     {
         Charset charset = Charset.forName("US-ASCII");
         Path path = Paths.get(FILE_OF_DEFAULT_RESPONSES);
@@ -271,11 +904,15 @@ public class Responder
      * This method parses an input text file in which responses are 
      * separated by a blank line in the file. A single response may 
      * take up multiple lines in the file.
+     * 
+     * @param defaultResponses  The list to fill
+     * @return                  true if the file was read without problems
      */
-    private void fillDefaultResponses2()
+    private boolean fillDefaultResponses2(ArrayList<String> defaultResponses)
     {
         Charset charset = Charset.forName("US-ASCII");
         Path path = Paths.get(FILE_OF_DEFAULT_RESPONSES);
+        boolean readOk = true;
         
         try (Stream<String> stringStream = Files.lines(path, charset))
         {
@@ -324,25 +961,71 @@ public class Responder
         }
         catch(FileNotFoundException e) {
             System.err.println("Unable to open " + FILE_OF_DEFAULT_RESPONSES);
+            readOk = false;
         }
         catch(IOException e) {
             System.err.println("A problem was encountered reading " +
                                FILE_OF_DEFAULT_RESPONSES);
+            readOk = false;
         }
         // Make sure we have at least one response.
         if(defaultResponses.size() == 0) {
             defaultResponses.add("Could you elaborate on that?");
         }
+        return readOk;
     }
     
+
+    /**
+     * Build up a list of default responses from which we can pick
+     * if we don't know what else to say.
+     * The file format is the same as for fillDefaultResponses2, but the
+     * file is read one block at a time instead of all at once.
+     * 
+     * @param directory  The directory holding the file
+     * @param builder    The builder to add the default responses to
+     * @return           true if the file was read without problems
+     */
+    private static boolean fillDefaultResponses3(Path directory, KnowledgeBaseBuilder builder)
+    {
+        Charset charset = Charset.forName("US-ASCII");
+        Path path = directory.resolve(FILE_OF_DEFAULT_RESPONSES);
+        boolean readOk = true;
+        
+        try (BlockReader blocks = new BlockReader(Files.newBufferedReader(path, charset),
+                                                  FILE_OF_DEFAULT_RESPONSES))
+        {
+            while(blocks.nextBlock())
+            {
+                // lines of one response are joined with spaces
+                builder.addDefaultResponse(blocks.join(0, " "));
+            }
+        }
+        catch(FileNotFoundException | NoSuchFileException e) {
+            System.err.println("Unable to open " + FILE_OF_DEFAULT_RESPONSES);
+            readOk = false;
+        }
+        catch(IOException e) {
+            System.err.println("A problem was encountered reading " +
+                               FILE_OF_DEFAULT_RESPONSES);
+            readOk = false;
+        }
+        // Make sure we have at least one response.
+        if(builder.getDefaultResponseCount() == 0) {
+            builder.addDefaultResponse("Could you elaborate on that?");
+        }
+        return readOk;
+    }
     /**
      * Build up a list of default responses from which we can pick
      * if we don't know what else to say.
      * This method explores the use of streams and lambdas and is not 
      * properly functional. It remains here for future code exploration
      * and debugging.
+     * 
+     * @param defaultResponses  The list to fill
      */
-    private void fillDefaultResponsesLambdaVersion()
+    private void fillDefaultResponsesLambdaVersion(ArrayList<String> defaultResponses)
     {
         Charset charset = Charset.forName("US-ASCII");
         Path path = Paths.get(FILE_OF_DEFAULT_RESPONSES);
@@ -386,13 +1069,47 @@ public class Responder
 
     /**
      * Randomly select and return one of the default responses.
+     * @param knowledgeBase  The knowledge base to pick from
      * @return     A random default response
      */
-    private String pickDefaultResponse()
+    private String pickDefaultResponse(KnowledgeBase knowledgeBase)
     {
         // Pick a random number for the index in the default response list.
         // The number will be between 0 (inclusive) and the size of the list (exclusive).
-        int index = randomGenerator.nextInt(defaultResponses.size());
-        return defaultResponses.get(index);
+        // Each thread has its own generator, so concurrent callers never
+        // compete for a shared seed.
+        int index = ThreadLocalRandom.current().nextInt(knowledgeBase.getDefaultResponseCount());
+        return knowledgeBase.getDefaultResponse(index);
+    }
+
+    /**
+     * Randomly select one of the default responses that a session has not
+     * had yet. Once it has had them all, they can all be picked again.
+     * @param knowledgeBase  The knowledge base to pick from
+     * @param sessions       The session store
+     * @param session        The session's id
+     * @return     A random default response
+     */
+    private String pickDefaultResponse(KnowledgeBase knowledgeBase, SessionStore sessions,
+                                       long session)
+    {
+        int count = knowledgeBase.getDefaultResponseCount();
+        long used = sessions.getUsedDefaults(session);
+        // walk on from a random start to the first one not used yet
+        int start = ThreadLocalRandom.current().nextInt(count);
+        int index = -1;
+        for(int i = 0; i < count && index < 0; i++) {
+            int candidate = start + i < count ? start + i : start + i - count;
+            if((used & 1L << candidate) == 0) {
+                index = candidate;
+            }
+        }
+        if(index < 0) {
+            used = 0;
+            index = start;
+        }
+        // the shift only uses the low 6 bits, so indexes share bits modulo 64
+        sessions.setUsedDefaults(session, used | 1L << index);
+        return knowledgeBase.getDefaultResponse(index);
     }
 }
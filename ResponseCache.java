@@ -0,0 +1,363 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ResponseCache remembers which response was chosen for a line of input,
+ * so that a question that is asked again and again is only scored once.
+ * What it stores is the key word that decided the response (see
+ * ResponseScorer.getDecidingKeyword), from which the response follows.
+ * Lines are looked up in normalized form (see Tokenizer.normalize), so
+ * "It CRASHES!" and "it crashes" share an entry.
+ *
+ * Only key word responses are cached. When no key word matches, nothing is
+ * stored, so the default response is still picked at random every time.
+ *
+ * The cache is bounded two ways: it holds at most a given number of lines,
+ * evicting the least recently used one when it is full, and an entry may
+ * be given a time to live after which it is dropped. To let many threads
+ * use it at once it is split into segments by hash, each with its own lock
+ * and its own least recently used list, so threads only wait for each
+ * other when they want the same segment at the same moment.
+ *
+ * Every entry records the KnowledgeBase it was scored against, and is only
+ * used with that same KnowledgeBase. So after a reload old entries are
+ * never returned, even by a thread that is still part way through; clear()
+ * then frees them.
+ *
+ * Looking up a line makes no objects; only adding one does.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class ResponseCache
+{
+    // Returned by get() when the line is not in the cache.
+    public static final int MISSING = -1;
+    // The number of segments; a power of two.
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments;
+    // The time to live of an entry in nanoseconds, or 0 for no limit.
+    private final long timeToLive;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache whose entries never expire.
+     *
+     * @param maximumSize  The most lines the cache holds
+     */
+    public ResponseCache(int maximumSize)
+    {
+        this(maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maximumSize  The most lines the cache holds
+     * @param timeToLive   How long an entry may be used; 0 for ever
+     * @param unit         The unit of timeToLive
+     */
+    public ResponseCache(int maximumSize, long timeToLive, TimeUnit unit)
+    {
+        if(maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1");
+        }
+        if(timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive must not be negative");
+        }
+        this.timeToLive = unit.toNanos(timeToLive);
+        segments = new Segment[SEGMENTS];
+        // share the size out, rounding up so the total is at least maximumSize
+        int perSegment = (maximumSize + SEGMENTS - 1) / SEGMENTS;
+        for(int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Look up a line.
+     *
+     * @param knowledgeBase  The knowledge base the answer must come from
+     * @param key            The normalized line
+     * @return               The deciding key word's index, or MISSING
+     */
+    public int get(KnowledgeBase knowledgeBase, CharSequence key)
+    {
+        int hash = KnowledgeBase.hash(key);
+        int keyword = segmentFor(hash).get(knowledgeBase, key, hash, now());
+        if(keyword == MISSING) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return keyword;
+    }
+
+    /**
+     * Remember the response chosen for a line.
+     *
+     * @param knowledgeBase  The knowledge base the response came from
+     * @param key            The normalized line; it is copied
+     * @param keyword        The index of the key word that decided the
+     *                       response; must not be negative
+     */
+    public void put(KnowledgeBase knowledgeBase, CharSequence key, int keyword)
+    {
+        int hash = KnowledgeBase.hash(key);
+        long expires = timeToLive == 0 ? Long.MAX_VALUE : now() + timeToLive;
+        if(segmentFor(hash).put(knowledgeBase, key, hash, keyword, expires)) {
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void clear()
+    {
+        for(Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return  The number of lines in the cache
+     */
+    public int size()
+    {
+        int size = 0;
+        for(Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return  The number of lookups that found their line
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return  The number of lookups that did not find their line
+     */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return  The number of entries dropped to make room for new ones
+     */
+    public long getEvictionCount()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * @return  A one line summary of the counters
+     */
+    public String toString()
+    {
+        return "ResponseCache[size=" + size() + ", hits=" + getHitCount() +
+               ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * @param hash  A key's hash
+     * @return      The segment the key belongs to
+     */
+    private Segment segmentFor(int hash)
+    {
+        // the table inside a segment uses the low bits, so use the high ones here
+        return segments[hash >>> 28 & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @return  The current time for expiry, or 0 if entries never expire
+     */
+    private long now()
+    {
+        return timeToLive == 0 ? 0 : System.nanoTime();
+    }
+
+    /**
+     * One line in the cache. Entries are chained in their hash bucket and
+     * also linked into their segment's least recently used list.
+     */
+    private static final class Entry
+    {
+        private final String key;
+        private final int hash;
+        private KnowledgeBase knowledgeBase;
+        private int keyword;
+        private long expires;
+        private Entry nextInBucket;
+        // The neighbours in the least recently used list.
+        private Entry newer;
+        private Entry older;
+
+        private Entry(String key, int hash)
+        {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A part of the cache with its own lock: a chained hash table plus a
+     * list from the most to the least recently used entry.
+     */
+    private static final class Segment
+    {
+        private final int capacity;
+        private final Entry[] buckets;
+        // The ends of the list. head.older is the most recently used entry
+        // and head.newer the least recently used one.
+        private final Entry head;
+        private int size;
+
+        private Segment(int capacity)
+        {
+            this.capacity = capacity;
+            buckets = new Entry[Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1];
+            head = new Entry(null, 0);
+            head.newer = head;
+            head.older = head;
+        }
+
+        /**
+         * Look up a key, and make it the most recently used entry.
+         *
+         * @return  The key word for the key, or MISSING if it is not
+         *          here, is for another knowledge base or has expired
+         */
+        private synchronized int get(KnowledgeBase knowledgeBase, CharSequence key,
+                                     int hash, long now)
+        {
+            Entry entry = find(key, hash);
+            if(entry == null) {
+                return MISSING;
+            }
+            if(entry.knowledgeBase != knowledgeBase || entry.expires < now) {
+                remove(entry);
+                return MISSING;
+            }
+            unlink(entry);
+            linkFirst(entry);
+            return entry.keyword;
+        }
+
+        /**
+         * Add or replace the entry for a key, evicting the least recently
+         * used entry if the segment is full.
+         *
+         * @return  true if an entry was evicted to make room
+         */
+        private synchronized boolean put(KnowledgeBase knowledgeBase, CharSequence key,
+                                         int hash, int keyword, long expires)
+        {
+            Entry entry = find(key, hash);
+            boolean evicted = false;
+            if(entry == null) {
+                if(size == capacity) {
+                    remove(head.newer);
+                    evicted = true;
+                }
+                entry = new Entry(key.toString(), hash);
+                int bucket = hash & (buckets.length - 1);
+                entry.nextInBucket = buckets[bucket];
+                buckets[bucket] = entry;
+                size++;
+            }
+            else {
+                unlink(entry);
+            }
+            entry.knowledgeBase = knowledgeBase;
+            entry.keyword = keyword;
+            entry.expires = expires;
+            linkFirst(entry);
+            return evicted;
+        }
+
+        /**
+         * Remove every entry.
+         */
+        private synchronized void clear()
+        {
+            Arrays.fill(buckets, null);
+            head.newer = head;
+            head.older = head;
+            size = 0;
+        }
+
+        /**
+         * @return  The number of entries
+         */
+        private synchronized int size()
+        {
+            return size;
+        }
+
+        /**
+         * @return  The entry for the key, or null
+         */
+        private Entry find(CharSequence key, int hash)
+        {
+            Entry entry = buckets[hash & (buckets.length - 1)];
+            while(entry != null && (entry.hash != hash || !entry.key.contentEquals(key))) {
+                entry = entry.nextInBucket;
+            }
+            return entry;
+        }
+
+        /**
+         * Take an entry out of both its bucket and the list.
+         */
+        private void remove(Entry entry)
+        {
+            int bucket = entry.hash & (buckets.length - 1);
+            if(buckets[bucket] == entry) {
+                buckets[bucket] = entry.nextInBucket;
+            }
+            else {
+                Entry before = buckets[bucket];
+                while(before.nextInBucket != entry) {
+                    before = before.nextInBucket;
+                }
+                before.nextInBucket = entry.nextInBucket;
+            }
+            unlink(entry);
+            size--;
+        }
+
+        /**
+         * Take an entry out of the list.
+         */
+        private void unlink(Entry entry)
+        {
+            entry.newer.older = entry.older;
+            entry.older.newer = entry.newer;
+        }
+
+        /**
+         * Put an entry at the most recently used end of the list.
+         */
+        private void linkFirst(Entry entry)
+        {
+            entry.older = head.older;
+            entry.newer = head;
+            head.older.newer = entry;
+            head.older = entry;
+        }
+    }
+}
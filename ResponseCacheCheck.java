@@ -0,0 +1,121 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResponseCacheCheck checks that a ResponseCache keeps the lines it should
+ * and lets go of the others: that it never holds more than its size, that
+ * a line used all the time outlives a stream of new ones (the least
+ * recently used line is the one evicted), that an entry is dropped once
+ * its time to live is up, and that an entry is only used with the
+ * knowledge base it was scored against.
+ *
+ * Run it from the project directory:
+ *      java ResponseCacheCheck
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class ResponseCacheCheck
+{
+    // The most lines the caches checked hold.
+    private static final int SIZE = 64;
+    // The number of new lines put in a cache that is full.
+    private static final int LINES = 10_000;
+    // The time to live of the entries of the cache that expires them.
+    private static final long TIME_TO_LIVE_MILLIS = 50;
+
+    private final KnowledgeBase knowledgeBase;
+
+    /**
+     * Create a check whose entries come from a small knowledge base.
+     */
+    public ResponseCacheCheck()
+    {
+        knowledgeBase = newKnowledgeBase();
+    }
+
+    /**
+     * Fill a cache with far more lines than it holds, using one of them
+     * between every two.
+     *
+     * @return  true if the line in use was never evicted, the first of
+     *          the others was, and the cache never grew past its size
+     */
+    public boolean evictsLeastRecentlyUsed()
+    {
+        ResponseCache cache = new ResponseCache(SIZE);
+        cache.put(knowledgeBase, "my program crashes", 0);
+        cache.put(knowledgeBase, "line 0", 1);
+        boolean ok = true;
+        for(int i = 1; i < LINES && ok; i++) {
+            cache.put(knowledgeBase, "line " + i, 1);
+            ok = cache.get(knowledgeBase, "my program crashes") == 0 && cache.size() <= SIZE;
+        }
+        return ok && cache.get(knowledgeBase, "line 0") == ResponseCache.MISSING &&
+               cache.getEvictionCount() > 0;
+    }
+
+    /**
+     * @return  true if an entry is found until its time to live is up,
+     *          and not after
+     * @throws InterruptedException  If interrupted while waiting
+     */
+    public boolean expiresEntries() throws InterruptedException
+    {
+        ResponseCache cache = new ResponseCache(SIZE, TIME_TO_LIVE_MILLIS, TimeUnit.MILLISECONDS);
+        cache.put(knowledgeBase, "my program crashes", 0);
+        boolean found = cache.get(knowledgeBase, "my program crashes") == 0;
+        Thread.sleep(TIME_TO_LIVE_MILLIS * 2);
+        return found && cache.get(knowledgeBase, "my program crashes") == ResponseCache.MISSING;
+    }
+
+    /**
+     * @return  true if an entry is not found with another knowledge base,
+     *          as after a reload, nor with the old one once the line has
+     *          been scored against the new one
+     */
+    public boolean keepsKnowledgeBasesApart()
+    {
+        ResponseCache cache = new ResponseCache(SIZE);
+        KnowledgeBase reloaded = newKnowledgeBase();
+        cache.put(knowledgeBase, "my program crashes", 0);
+        boolean ok = cache.get(reloaded, "my program crashes") == ResponseCache.MISSING;
+        cache.put(reloaded, "my program crashes", 1);
+        return ok && cache.get(reloaded, "my program crashes") == 1 &&
+               cache.get(knowledgeBase, "my program crashes") == ResponseCache.MISSING;
+    }
+
+    /**
+     * @return  A knowledge base of two key words
+     */
+    private static KnowledgeBase newKnowledgeBase()
+    {
+        KnowledgeBaseBuilder builder = new KnowledgeBaseBuilder();
+        builder.addKeyword("crashes", "Have you tried turning it off and on again?", 1);
+        builder.addKeyword("slow", "Have you tried a faster computer?", 1);
+        builder.addDefaultResponse("Tell me more.");
+        return builder.build();
+    }
+
+    /**
+     * Run every check, and report them.
+     *
+     * @param args  Not used
+     * @throws InterruptedException  If interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        ResponseCacheCheck check = new ResponseCacheCheck();
+        boolean allPassed = true;
+        boolean passed = check.evictsLeastRecentlyUsed();
+        System.out.printf("%-6s least recently used line evicted%n", passed ? "ok" : "FAILED");
+        allPassed &= passed;
+        passed = check.expiresEntries();
+        System.out.printf("%-6s entry expired after its time to live%n", passed ? "ok" : "FAILED");
+        allPassed &= passed;
+        passed = check.keepsKnowledgeBasesApart();
+        System.out.printf("%-6s entry kept to its knowledge base%n", passed ? "ok" : "FAILED");
+        allPassed &= passed;
+        System.out.println(allPassed ? "All checks passed" : "Some checks FAILED");
+    }
+}
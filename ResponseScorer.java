@@ -0,0 +1,276 @@
+import java.util.Arrays;
+
+/**
+ * A ResponseScorer picks the best response for a line of input. Every key
+ * word found in the input adds its weight to the score of its response,
+ * and the response with the highest total wins. Because each key word is
+ * looked up directly in the knowledge base, the cost depends only on the
+ * length of the input, not on the number of key words known.
+ *
+ * Ties are broken like this, in order:
+ *      1. the higher total weight wins;
+ *      2. otherwise the response whose first key word comes earliest in
+ *         the input wins;
+ *      3. otherwise the response that comes first in the key word file
+ *         (the lower response id) wins.
+ * A key word that appears more than once in the input is only counted
+ * once, so repeating a word does not change the answer.
+ *
+ * Key phrases ("blue screen") are found in the same pass over the line:
+ * each word is also fed to the knowledge base's PhraseMatcher, and every
+ * phrase that ends at that word is counted like a key word found at the
+ * position of the phrase's first word. So a phrase and a key word of equal
+ * weight are settled in favour of the phrase when it starts earlier.
+ *
+ * A ResponseScorer keeps its working arrays between calls and is not
+ * thread safe; each thread should use its own.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class ResponseScorer
+{
+    // Splits the input into words.
+    private final Tokenizer tokenizer;
+    // Holds the normalized form of the last line given to normalize().
+    private final StringBuilder normalized;
+    // The candidate responses found so far, with their scores and the
+    // position and index of their first key word. Only the first count
+    // are in use.
+    private int[] candidates;
+    private int[] scores;
+    private int[] firstPositions;
+    private int[] firstKeywords;
+    private int count;
+    // The first key word of the response chosen by the last score, or -1.
+    private int decidingKeyword;
+    // The key word indexes already counted for this input.
+    private int[] seenKeywords;
+    private int seenCount;
+
+    /**
+     * Create a ResponseScorer.
+     */
+    public ResponseScorer()
+    {
+        tokenizer = new Tokenizer();
+        normalized = new StringBuilder(64);
+        candidates = new int[8];
+        scores = new int[8];
+        firstPositions = new int[8];
+        firstKeywords = new int[8];
+        seenKeywords = new int[8];
+    }
+
+    /**
+     * Find the best response for a line of input.
+     *
+     * @param knowledgeBase  The knowledge base to look words up in
+     * @param inputLine      The line typed by the user
+     * @return               The best response id, or -1 if no key word was found
+     */
+    public int score(KnowledgeBase knowledgeBase, CharSequence inputLine)
+    {
+        clear();
+        PhraseMatcher phrases = knowledgeBase.getPhraseMatcher();
+        if(phrases != null && phrases.getPhraseCount() == 0) {
+            phrases = null;
+        }
+        int state = phrases == null ? 0 : phrases.start();
+        tokenizer.reset(inputLine);
+        int position = 0;
+        while(tokenizer.next()) {
+            CharSequence word = tokenizer.getToken();
+            int keyword = knowledgeBase.findKeyword(word);
+            if(keyword >= 0) {
+                add(knowledgeBase, keyword, position);
+            }
+            if(phrases != null) {
+                state = phrases.advance(state, word);
+                for(int match = phrases.firstMatch(state); match > 0;
+                    match = phrases.nextMatch(match)) {
+                    add(knowledgeBase, phrases.getKeyword(match),
+                        position - phrases.getWordCount(match) + 1);
+                }
+            }
+            position++;
+        }
+        return best();
+    }
+
+    /**
+     * The key word that decided the last score: the earliest key word in
+     * the input that belongs to the chosen response. The response id is
+     * always that key word's response id.
+     *
+     * @return  The key word's index, or -1 if the last score found none
+     */
+    public int getDecidingKeyword()
+    {
+        return decidingKeyword;
+    }
+
+    /**
+     * @return  The number of responses the last score found any key word
+     *          of; the winner is one of them
+     */
+    public int getCandidateCount()
+    {
+        return count;
+    }
+
+    /**
+     * @param candidate  A candidate, from 0 to getCandidateCount() - 1
+     * @return           Its response id
+     */
+    public int getCandidate(int candidate)
+    {
+        return candidates[candidate];
+    }
+
+    /**
+     * @param candidate  A candidate, from 0 to getCandidateCount() - 1
+     * @return           The total weight of its key words in the input
+     */
+    public int getScore(int candidate)
+    {
+        return scores[candidate];
+    }
+
+    /**
+     * @param candidate  A candidate, from 0 to getCandidateCount() - 1
+     * @return           The position in the input of its first key word
+     */
+    public int getFirstPosition(int candidate)
+    {
+        return firstPositions[candidate];
+    }
+
+    /**
+     * Put a line into the normalized form used as a cache key (see
+     * Tokenizer.normalize). Scoring the normalized line gives the same
+     * result as scoring the line itself.
+     *
+     * @param inputLine  The line typed by the user
+     * @return           The normalized line; it is overwritten by the next
+     *                   call, so call toString() on it to keep it
+     */
+    public CharSequence normalize(CharSequence inputLine)
+    {
+        tokenizer.normalize(inputLine, normalized);
+        return normalized;
+    }
+
+    /**
+     * Find the best response for a set of words. A set has no order, so
+     * ties on weight go straight to the lowest response id, and key
+     * phrases cannot be found.
+     *
+     * @param knowledgeBase  The knowledge base to look words up in
+     * @param words          The words typed by the user
+     * @return               The best response id, or -1 if no key word was found
+     */
+    public int score(KnowledgeBase knowledgeBase, Iterable<String> words)
+    {
+        clear();
+        for(String word : words) {
+            int keyword = knowledgeBase.findKeyword(word);
+            if(keyword >= 0) {
+                add(knowledgeBase, keyword, 0);
+            }
+        }
+        return best();
+    }
+
+    /**
+     * Forget the previous input.
+     */
+    private void clear()
+    {
+        count = 0;
+        seenCount = 0;
+        decidingKeyword = -1;
+    }
+
+    /**
+     * Count a key word found in the input.
+     *
+     * @param knowledgeBase  The knowledge base the key word came from
+     * @param keyword        The key word's index
+     * @param position       The position of the word in the input
+     */
+    private void add(KnowledgeBase knowledgeBase, int keyword, int position)
+    {
+        for(int i = 0; i < seenCount; i++) {
+            if(seenKeywords[i] == keyword) {
+                return;
+            }
+        }
+        if(seenCount == seenKeywords.length) {
+            seenKeywords = Arrays.copyOf(seenKeywords, seenCount * 2);
+        }
+        seenKeywords[seenCount++] = keyword;
+
+        int responseId = knowledgeBase.getResponseId(keyword);
+        int weight = knowledgeBase.getWeight(keyword);
+        for(int i = 0; i < count; i++) {
+            if(candidates[i] == responseId) {
+                scores[i] += weight;
+                // a phrase is found at its last word, so it may start
+                // before key words found earlier
+                if(position < firstPositions[i]) {
+                    firstPositions[i] = position;
+                    firstKeywords[i] = keyword;
+                }
+                return;
+            }
+        }
+        if(count == candidates.length) {
+            candidates = Arrays.copyOf(candidates, count * 2);
+            scores = Arrays.copyOf(scores, count * 2);
+            firstPositions = Arrays.copyOf(firstPositions, count * 2);
+            firstKeywords = Arrays.copyOf(firstKeywords, count * 2);
+        }
+        candidates[count] = responseId;
+        scores[count] = weight;
+        firstPositions[count] = position;
+        firstKeywords[count] = keyword;
+        count++;
+    }
+
+    /**
+     * @return  The winning response id by the rules above, or -1 if there
+     *          are no candidates
+     */
+    private int best()
+    {
+        int best = -1;
+        for(int i = 0; i < count; i++) {
+            if(best < 0 || beats(i, best)) {
+                best = i;
+            }
+        }
+        if(best < 0) {
+            return -1;
+        }
+        decidingKeyword = firstKeywords[best];
+        return candidates[best];
+    }
+
+    /**
+     * @param a  The index of a candidate
+     * @param b  The index of another candidate
+     * @return   true if candidate a beats candidate b
+     */
+    private boolean beats(int a, int b)
+    {
+        if(scores[a] != scores[b]) {
+            return scores[a] > scores[b];
+        }
+        if(firstPositions[a] != firstPositions[b]) {
+            return firstPositions[a] < firstPositions[b];
+        }
+        return candidates[a] < candidates[b];
+    }
+}
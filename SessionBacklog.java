@@ -0,0 +1,162 @@
+import java.util.ArrayDeque;
+
+/**
+ * A SessionBacklog holds the lines a dialog's user has sent that the
+ * dialog has not answered yet. Without it a line typed while the last one
+ * is still being answered waits unseen in the connection, and nobody can
+ * tell how long it has waited or how many more are behind it; under
+ * overload those lines pile up and every answer comes later.
+ *
+ * Before the dialog answers a line, the backlog reads every line that has
+ * arrived since, without waiting for more, and stamps each with the time
+ * it was read, so that the AdmissionController can shed a line that has
+ * waited too long before it takes a turn. A line is therefore read no
+ * later than the end of the answer before it. The backlog keeps no more
+ * than the controller's session backlog; a line read when the backlog is
+ * full is shed at once, and the dialog is told how many lines were shed
+ * before each one it is given, so that it can still answer every line in
+ * order. Only the first of those is given the shed answer, and the others
+ * an empty line: they cost the dialog next to nothing, so a user who types
+ * far ahead cannot keep it from the lines it kept. A line containing
+ * "bye" is never shed, and nothing after it is read.
+ *
+ * The backlog is read on the dialog's own thread, so a dialog needs no
+ * more threads with one than without.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class SessionBacklog
+{
+    private final InputReader reader;
+    private final Responder responder;
+    private final AdmissionController admission;
+    private final long session;
+    // The most lines kept.
+    private final int capacity;
+    // The lines read and not yet given to the dialog.
+    private final ArrayDeque<Line> lines = new ArrayDeque<>();
+    // The answer to the first of the lines shed from a full backlog
+    // together; null under DROP.
+    private final String shedResponse;
+    // Used to spot "bye".
+    private final Tokenizer tokenizer = new Tokenizer();
+
+    // The number of lines shed since the last one kept.
+    private int shed;
+    // Set once the last line has been read.
+    private boolean ended;
+    // The line last given to the dialog.
+    private Line current;
+
+    /**
+     * Create a backlog for a dialog.
+     *
+     * @param reader     The dialog's input; only the backlog reads it
+     *                   from now on
+     * @param responder  The responder whose journal keeps shed lines
+     * @param admission  The controller that decides how many lines the
+     *                   backlog keeps, and counts those it sheds
+     * @param session    The dialog's session id, or SessionStore.NO_SESSION
+     */
+    public SessionBacklog(InputReader reader, Responder responder,
+                          AdmissionController admission, long session)
+    {
+        this.reader = reader;
+        this.responder = responder;
+        this.admission = admission;
+        this.session = session;
+        capacity = admission.getSessionBacklog();
+        shedResponse = admission.getPolicy() == AdmissionController.ShedPolicy.RETRY
+                       ? AdmissionController.RETRY_RESPONSE : null;
+    }
+
+    /**
+     * Read the lines that have arrived, then give the dialog the oldest
+     * one kept, waiting for one if none has arrived.
+     *
+     * @return  The line, or null if there is no more input
+     */
+    public String next()
+    {
+        while(!ended && reader.isLineWaiting()) {
+            add(reader.readLine());
+        }
+        if(lines.isEmpty()) {
+            add(reader.readLine());
+        }
+        current = lines.poll();
+        return current.text;
+    }
+
+    /**
+     * @return  When the line last returned by next() was read, by
+     *          System.nanoTime()
+     */
+    public long getArrivalTime()
+    {
+        return current.arrived;
+    }
+
+    /**
+     * @return  The number of lines shed from the full backlog just before
+     *          the line last returned by next(), which are to be answered
+     *          first
+     */
+    public int getShedBefore()
+    {
+        return current.shedBefore;
+    }
+
+    /**
+     * @return  The answer to give the first of those lines, or null for
+     *          none; the others are given none
+     */
+    public String getShedResponse()
+    {
+        return shedResponse;
+    }
+
+    /**
+     * Keep a line just read, or shed it if the backlog is full.
+     *
+     * @param text  The line, or null at the end of the input
+     */
+    private void add(String text)
+    {
+        long arrived = System.nanoTime();
+        if(text == null || tokenizer.contains(text, "bye")) {
+            // the last line is always kept
+            lines.add(new Line(text, arrived, shed));
+            ended = true;
+            shed = 0;
+        }
+        else if(lines.size() < capacity) {
+            lines.add(new Line(text, arrived, shed));
+            shed = 0;
+        }
+        else {
+            admission.shedBacklog(responder, text, session, shed == 0);
+            shed++;
+        }
+    }
+
+    /**
+     * A line as it was read.
+     */
+    private static final class Line
+    {
+        // null at the end of the input.
+        private final String text;
+        private final long arrived;
+        private final int shedBefore;
+
+        private Line(String text, long arrived, int shedBefore)
+        {
+            this.text = text;
+            this.arrived = arrived;
+            this.shedBefore = shedBefore;
+        }
+    }
+}
@@ -0,0 +1,590 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A SessionStore remembers a little about each support dialog in progress,
+ * so that a Responder can answer a line in the light of the ones before
+ * it: the last key words that decided a response, which default responses
+ * have been given already, and how many lines in a row no key word was
+ * found in.
+ *
+ * Each session is a fixed RECORD_SIZE byte record in one direct buffer, so
+ * the state of a million sessions takes 32 MB outside the heap and only a
+ * bit each inside it:
+ *      0  long   session id, or 0 if the record is free
+ *      8  int    when the session was last used, in seconds since the
+ *                store was made; the next free record if it is free
+ *      12 short  lines in a row answered with a default response
+ *      14 short  lines answered
+ *      16 long   the default responses given, one bit each
+ *      24 int    the last key word that decided a response, or -1
+ *      28 int    the one before it, or -1
+ *
+ * A session id names its record directly, so no table is needed to find
+ * it: the low 32 bits are the record's index and the high ones a serial
+ * number, so an id whose session has ended does not match the record's
+ * next session.
+ *
+ * Sessions that have not been used for the idle timeout are evicted: a
+ * few records are checked every time a session is opened, the whole
+ * segment is checked when it is full, and a session is dropped if it is
+ * found idle when it is used. A check of the whole segment that finds
+ * nothing idle notes when its oldest session could first go idle, and the
+ * segment is not checked again before then, so a full segment costs at
+ * most one such check a second.
+ *
+ * When a segment is full of active sessions, one that has not been used
+ * lately is evicted to make room. It is chosen like a page in a CLOCK
+ * cache: each session has a bit, the one in the referenced set, that is
+ * clear when it opens and set whenever it is used; a hand goes round the records, clearing the
+ * bits that are set, and the first session whose bit is clear already is
+ * evicted. Opening a session at capacity costs a step of the hand for
+ * each session used since the hand last passed, rather than a look at
+ * every record. A session that has been evicted behaves as a new one
+ * that remembers nothing.
+ *
+ * Like ResponseCache the store is split into segments, each with its own
+ * lock and its own share of the records, so threads only wait for each
+ * other when their sessions are in the same segment at the same moment.
+ *
+ * Key words are remembered by index, which is only meaningful in the
+ * knowledge base that gave it; after a reload the recent key words of a
+ * session may name other key words.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class SessionStore
+{
+    // The id that names no session.
+    public static final long NO_SESSION = 0;
+    // The size in bytes of one session's record.
+    public static final int RECORD_SIZE = 32;
+    // The number of default responses whose use is remembered; a default
+    // response with a higher index shares the bit of its index modulo this.
+    public static final int REMEMBERED_DEFAULTS = 64;
+    // The number of segments; a power of two.
+    private static final int SEGMENTS = 16;
+    // The number of records checked for idleness when a session opens.
+    private static final int SWEEP_STEP = 4;
+
+    // Where each field is in a record.
+    private static final int ID = 0;
+    private static final int LAST_USED = 8;
+    private static final int MISSES = 12;
+    private static final int TURNS = 14;
+    private static final int USED_DEFAULTS = 16;
+    private static final int RECENT = 24;
+    private static final int PREVIOUS = 28;
+
+    private final ByteBuffer records;
+    private final Segment[] segments;
+    private final int perSegment;
+    // How long a session may go unused before it is evicted, in seconds.
+    private final int idleSeconds;
+    // When the store was made, for the times in the records.
+    private final long started;
+    // Spreads new sessions over the segments.
+    private final AtomicInteger nextSegment = new AtomicInteger();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a store.
+     *
+     * @param maximumSessions  The most sessions the store holds at once
+     * @param idleTimeout      How long a session may go unused before it
+     *                         is evicted; at least one second
+     * @param unit             The unit of idleTimeout
+     */
+    public SessionStore(int maximumSessions, long idleTimeout, TimeUnit unit)
+    {
+        if(maximumSessions < 1) {
+            throw new IllegalArgumentException("maximumSessions must be at least 1");
+        }
+        long seconds = unit.toSeconds(idleTimeout);
+        if(seconds < 1) {
+            throw new IllegalArgumentException("idleTimeout must be at least one second");
+        }
+        idleSeconds = (int) Math.min(seconds, Integer.MAX_VALUE);
+        // share the sessions out, rounding up so the total is at least maximumSessions
+        perSegment = (maximumSessions + SEGMENTS - 1) / SEGMENTS;
+        if((long) perSegment * SEGMENTS * RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maximumSessions is too large: " + maximumSessions);
+        }
+        records = ByteBuffer.allocateDirect(perSegment * SEGMENTS * RECORD_SIZE);
+        segments = new Segment[SEGMENTS];
+        for(int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(i * perSegment);
+        }
+        started = System.nanoTime();
+    }
+
+    /**
+     * Start a new session.
+     *
+     * @return  The session's id, which is never NO_SESSION
+     */
+    public long open()
+    {
+        Segment segment = segments[nextSegment.getAndIncrement() & (SEGMENTS - 1)];
+        return segment.open(now());
+    }
+
+    /**
+     * End a session and free its record. Nothing happens if the session
+     * has ended already or been evicted.
+     *
+     * @param session  The session's id
+     */
+    public void close(long session)
+    {
+        Segment segment = segmentOf(session);
+        if(segment != null) {
+            segment.close(session);
+        }
+    }
+
+    /**
+     * Note that a key word decided the response to a line. It becomes the
+     * session's most recent key word, and the count of lines in a row
+     * without one starts again from 0.
+     *
+     * @param session  The session's id
+     * @param keyword  The index of the key word
+     */
+    public void recordKeyword(long session, int keyword)
+    {
+        Segment segment = segmentOf(session);
+        if(segment != null) {
+            segment.recordKeyword(session, keyword, now());
+        }
+    }
+
+    /**
+     * Note that no key word was found in a line.
+     *
+     * @param session  The session's id
+     * @return         The number of lines in a row without a key word,
+     *                 counting this one; 1 if the session is not in the
+     *                 store
+     */
+    public int recordMiss(long session)
+    {
+        Segment segment = segmentOf(session);
+        return segment == null ? 1 : segment.recordMiss(session, now());
+    }
+
+    /**
+     * Start counting the lines without a key word from 0 again.
+     *
+     * @param session  The session's id
+     */
+    public void clearMisses(long session)
+    {
+        Segment segment = segmentOf(session);
+        if(segment != null) {
+            segment.clearMisses(session);
+        }
+    }
+
+    /**
+     * @param session  The session's id
+     * @return         The default responses given in the session, as a
+     *                 bit for each index modulo REMEMBERED_DEFAULTS; 0 if
+     *                 the session is not in the store
+     */
+    public long getUsedDefaults(long session)
+    {
+        Segment segment = segmentOf(session);
+        return segment == null ? 0 : segment.getUsedDefaults(session);
+    }
+
+    /**
+     * Replace the set of default responses given in a session.
+     *
+     * @param session       The session's id
+     * @param usedDefaults  A bit for each index modulo REMEMBERED_DEFAULTS
+     */
+    public void setUsedDefaults(long session, long usedDefaults)
+    {
+        Segment segment = segmentOf(session);
+        if(segment != null) {
+            segment.setUsedDefaults(session, usedDefaults);
+        }
+    }
+
+    /**
+     * @param session  The session's id
+     * @param age      0 for the most recent key word, 1 for the one before
+     * @return         The index of that key word, or -1 if there is none or
+     *                 the session is not in the store
+     */
+    public int getRecentKeyword(long session, int age)
+    {
+        if(age < 0 || age > 1) {
+            throw new IndexOutOfBoundsException("Only 2 key words are kept, not " + (age + 1));
+        }
+        Segment segment = segmentOf(session);
+        return segment == null ? -1 : segment.getRecentKeyword(session, age == 0 ? RECENT : PREVIOUS);
+    }
+
+    /**
+     * @param session  The session's id
+     * @return         The number of lines answered in the session, up to
+     *                 Short.MAX_VALUE; 0 if it is not in the store
+     */
+    public int getTurnCount(long session)
+    {
+        Segment segment = segmentOf(session);
+        return segment == null ? 0 : segment.getTurnCount(session);
+    }
+
+    /**
+     * @param session  The session's id
+     * @return         true if the session is open and has not been evicted
+     */
+    public boolean isOpen(long session)
+    {
+        Segment segment = segmentOf(session);
+        return segment != null && segment.isOpen(session);
+    }
+
+    /**
+     * @return  The number of sessions in the store, including idle ones
+     *          that have not been noticed yet
+     */
+    public int size()
+    {
+        int size = 0;
+        for(Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return  The most sessions the store can hold
+     */
+    public int getCapacity()
+    {
+        return perSegment * SEGMENTS;
+    }
+
+    /**
+     * @return  The number of sessions evicted for being idle or to make room
+     */
+    public long getEvictionCount()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * @return  A one line summary of the counters
+     */
+    public String toString()
+    {
+        return "SessionStore[size=" + size() + ", capacity=" + getCapacity() +
+               ", evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * @param session  A session id
+     * @return         The segment holding its record, or null if the id
+     *                 cannot name a record
+     */
+    private Segment segmentOf(long session)
+    {
+        int record = (int) session;
+        if(session == NO_SESSION || record < 0 || record >= perSegment * SEGMENTS) {
+            return null;
+        }
+        return segments[record / perSegment];
+    }
+
+    /**
+     * @return  The time for the records: seconds since the store was made
+     */
+    private int now()
+    {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started);
+    }
+
+    /**
+     * A range of records with its own lock. The free records are chained
+     * through their last used field.
+     */
+    private final class Segment
+    {
+        // The index of the first record, and the one after the last.
+        private final int first;
+        private final int end;
+        // The first free record, or -1 if there are none.
+        private int free;
+        // The record the next sweep, and the next search for a session
+        // to evict, starts at.
+        private int hand;
+        // A bit for each record, set when its session is used and cleared
+        // when the hand passes it.
+        private final long[] referenced;
+        // The segment is not checked for idle sessions again before this
+        // time, since none can be idle until then.
+        private int quietUntil = -1;
+        // Numbers session ids, so that an old id never matches a new session.
+        private int serial;
+        private int size;
+
+        private Segment(int first)
+        {
+            this.first = first;
+            end = first + perSegment;
+            for(int record = first; record < end; record++) {
+                records.putInt(offset(record) + LAST_USED, record + 1 < end ? record + 1 : -1);
+            }
+            free = first;
+            hand = first;
+            referenced = new long[(perSegment + 63) / 64];
+        }
+
+        /**
+         * Take a free record for a new session, evicting idle sessions or,
+         * if there are none, one not used lately to make room.
+         */
+        private synchronized long open(int now)
+        {
+            sweep(SWEEP_STEP, now);
+            if(free < 0 && now > quietUntil) {
+                sweepAll(now);
+            }
+            if(free < 0) {
+                evict(secondChance());
+            }
+            int record = free;
+            int at = offset(record);
+            free = records.getInt(at + LAST_USED);
+            serial = serial == Integer.MAX_VALUE ? 1 : serial + 1;
+            long session = (long) serial << 32 | record;
+            records.putLong(at + ID, session);
+            records.putInt(at + LAST_USED, now);
+            records.putShort(at + MISSES, (short) 0);
+            records.putShort(at + TURNS, (short) 0);
+            records.putLong(at + USED_DEFAULTS, 0);
+            records.putInt(at + RECENT, -1);
+            records.putInt(at + PREVIOUS, -1);
+            // a session gets its second chance by being used, not opened
+            reference(record, false);
+            size++;
+            return session;
+        }
+
+        private synchronized void close(long session)
+        {
+            int at = offset((int) session);
+            if(records.getLong(at + ID) == session) {
+                release((int) session);
+            }
+        }
+
+        private synchronized void recordKeyword(long session, int keyword, int now)
+        {
+            int at = find(session, now);
+            if(at >= 0) {
+                records.putInt(at + PREVIOUS, records.getInt(at + RECENT));
+                records.putInt(at + RECENT, keyword);
+                records.putShort(at + MISSES, (short) 0);
+                countTurn(at);
+            }
+        }
+
+        private synchronized int recordMiss(long session, int now)
+        {
+            int at = find(session, now);
+            if(at < 0) {
+                return 1;
+            }
+            int misses = Math.min(records.getShort(at + MISSES) + 1, Short.MAX_VALUE);
+            records.putShort(at + MISSES, (short) misses);
+            countTurn(at);
+            return misses;
+        }
+
+        private synchronized void clearMisses(long session)
+        {
+            int at = find(session, now());
+            if(at >= 0) {
+                records.putShort(at + MISSES, (short) 0);
+            }
+        }
+
+        private synchronized long getUsedDefaults(long session)
+        {
+            int at = find(session, now());
+            return at < 0 ? 0 : records.getLong(at + USED_DEFAULTS);
+        }
+
+        private synchronized void setUsedDefaults(long session, long usedDefaults)
+        {
+            int at = find(session, now());
+            if(at >= 0) {
+                records.putLong(at + USED_DEFAULTS, usedDefaults);
+            }
+        }
+
+        private synchronized int getRecentKeyword(long session, int field)
+        {
+            int at = find(session, now());
+            return at < 0 ? -1 : records.getInt(at + field);
+        }
+
+        private synchronized int getTurnCount(long session)
+        {
+            int at = find(session, now());
+            return at < 0 ? 0 : records.getShort(at + TURNS);
+        }
+
+        private synchronized boolean isOpen(long session)
+        {
+            return find(session, now()) >= 0;
+        }
+
+        private synchronized int size()
+        {
+            return size;
+        }
+
+        /**
+         * Find a session's record and mark it used now. A session found
+         * idle is evicted instead.
+         *
+         * @return  The offset of the record, or -1 if the session is not
+         *          in the store
+         */
+        private int find(long session, int now)
+        {
+            int record = (int) session;
+            int at = offset(record);
+            if(records.getLong(at + ID) != session) {
+                return -1;
+            }
+            if(now - records.getInt(at + LAST_USED) > idleSeconds) {
+                evict(record);
+                return -1;
+            }
+            records.putInt(at + LAST_USED, now);
+            reference(record, true);
+            return at;
+        }
+
+        /**
+         * Evict the idle sessions among the next few records.
+         *
+         * @param count  The number of records to check
+         * @param now    The time now
+         */
+        private void sweep(int count, int now)
+        {
+            for(int i = 0; i < count && size > 0; i++) {
+                int at = offset(hand);
+                if(records.getLong(at + ID) != NO_SESSION &&
+                   now - records.getInt(at + LAST_USED) > idleSeconds) {
+                    evict(hand);
+                }
+                hand = hand + 1 < end ? hand + 1 : first;
+            }
+        }
+
+        /**
+         * Evict every idle session in the segment, and note when the
+         * oldest of the rest could first go idle. A session used later
+         * cannot go idle sooner, so nothing is missed until then.
+         *
+         * @param now  The time now
+         */
+        private void sweepAll(int now)
+        {
+            int oldest = now;
+            for(int record = first; record < end; record++) {
+                int at = offset(record);
+                if(records.getLong(at + ID) != NO_SESSION) {
+                    int lastUsed = records.getInt(at + LAST_USED);
+                    if(now - lastUsed > idleSeconds) {
+                        evict(record);
+                    }
+                    else {
+                        oldest = Math.min(oldest, lastUsed);
+                    }
+                }
+            }
+            quietUntil = oldest + idleSeconds;
+        }
+
+        /**
+         * Move the hand on to a session not used since the hand last
+         * passed it, clearing the bit of each one that was. Only called
+         * when every record holds a session, so it stops within two turns
+         * of the segment.
+         *
+         * @return  The record of the session found
+         */
+        private int secondChance()
+        {
+            while(true) {
+                int record = hand;
+                hand = hand + 1 < end ? hand + 1 : first;
+                int bit = record - first;
+                if((referenced[bit >>> 6] & 1L << bit) == 0) {
+                    return record;
+                }
+                reference(record, false);
+            }
+        }
+
+        /**
+         * Set or clear the bit of a record in the referenced set.
+         */
+        private void reference(int record, boolean used)
+        {
+            int bit = record - first;
+            if(used) {
+                referenced[bit >>> 6] |= 1L << bit;
+            }
+            else {
+                referenced[bit >>> 6] &= ~(1L << bit);
+            }
+        }
+
+        private void evict(int record)
+        {
+            release(record);
+            evictions.increment();
+        }
+
+        /**
+         * Free a record that holds a session.
+         */
+        private void release(int record)
+        {
+            int at = offset(record);
+            records.putLong(at + ID, NO_SESSION);
+            records.putInt(at + LAST_USED, free);
+            free = record;
+            size--;
+        }
+
+        private void countTurn(int at)
+        {
+            short turns = records.getShort(at + TURNS);
+            if(turns < Short.MAX_VALUE) {
+                records.putShort(at + TURNS, (short) (turns + 1));
+            }
+        }
+
+        private int offset(int record)
+        {
+            return record * RECORD_SIZE;
+        }
+    }
+}
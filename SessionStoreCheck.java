@@ -0,0 +1,157 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SessionStoreCheck measures how long SessionStore.open() takes when the
+ * store is full of active sessions, so that every new session has to
+ * evict one, and compares the result against our per-session budget. It
+ * also checks that a session in use is not the one evicted, that the id
+ * of a session that has ended never names the next session in its
+ * record, and that a session left idle is evicted.
+ *
+ * Run it from the project directory:
+ *      java SessionStoreCheck
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class SessionStoreCheck
+{
+    // The longest a single open() may take on average, in nanoseconds,
+    // when the store is full.
+    public static final long BUDGET_PER_OPEN = 2_000;
+    // The number of sessions the store holds.
+    private static final int CAPACITY = 1_000_000;
+    // How many sessions to open at capacity, to average over.
+    private static final int OPENS = 2_000_000;
+
+    private final SessionStore store;
+
+    /**
+     * Create a check for a store with the given capacity.
+     *
+     * @param capacity  The most sessions the store holds
+     */
+    public SessionStoreCheck(int capacity)
+    {
+        store = new SessionStore(capacity, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * Fill the store, then measure the average time an open() takes
+     * while one session in every few is used between opens.
+     *
+     * @return  Nanoseconds per open(), on average
+     */
+    public double nanosPerOpen()
+    {
+        long[] sessions = new long[store.getCapacity()];
+        for(int i = 0; i < sessions.length; i++) {
+            sessions[i] = store.open();
+        }
+        // warm up so that the JIT compiler has done its work
+        openAtCapacity(sessions, OPENS / 4);
+        long before = System.nanoTime();
+        openAtCapacity(sessions, OPENS);
+        long after = System.nanoTime();
+        return (double) (after - before) / OPENS;
+    }
+
+    /**
+     * Open sessions in a full store, using an older one after each.
+     */
+    private void openAtCapacity(long[] sessions, int count)
+    {
+        for(int i = 0; i < count; i++) {
+            int slot = i % sessions.length;
+            sessions[slot] = store.open();
+            store.recordMiss(sessions[(slot * 7 + 3) % sessions.length]);
+        }
+    }
+
+    /**
+     * @return  true if a session used between opens outlives a full
+     *          turn of evictions
+     */
+    public boolean keepsSessionsInUse()
+    {
+        SessionStore small = new SessionStore(64, 1, TimeUnit.HOURS);
+        for(int i = 0; i < small.getCapacity(); i++) {
+            small.open();
+        }
+        long active = small.open();
+        for(int i = 0; i < small.getCapacity() * 2; i++) {
+            small.open();
+            small.recordMiss(active);
+        }
+        return small.isOpen(active);
+    }
+
+    /**
+     * End a session and open sessions until one takes its record.
+     *
+     * @return  true if the old id names nothing in the store, and using
+     *          it leaves the new session alone
+     */
+    public boolean neverReusesIds()
+    {
+        // one record in each segment, so the record is taken again soon
+        SessionStore small = new SessionStore(16, 1, TimeUnit.HOURS);
+        long ended = small.open();
+        small.recordKeyword(ended, 3);
+        small.close(ended);
+        boolean ok = true;
+        for(int i = 0; i < small.getCapacity() && ok; i++) {
+            long session = small.open();
+            ok = session != ended;
+            if((int) session == (int) ended) {
+                // the same record: the old id must not reach it
+                small.recordKeyword(ended, 5);
+                ok &= !small.isOpen(ended) && small.getTurnCount(ended) == 0 &&
+                      small.getRecentKeyword(session, 0) == -1 && small.getTurnCount(session) == 0;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * @return  true if a session left for longer than the idle timeout is
+     *          evicted, and one in use is not
+     * @throws InterruptedException  If interrupted while waiting
+     */
+    public boolean evictsIdleSessions() throws InterruptedException
+    {
+        SessionStore small = new SessionStore(16, 1, TimeUnit.SECONDS);
+        long idle = small.open();
+        long active = small.open();
+        // times are kept in whole seconds, so more than two must pass
+        for(int i = 0; i < 5; i++) {
+            Thread.sleep(500);
+            small.recordMiss(active);
+        }
+        return !small.isOpen(idle) && small.isOpen(active) && small.getEvictionCount() == 1;
+    }
+
+    /**
+     * Measure opening a session at capacity, run the other checks, and
+     * report them.
+     *
+     * @param args  Not used
+     * @throws InterruptedException  If interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        SessionStoreCheck check = new SessionStoreCheck(CAPACITY);
+        double nanos = check.nanosPerOpen();
+        System.out.printf("%8.1f ns/open at capacity of %d sessions%n", nanos, CAPACITY);
+        boolean keeps = check.keepsSessionsInUse();
+        System.out.println(keeps ? "A session in use was kept"
+                                 : "A session in use was EVICTED");
+        System.out.println(check.neverReusesIds() ? "No id of an ended session was reused"
+                                                  : "An id of an ended session was REUSED");
+        System.out.println(check.evictsIdleSessions() ? "An idle session was evicted"
+                                                      : "An idle session was NOT evicted");
+        System.out.println(nanos <= BUDGET_PER_OPEN ? "Within budget of " + BUDGET_PER_OPEN + " ns"
+                                                    : "OVER budget of " + BUDGET_PER_OPEN + " ns");
+    }
+}
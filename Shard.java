@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A Shard holds some of the key words of a knowledge base, and scores
+ * lines of input against them for a ShardRouter. A shard may be in the
+ * same process (ShardNode) or in another one reached over a socket
+ * (RemoteShard); the router cannot tell the difference.
+ *
+ * Response ids are the same on every shard, and the same as a Responder
+ * reading the same files would give out, so the router can add up the
+ * scores that different shards give one response.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public interface Shard
+{
+    /**
+     * Find every response the shard's key words in a line point to.
+     *
+     * @param line        A line of input, normalized as by a Tokenizer
+     * @param bySpelling  Whether words may match key words spelt a little
+     *                    differently
+     * @return            The candidate responses, in no particular order
+     * @throws IOException  If the shard could not be reached
+     */
+    List<Candidate> score(CharSequence line, boolean bySpelling) throws IOException;
+
+    /**
+     * @return  The default responses of the knowledge base; every shard
+     *          has all of them
+     * @throws IOException  If the shard could not be reached
+     */
+    List<String> getDefaultResponses() throws IOException;
+
+    /**
+     * One response that a shard found key words of, with what the
+     * ResponseScorer of that shard knew about it.
+     */
+    final class Candidate
+    {
+        private final int responseId;
+        private final int score;
+        private final int firstPosition;
+        private final String response;
+
+        /**
+         * @param responseId     The response id
+         * @param score          The total weight of its key words in the line
+         * @param firstPosition  The position of the first of them
+         * @param response       The text of the response
+         */
+        public Candidate(int responseId, int score, int firstPosition, String response)
+        {
+            this.responseId = responseId;
+            this.score = score;
+            this.firstPosition = firstPosition;
+            this.response = response;
+        }
+
+        /**
+         * @return  The response id
+         */
+        public int getResponseId()
+        {
+            return responseId;
+        }
+
+        /**
+         * @return  The total weight of the response's key words in the line
+         */
+        public int getScore()
+        {
+            return score;
+        }
+
+        /**
+         * @return  The position in the line of the first of them
+         */
+        public int getFirstPosition()
+        {
+            return firstPosition;
+        }
+
+        /**
+         * @return  The text of the response
+         */
+        public String getResponse()
+        {
+            return response;
+        }
+    }
+}
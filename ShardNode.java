@@ -0,0 +1,249 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A ShardNode holds the key words that a ConsistentHashRing gives to one
+ * shard, and scores lines against them. It reads the same text files as a
+ * Responder, but keeps only its own key words, so its stem table, spelling
+ * index and phrase matcher hold only those too. Every response and default
+ * response is kept, with the same response id it would have anywhere else.
+ *
+ * A ShardNode can be used directly by a ShardRouter in the same process,
+ * or run in a process of its own and serve RemoteShards over a local
+ * socket:
+ *      java ShardNode <directory> <shard> <shards> <port>
+ * One request or reply line is sent per line of text, in UTF-8:
+ *      W <line>        score a normalized line, without spelling matches
+ *      S <line>        score a normalized line, with spelling matches
+ *      D               list the default responses
+ * The reply to W and S is a line "C <response id> <score> <position>
+ * <response>" for each candidate; the reply to D is a line "D <response>"
+ * for each default response. Either reply ends with an empty line. Line
+ * breaks and backslashes in responses are escaped as \n and \\.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class ShardNode implements Shard
+{
+    // Each thread's scorer.
+    private static final ThreadLocal<ResponseScorer> SCORERS =
+        ThreadLocal.withInitial(ResponseScorer::new);
+
+    private final int shard;
+    private final int shardCount;
+    // This shard's key words, with and without spelling matches.
+    private final MatchingKnowledgeBase knowledgeBase;
+    private final KnowledgeBase withoutSpelling;
+
+    /**
+     * Read a shard's key words from the text files in a directory.
+     *
+     * @param directory  The directory holding the text files
+     * @param ring       The ring that places key words
+     * @param shard      Which shard this is, from 0 to the ring's shard
+     *                   count - 1
+     */
+    public ShardNode(Path directory, ConsistentHashRing ring, int shard)
+    {
+        this.shard = shard;
+        shardCount = ring.getShardCount();
+        KnowledgeBaseBuilder builder = new KnowledgeBaseBuilder();
+        StringBuilder stem = new StringBuilder();
+        builder.setKeywordFilter(keyword -> ring.getShardOfWord(keyword, stem) == shard);
+        Responder.readTextFiles(directory, builder);
+        knowledgeBase = new MatchingKnowledgeBase(builder.build());
+        withoutSpelling = knowledgeBase.withoutSpelling();
+    }
+
+    /**
+     * @return  The number of key words this shard holds
+     */
+    public int getKeywordCount()
+    {
+        return knowledgeBase.getKeywordCount();
+    }
+
+    /**
+     * Find every response this shard's key words in a line point to.
+     *
+     * @param line        A line of input, normalized as by a Tokenizer
+     * @param bySpelling  Whether words may match key words spelt a little
+     *                    differently
+     * @return            The candidate responses
+     */
+    public List<Candidate> score(CharSequence line, boolean bySpelling)
+    {
+        ResponseScorer scorer = SCORERS.get();
+        KnowledgeBase searched = bySpelling ? knowledgeBase : withoutSpelling;
+        scorer.score(searched, line);
+        int count = scorer.getCandidateCount();
+        List<Candidate> candidates = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            int responseId = scorer.getCandidate(i);
+            String response = knowledgeBase.getResponse(responseId);
+            // a response that cannot be read is left out, as if not found
+            if(response != null) {
+                candidates.add(new Candidate(responseId, scorer.getScore(i),
+                                             scorer.getFirstPosition(i), response));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return  The default responses
+     */
+    public List<String> getDefaultResponses()
+    {
+        int count = knowledgeBase.getDefaultResponseCount();
+        List<String> responses = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            responses.add(knowledgeBase.getDefaultResponse(i));
+        }
+        return responses;
+    }
+
+    /**
+     * Answer RemoteShards on a local port until the process is stopped.
+     * Each connection is served by a thread of its own.
+     *
+     * @param port  The port to listen on
+     * @throws IOException  If the port cannot be listened on
+     */
+    public void serve(int port) throws IOException
+    {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            System.out.println("Shard " + shard + " of " + shardCount + " holding " +
+                               getKeywordCount() + " key words listening on port " + port);
+            while(true) {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> serveConnection(socket));
+            }
+        }
+        finally {
+            connections.shutdownNow();
+        }
+    }
+
+    /**
+     * Answer the requests on one connection until it is closed.
+     *
+     * @param socket  The connection
+     */
+    private void serveConnection(Socket socket)
+    {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(
+                 new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            StringBuilder reply = new StringBuilder();
+            String request = in.readLine();
+            while(request != null) {
+                reply.setLength(0);
+                if(request.startsWith("W ") || request.startsWith("S ")) {
+                    for(Candidate candidate : score(request.substring(2), request.charAt(0) == 'S')) {
+                        reply.append("C ").append(candidate.getResponseId())
+                             .append(' ').append(candidate.getScore())
+                             .append(' ').append(candidate.getFirstPosition()).append(' ');
+                        appendEscaped(reply, candidate.getResponse());
+                        reply.append('\n');
+                    }
+                }
+                else if(request.equals("D")) {
+                    for(String response : getDefaultResponses()) {
+                        reply.append("D ");
+                        appendEscaped(reply, response);
+                        reply.append('\n');
+                    }
+                }
+                else {
+                    System.err.println("Shard " + shard + ": unknown request \"" + request + "\"");
+                }
+                reply.append('\n');
+                out.append(reply);
+                out.flush();
+                request = in.readLine();
+            }
+        }
+        catch(IOException e) {
+            System.err.println("Shard " + shard + ": a connection ended unexpectedly: " +
+                               e.getMessage());
+        }
+    }
+
+    /**
+     * Append a response with its line breaks and backslashes escaped.
+     *
+     * @param text      Where to append it
+     * @param response  The response
+     */
+    static void appendEscaped(StringBuilder text, String response)
+    {
+        for(int i = 0; i < response.length(); i++) {
+            char c = response.charAt(i);
+            switch(c) {
+                case '\n': text.append("\\n");  break;
+                case '\\': text.append("\\\\"); break;
+                case '\r':                      break;
+                default:   text.append(c);
+            }
+        }
+    }
+
+    /**
+     * Undo appendEscaped.
+     *
+     * @param text   The escaped text
+     * @param start  Where the escaped response starts in it
+     * @return       The response
+     */
+    static String unescape(String text, int start)
+    {
+        StringBuilder response = new StringBuilder(text.length() - start);
+        for(int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(c == '\\' && i + 1 < text.length()) {
+                c = text.charAt(++i) == 'n' ? '\n' : text.charAt(i);
+            }
+            response.append(c);
+        }
+        return response.toString();
+    }
+
+    /**
+     * Run a shard from the command line.
+     *
+     * @param args  The directory holding the text files, this shard's
+     *              number, the number of shards and the port to listen on
+     * @throws IOException  If the port cannot be listened on
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 4) {
+            System.err.println("Usage: java ShardNode <directory> <shard> <shards> <port>");
+            return;
+        }
+        ConsistentHashRing ring = new ConsistentHashRing(Integer.parseInt(args[2]));
+        ShardNode node = new ShardNode(Paths.get(args[0]), ring, Integer.parseInt(args[1]));
+        node.serve(Integer.parseInt(args[3]));
+    }
+}
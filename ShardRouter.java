@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A ShardRouter answers lines of input like a Responder does, but with the
+ * key words spread over several shards (see Shard), so that no one heap
+ * has to hold them all. A ConsistentHashRing decides which shard holds
+ * each key word.
+ *
+ * To answer a line the router works out which shards own its words, asks
+ * only those, and adds up the candidates they send back: scores of the
+ * same response id are added, and the earliest first position is kept.
+ * The winner is then chosen by the same rules as ResponseScorer uses, so
+ * the answer is the one a single Responder would give, as long as every
+ * key word in the line is spelt right or found by its stem. Only when no
+ * shard recognises anything is the line sent to every shard again with
+ * spelling matches allowed, since a misspelt word may belong to any shard.
+ * If that finds nothing either, a default response is chosen.
+ *
+ * When a line needs more than one shard the shards are asked at the same
+ * time, on a pool of threads.
+ *
+ * The shards can all live in this process (see local), which is how a
+ * router is tried out on one machine, or be ShardNodes in processes of
+ * their own reached over local sockets:
+ *      java ShardNode . 0 2 4300 &
+ *      java ShardNode . 1 2 4301 &
+ *      java ShardRouter . localhost:4300 localhost:4301
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class ShardRouter
+{
+    private final ConsistentHashRing ring;
+    private final Shard[] shards;
+    private final String[] defaultResponses;
+    // Asks shards in parallel. Its threads are daemons, so an unclosed
+    // router does not keep the program running.
+    private final ExecutorService fanOut;
+    // Each thread's work space.
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Create a router over a set of shards. The default responses are
+     * fetched from the first shard.
+     *
+     * @param ring    The ring that placed the shards' key words
+     * @param shards  The shards, in the order of the ring
+     * @throws IOException  If the first shard could not be reached
+     */
+    public ShardRouter(ConsistentHashRing ring, Shard[] shards) throws IOException
+    {
+        if(shards.length != ring.getShardCount()) {
+            throw new IllegalArgumentException("The ring has " + ring.getShardCount() +
+                                               " shards, not " + shards.length);
+        }
+        this.ring = ring;
+        this.shards = shards.clone();
+        defaultResponses = shards[0].getDefaultResponses().toArray(new String[0]);
+        if(defaultResponses.length == 0) {
+            throw new IllegalArgumentException("At least one default response is needed");
+        }
+        fanOut = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "shard-router");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scratch = ThreadLocal.withInitial(() -> new Scratch(shards.length));
+    }
+
+    /**
+     * Create a router with all of its shards in this process, each reading
+     * its own key words from the text files in a directory.
+     *
+     * @param directory   The directory holding the text files
+     * @param shardCount  The number of shards
+     * @return            The router
+     */
+    public static ShardRouter local(Path directory, int shardCount)
+    {
+        ConsistentHashRing ring = new ConsistentHashRing(shardCount);
+        Shard[] shards = new Shard[shardCount];
+        for(int shard = 0; shard < shardCount; shard++) {
+            shards[shard] = new ShardNode(directory, ring, shard);
+        }
+        try {
+            return new ShardRouter(ring, shards);
+        }
+        catch(IOException e) {
+            // a ShardNode never throws it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Generate a response to a line of input.
+     *
+     * @param inputLine  The line typed by the user
+     * @return           A string that should be displayed as the response
+     * @throws IOException  If a shard could not be reached
+     */
+    public String generateResponse(CharSequence inputLine) throws IOException
+    {
+        Scratch s = scratch.get();
+        s.tokenizer.normalize(inputLine, s.line);
+        String line = s.line.toString();
+
+        // the shards that own a word of the line
+        boolean[] targets = s.targets;
+        Arrays.fill(targets, false);
+        s.tokenizer.reset(line);
+        while(s.tokenizer.next()) {
+            targets[ring.getShardOfWord(s.tokenizer.getToken(), s.stem)] = true;
+        }
+        String response = best(ask(targets, line, false));
+        if(response == null) {
+            Arrays.fill(targets, true);
+            response = best(ask(targets, line, true));
+        }
+        if(response == null) {
+            response = defaultResponses[ThreadLocalRandom.current().nextInt(defaultResponses.length)];
+        }
+        return response;
+    }
+
+    /**
+     * Stop the threads used to ask shards in parallel, and close any
+     * shard that holds connections.
+     */
+    public void close()
+    {
+        fanOut.shutdown();
+        for(Shard shard : shards) {
+            if(shard instanceof RemoteShard) {
+                ((RemoteShard) shard).close();
+            }
+        }
+    }
+
+    /**
+     * Ask some of the shards to score a line.
+     *
+     * @param targets     Which shards to ask
+     * @param line        The normalized line
+     * @param bySpelling  Whether spelling matches are allowed
+     * @return            All the candidates they found
+     * @throws IOException  If a shard could not be reached
+     */
+    private List<Shard.Candidate> ask(boolean[] targets, String line, boolean bySpelling)
+        throws IOException
+    {
+        List<Shard.Candidate> candidates = new ArrayList<>();
+        List<Future<List<Shard.Candidate>>> replies = new ArrayList<>();
+        int last = -1;
+        for(int i = 0; i < targets.length; i++) {
+            if(targets[i]) {
+                if(last >= 0) {
+                    Shard shard = shards[last];
+                    replies.add(fanOut.submit(() -> shard.score(line, bySpelling)));
+                }
+                last = i;
+            }
+        }
+        if(last < 0) {
+            return candidates;
+        }
+        // the last shard is asked on this thread while the others work
+        candidates.addAll(shards[last].score(line, bySpelling));
+        try {
+            for(Future<List<Shard.Candidate>> reply : replies) {
+                candidates.addAll(reply.get());
+            }
+        }
+        catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a shard");
+        }
+        return candidates;
+    }
+
+    /**
+     * Add up the candidates of each response and pick the winner by the
+     * rules of ResponseScorer.
+     *
+     * @param candidates  The candidates from all the shards asked
+     * @return            The winning response, or null if there are none
+     */
+    private static String best(List<Shard.Candidate> candidates)
+    {
+        // a line has few candidates, so they are merged in place
+        int count = candidates.size();
+        int[] ids = new int[count];
+        int[] scores = new int[count];
+        int[] positions = new int[count];
+        String[] responses = new String[count];
+        int merged = 0;
+        for(Shard.Candidate candidate : candidates) {
+            int i = 0;
+            while(i < merged && ids[i] != candidate.getResponseId()) {
+                i++;
+            }
+            if(i == merged) {
+                ids[i] = candidate.getResponseId();
+                positions[i] = candidate.getFirstPosition();
+                responses[i] = candidate.getResponse();
+                merged++;
+            }
+            scores[i] += candidate.getScore();
+            positions[i] = Math.min(positions[i], candidate.getFirstPosition());
+        }
+        int best = -1;
+        for(int i = 0; i < merged; i++) {
+            if(best < 0 || scores[i] > scores[best] ||
+               (scores[i] == scores[best] &&
+                (positions[i] < positions[best] ||
+                 (positions[i] == positions[best] && ids[i] < ids[best])))) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : responses[best];
+    }
+
+    /**
+     * The work space one thread needs to route a line.
+     */
+    private static final class Scratch
+    {
+        private final Tokenizer tokenizer = new Tokenizer();
+        private final StringBuilder line = new StringBuilder();
+        private final StringBuilder stem = new StringBuilder();
+        private final boolean[] targets;
+
+        private Scratch(int shardCount)
+        {
+            targets = new boolean[shardCount];
+        }
+    }
+
+    /**
+     * Run a support dialog in the text terminal, answered by shards.
+     *
+     * @param args  The directory holding the text files, followed by
+     *              either the number of shards to run in this process or
+     *              the host:port of each ShardNode, in shard order
+     * @throws IOException  If a shard could not be reached
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 2) {
+            System.err.println("Usage: java ShardRouter <directory> <shards>");
+            System.err.println("   or: java ShardRouter <directory> <host:port>...");
+            return;
+        }
+        ShardRouter router;
+        if(args[1].indexOf(':') < 0) {
+            router = local(Paths.get(args[0]), Integer.parseInt(args[1]));
+        }
+        else {
+            Shard[] shards = new Shard[args.length - 1];
+            for(int i = 1; i < args.length; i++) {
+                int colon = args[i].lastIndexOf(':');
+                shards[i - 1] = new RemoteShard(new InetSocketAddress(
+                    args[i].substring(0, colon), Integer.parseInt(args[i].substring(colon + 1))));
+            }
+            router = new ShardRouter(new ConsistentHashRing(shards.length), shards);
+        }
+
+        for(String line : SupportSystem.WELCOME) {
+            System.out.println(line);
+        }
+        InputReader reader = new InputReader();
+        Tokenizer tokenizer = new Tokenizer();
+        String input = reader.getInputLine();
+        while(input != null && !tokenizer.contains(input, "bye")) {
+            System.out.println(router.generateResponse(input));
+            input = reader.getInputLine();
+        }
+        System.out.println(SupportSystem.GOODBYE);
+        router.close();
+    }
+}
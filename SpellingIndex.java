@@ -0,0 +1,329 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A SpellingIndex finds the key word closest in spelling to a misspelled
+ * word, without comparing the word against every key word.
+ *
+ * It uses the "symmetric delete" idea: if two words are within edit
+ * distance d of each other, then deleting at most d letters from each of
+ * them can make them equal. So when the index is built, every key word is
+ * recorded under itself and under each of the words made by deleting one
+ * (or, for longer key words, two) of its letters. A lookup makes the same
+ * deletions from the user's word, collects the key words recorded under
+ * any of them, and checks only those few candidates with a real edit
+ * distance calculation.
+ *
+ * To keep the index small, the deleted forms are not stored as Strings,
+ * only as hash codes. The key word indexes are kept in one run of ints,
+ * grouped by the hash of the deleted form, and an open-addressing table
+ * maps each hash to its group. Each table slot packs the hash and the
+ * group's position into one long, and each group starts with its length,
+ * so a probe touches just two places in memory. A hash collision only
+ * adds a candidate, which the edit distance check then rejects.
+ *
+ * The ints and longs are held in buffers, so that an index saved by
+ * KnowledgeBaseCompiler can be used straight from the mapped file. An
+ * index built here wraps arrays on the heap.
+ *
+ * The index is built once and never changes, so it can be shared between
+ * threads. The work space for a lookup lives in a Searcher, which each
+ * thread should have its own copy of.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/28/2020
+ */
+public final class SpellingIndex
+{
+    // The largest edit distance a lookup may ask for.
+    public static final int MAX_DISTANCE = 2;
+    // Key words this long or longer are also recorded under two deletions.
+    private static final int TWO_DELETE_LENGTH = 7;
+    // Key words this long or longer are recorded under one deletion.
+    private static final int ONE_DELETE_LENGTH = 4;
+
+    private final KnowledgeBase keywords;
+    // Key word indexes, grouped by the hash of the deleted form. Each
+    // group is its length followed by that many key word indexes.
+    private final IntBuffer groups;
+    // The open-addressing table. Each slot is (hash << 32) | (position of
+    // the group in groups + 1); 0 marks an empty slot.
+    private final LongBuffer slots;
+    // The number of (deleted form, key word) pairs.
+    private final int size;
+
+    /**
+     * Build the index for the key words of a knowledge base.
+     *
+     * @param keywords  The knowledge base whose key words are indexed
+     */
+    public SpellingIndex(KnowledgeBase keywords)
+    {
+        this.keywords = keywords;
+        int count = keywords.getKeywordCount();
+        long[] collected = new long[Math.max(16, count * 8)];
+        int filled = 0;
+        for(int k = 0; k < count; k++) {
+            String word = keywords.getKeyword(k);
+            if(PhraseMatcher.isPhrase(word)) {
+                // phrases are matched whole, by PhraseMatcher
+                continue;
+            }
+            int length = word.length();
+            int deletes = length >= TWO_DELETE_LENGTH ? 2 : length >= ONE_DELETE_LENGTH ? 1 : 0;
+            int needed = 1 + (deletes >= 1 ? length : 0) +
+                         (deletes >= 2 ? length * (length - 1) / 2 : 0);
+            if(filled + needed > collected.length) {
+                collected = Arrays.copyOf(collected, Math.max(collected.length * 2, filled + needed));
+            }
+            collected[filled++] = entry(hash(word, -1, -1), k);
+            for(int i = 0; i < length && deletes >= 1; i++) {
+                collected[filled++] = entry(hash(word, i, -1), k);
+                for(int j = i + 1; j < length && deletes >= 2; j++) {
+                    collected[filled++] = entry(hash(word, i, j), k);
+                }
+            }
+        }
+        // Each entry is (hash of a deleted form << 32) | key word index, so
+        // sorting groups the entries by hash.
+        Arrays.sort(collected, 0, filled);
+        // drop repeats, such as the two ways of deleting one 'l' from "hello"
+        int unique = 0;
+        int groupCount = 0;
+        for(int i = 0; i < filled; i++) {
+            if(unique == 0 || collected[i] != collected[unique - 1]) {
+                if(unique == 0 || (collected[i] >> 32) != (collected[unique - 1] >> 32)) {
+                    groupCount++;
+                }
+                collected[unique++] = collected[i];
+            }
+        }
+        size = unique;
+        int[] groups = new int[unique + groupCount];
+        int tableSize = Integer.highestOneBit(Math.max(groupCount, 1) * 2 - 1) << 1;
+        long[] slots = new long[tableSize];
+        int position = 0;
+        int lengthAt = 0;
+        for(int i = 0; i < unique; i++) {
+            int hash = (int) (collected[i] >> 32);
+            if(i == 0 || hash != (int) (collected[i - 1] >> 32)) {
+                // start a new group, with room for its length
+                lengthAt = position++;
+                int slot = KnowledgeBase.mix(hash) & (tableSize - 1);
+                while(slots[slot] != 0) {
+                    slot = (slot + 1) & (tableSize - 1);
+                }
+                slots[slot] = ((long) hash << 32) | (lengthAt + 1);
+            }
+            groups[position++] = (int) collected[i];
+            groups[lengthAt]++;
+        }
+        this.groups = IntBuffer.wrap(groups);
+        this.slots = LongBuffer.wrap(slots);
+    }
+
+    /**
+     * Use an index that was built before and saved. The buffers are used
+     * as they are, not copied, and must not change.
+     *
+     * @param keywords  The knowledge base whose key words are indexed
+     * @param groups    The groups of the saved index (see getGroups)
+     * @param slots     The table of the saved index (see getSlots)
+     * @param size      The size of the saved index
+     */
+    SpellingIndex(KnowledgeBase keywords, IntBuffer groups, LongBuffer slots, int size)
+    {
+        if(Integer.bitCount(slots.capacity()) != 1) {
+            throw new IllegalArgumentException("The table size must be a power of two");
+        }
+        this.keywords = keywords;
+        this.groups = groups;
+        this.slots = slots;
+        this.size = size;
+    }
+
+    /**
+     * @return  The number of (deleted form, key word) pairs in the index
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return  The key word indexes, grouped by the hash of the deleted
+     *          form, for saving the index
+     */
+    IntBuffer getGroups()
+    {
+        return groups.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return  The table of groups, for saving the index
+     */
+    LongBuffer getSlots()
+    {
+        return slots.asReadOnlyBuffer();
+    }
+
+    /**
+     * Hash a word with up to two of its letters left out, using FNV-1a.
+     * The result is mixed again before it picks a slot.
+     *
+     * @param word   The word
+     * @param skip1  The position of a letter to leave out, or -1
+     * @param skip2  The position of another letter to leave out, or -1
+     * @return       The hash code
+     */
+    static int hash(CharSequence word, int skip1, int skip2)
+    {
+        int hash = 0x811C9DC5;
+        for(int i = 0; i < word.length(); i++) {
+            if(i != skip1 && i != skip2) {
+                hash ^= word.charAt(i);
+                hash *= 0x01000193;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash     The hash of a deleted form
+     * @param keyword  A key word index
+     * @return         The two packed into one sortable entry
+     */
+    private static long entry(int hash, int keyword)
+    {
+        return ((long) hash << 32) | keyword;
+    }
+
+    /**
+     * The work space for looking words up in a SpellingIndex. A Searcher
+     * is not thread safe, but one Searcher can be used with any number of
+     * indexes.
+     */
+    public static final class Searcher
+    {
+        // Two rows of the edit distance table.
+        private int[] previous;
+        private int[] current;
+        // The best match found so far in the current lookup.
+        private int bestKeyword;
+        private int bestDistance;
+
+        /**
+         * Create a Searcher.
+         */
+        public Searcher()
+        {
+            previous = new int[32];
+            current = new int[32];
+        }
+
+        /**
+         * Find the key word closest in spelling to the given word.
+         *
+         * @param index        The index to search
+         * @param word         The word to look for
+         * @param maxDistance  The largest edit distance to accept, at most
+         *                     MAX_DISTANCE
+         * @return             The index of the closest key word, or -1 if
+         *                     none is within maxDistance. If several are
+         *                     equally close, the lowest index wins.
+         */
+        public int nearest(SpellingIndex index, CharSequence word, int maxDistance)
+        {
+            maxDistance = Math.min(maxDistance, MAX_DISTANCE);
+            bestKeyword = -1;
+            bestDistance = maxDistance + 1;
+            int length = word.length();
+            check(index, word, hash(word, -1, -1), maxDistance);
+            for(int i = 0; i < length && maxDistance >= 1; i++) {
+                check(index, word, hash(word, i, -1), maxDistance);
+                for(int j = i + 1; j < length && maxDistance >= 2; j++) {
+                    check(index, word, hash(word, i, j), maxDistance);
+                }
+            }
+            return bestKeyword;
+        }
+
+        /**
+         * Check every key word recorded under one deleted form of the word.
+         *
+         * @param index        The index being searched
+         * @param word         The word being looked for
+         * @param hash         The hash of the deleted form
+         * @param maxDistance  The largest edit distance to accept
+         */
+        private void check(SpellingIndex index, CharSequence word, int hash, int maxDistance)
+        {
+            // absolute gets, which never move a buffer's position, so
+            // the buffers can be shared between threads
+            LongBuffer slots = index.slots;
+            IntBuffer groups = index.groups;
+            int mask = slots.capacity() - 1;
+            int slot = KnowledgeBase.mix(hash) & mask;
+            long entry = slots.get(slot);
+            while(entry != 0 && (int) (entry >> 32) != hash) {
+                slot = (slot + 1) & mask;
+                entry = slots.get(slot);
+            }
+            if(entry == 0) {
+                return;
+            }
+            int start = (int) entry;     // the position of the group plus one
+            int end = start + groups.get(start - 1);
+            for(int i = start; i < end; i++) {
+                int keyword = groups.get(i);
+                String candidate = index.keywords.getKeyword(keyword);
+                if(Math.abs(candidate.length() - word.length()) > maxDistance) {
+                    continue;
+                }
+                int distance = distance(candidate, word);
+                if(distance < bestDistance ||
+                   (distance == bestDistance && keyword < bestKeyword)) {
+                    bestDistance = distance;
+                    bestKeyword = keyword;
+                }
+            }
+        }
+
+        /**
+         * Work out the Levenshtein edit distance between two words: the
+         * number of single letter insertions, deletions and substitutions
+         * needed to turn one into the other.
+         *
+         * @param a  One word
+         * @param b  The other word
+         * @return   The edit distance
+         */
+        int distance(CharSequence a, CharSequence b)
+        {
+            int n = a.length();
+            int m = b.length();
+            if(previous.length <= m) {
+                previous = new int[m + 1];
+                current = new int[m + 1];
+            }
+            for(int j = 0; j <= m; j++) {
+                previous[j] = j;
+            }
+            for(int i = 1; i <= n; i++) {
+                current[0] = i;
+                char ca = a.charAt(i - 1);
+                for(int j = 1; j <= m; j++) {
+                    int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                    current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                                          previous[j - 1] + cost);
+                }
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return previous[m];
+        }
+    }
+}
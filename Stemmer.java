@@ -0,0 +1,107 @@
+/**
+ * A Stemmer reduces an English word to a rough stem by taking common
+ * endings off, so that "crashes", "crashed" and "crashing" all become
+ * "crash", and "buggy" becomes "bug". It is far simpler than a real
+ * linguistic stemmer, but the same rules are applied to the key words and
+ * to the user's words, so the two only need to agree with each other.
+ *
+ * The stem is written into a StringBuilder supplied by the caller, so
+ * stemming allocates nothing once that builder is big enough.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/28/2020
+ */
+public class Stemmer
+{
+    // Stems shorter than this are not shortened any further.
+    private static final int MIN_STEM = 3;
+
+    /**
+     * Work out the stem of a word.
+     *
+     * @param word  The word, in lower case
+     * @param stem  Where to put the stem; its old contents are replaced
+     */
+    public static void stem(CharSequence word, StringBuilder stem)
+    {
+        stem.setLength(0);
+        stem.append(word);
+        if(endsWith(stem, "ies")) {
+            replaceEnding(stem, 3, "y");
+        }
+        else if(endsWith(stem, "sses") || endsWith(stem, "shes") ||
+                endsWith(stem, "ches") || endsWith(stem, "xes")) {
+            replaceEnding(stem, 2, "");
+        }
+        else if(endsWith(stem, "s") && !endsWith(stem, "ss") && !endsWith(stem, "us")) {
+            replaceEnding(stem, 1, "");
+        }
+
+        if(endsWith(stem, "ing")) {
+            replaceEnding(stem, 3, "");
+        }
+        else if(endsWith(stem, "ed")) {
+            replaceEnding(stem, 2, "");
+        }
+        else if(endsWith(stem, "ly")) {
+            replaceEnding(stem, 2, "");
+        }
+        else if(endsWith(stem, "er")) {
+            replaceEnding(stem, 2, "");
+        }
+        else if(endsWith(stem, "y")) {
+            replaceEnding(stem, 1, "");
+        }
+        else if(endsWith(stem, "e")) {
+            replaceEnding(stem, 1, "");
+        }
+
+        // "bugg" -> "bug", "stopp" -> "stop"
+        int length = stem.length();
+        if(length > MIN_STEM && stem.charAt(length - 1) == stem.charAt(length - 2) &&
+           !isVowel(stem.charAt(length - 1)) && "lsz".indexOf(stem.charAt(length - 1)) < 0) {
+            stem.setLength(length - 1);
+        }
+    }
+
+    /**
+     * @param word    The word so far
+     * @param ending  An ending
+     * @return        true if the word has that ending and would still be a
+     *                reasonable stem without it
+     */
+    private static boolean endsWith(StringBuilder word, String ending)
+    {
+        int start = word.length() - ending.length();
+        if(start < MIN_STEM) {
+            return false;
+        }
+        for(int i = 0; i < ending.length(); i++) {
+            if(word.charAt(start + i) != ending.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param word         The word so far
+     * @param length       How many characters to take off the end
+     * @param replacement  What to put on the end instead
+     */
+    private static void replaceEnding(StringBuilder word, int length, String replacement)
+    {
+        word.setLength(word.length() - length);
+        word.append(replacement);
+    }
+
+    /**
+     * @param c  A lower case letter
+     * @return   true if it is a vowel
+     */
+    private static boolean isVowel(char c)
+    {
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * The management interface of SupportMetrics, as seen in JConsole or any
+ * other JMX client under the name "TechSupport:type=SupportMetrics".
+ * Times are in microseconds.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public interface SupportMetricsMBean
+{
+    /**
+     * @return  The number of responses generated
+     */
+    long getRequestCount();
+
+    /**
+     * @return  The number of those that were default responses
+     */
+    long getDefaultResponseCount();
+
+    /**
+     * @return  The fraction of responses that were default responses
+     */
+    double getDefaultResponseRate();
+
+    /**
+     * @return  The responses per second over the last snapshot interval
+     */
+    double getRequestsPerSecond();
+
+    /**
+     * @return  The median time to tokenize a line of a dialog
+     */
+    double getTokenizeMedianMicros();
+
+    /**
+     * @return  The 99th percentile time to tokenize a line of a dialog
+     */
+    double getTokenize99thPercentileMicros();
+
+    /**
+     * @return  The median time to respond to a line of a dialog
+     */
+    double getRespondMedianMicros();
+
+    /**
+     * @return  The 99th percentile time to respond to a line of a dialog
+     */
+    double getRespond99thPercentileMicros();
+
+    /**
+     * @return  The longest time taken to respond to a line of a dialog
+     */
+    double getRespondMaxMicros();
+
+    /**
+     * @return  The key words that decided the most responses, most first,
+     *          each as "key word=count"
+     */
+    String[] getTopKeywords();
+
+    /**
+     * @return  A report of all the figures, several lines long
+     */
+    String getReport();
+}
@@ -0,0 +1,278 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A SupportServer runs many technical support dialogs at the same time.
+ * Each user connects to a local socket (for example with "nc localhost 4242")
+ * and gets a dialog of their own, exactly like the one SupportSystem runs in
+ * the text terminal. A session ends when its user types "bye" or hangs up.
+ *
+ * All sessions share a single Responder. Every session runs on its own
+ * thread: a virtual thread when the Java runtime supports them (Java 21 and
+ * later), otherwise an ordinary pooled thread.
+ *
+ * While the server runs, changes to the knowledge base files are picked up
+ * without a restart (see KnowledgeBaseWatcher). Since many users ask the
+ * same questions, the responses are cached (see ResponseCache). What has
+ * been said in each dialog is kept in a SessionStore, so a user is not
+ * given the same default response twice and is sent to a person after
+ * several lines that find no key word. Lines that come faster than they
+ * can be answered are shed by an AdmissionController (see shedLoad).
+ *
+ * The server keeps SupportMetrics, which can be watched over JMX and are
+ * printed every REPORT_SECONDS seconds.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class SupportServer
+{
+    // The port we listen on if none is given.
+    public static final int DEFAULT_PORT = 4242;
+    // The most lines whose responses are cached, and for how long.
+    private static final int CACHE_SIZE = 10000;
+    private static final int CACHE_MINUTES = 10;
+    // The most dialogs whose state is kept, and how long an idle one is kept.
+    private static final int MAX_SESSIONS = 1000000;
+    private static final int SESSION_IDLE_MINUTES = 30;
+    // Where the "journal" option keeps the audit trail.
+    private static final String JOURNAL_DIRECTORY = "journal";
+    // The most lines answered at once, however quickly they are answered;
+    // how many more may wait for a turn, and for how long.
+    private static final int MAX_ANSWERING = 256;
+    private static final int MAX_WAITING = 1000;
+    private static final int MAX_WAIT_MILLIS = 500;
+    // The time between metrics reports.
+    private static final int REPORT_SECONDS = 60;
+
+    private final int port;
+    private final Responder responder;
+    private final SupportMetrics metrics;
+    private final KnowledgeBaseWatcher watcher;
+    private ServerSocket serverSocket;
+    private ExecutorService sessions;
+
+    /**
+     * Create a server that listens on the default port.
+     */
+    public SupportServer()
+    {
+        this(DEFAULT_PORT);
+    }
+
+    /**
+     * Create a server that listens on the given port.
+     *
+     * @param port  The local port to accept connections on
+     */
+    public SupportServer(int port)
+    {
+        this(port, false);
+    }
+
+    /**
+     * Create a server that listens on the given port.
+     *
+     * @param port           The local port to accept connections on
+     * @param lazyResponses  true to read each response from the key word
+     *                       file only when it is first needed (see
+     *                       LazyKnowledgeBase)
+     */
+    public SupportServer(int port, boolean lazyResponses)
+    {
+        this.port = port;
+        responder = new Responder(Paths.get(""), lazyResponses);
+        responder.setCache(new ResponseCache(CACHE_SIZE, CACHE_MINUTES, TimeUnit.MINUTES));
+        responder.setSessions(new SessionStore(MAX_SESSIONS, SESSION_IDLE_MINUTES, TimeUnit.MINUTES));
+        metrics = new SupportMetrics();
+        responder.setMetrics(metrics);
+        watcher = new KnowledgeBaseWatcher(responder);
+    }
+
+    /**
+     * Keep an audit trail of every line answered and its response in a
+     * TranscriptJournal, until the server is stopped. Call it before
+     * start().
+     *
+     * @param directory  The directory the journal's segments go in
+     * @throws IOException  If the journal cannot be started there
+     */
+    public void keepJournal(Path directory) throws IOException
+    {
+        responder.setJournal(new TranscriptJournal(directory));
+    }
+
+    /**
+     * Shed lines when they come faster than they can be answered, with an
+     * AdmissionController. Each session may send
+     * AdmissionController.DEFAULT_SESSION_RATE lines a second, and have
+     * no more than AdmissionController.DEFAULT_SESSION_BURST waiting to be
+     * answered; no more than MAX_ANSWERING lines are answered at once,
+     * and fewer while answers are slowing down; a line that finds no turn
+     * free waits for one only if fewer than MAX_WAITING lines are
+     * waiting; and no line is answered more than MAX_WAIT_MILLIS after it
+     * arrived, or more than AdmissionController.TARGET_DELAY_MILLIS once
+     * lines have been kept waiting that long for a while. Call it before
+     * start().
+     *
+     * @param policy  What to do with a line that is shed
+     */
+    public void shedLoad(AdmissionController.ShedPolicy policy)
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        responder.setAdmission(new AdmissionController(Math.min(processors, MAX_ANSWERING), 1,
+                                                       MAX_ANSWERING, MAX_WAITING,
+                                                       MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS,
+                                                       policy));
+    }
+
+    /**
+     * Get ready to answer quickly from the first connection: write the
+     * compiled knowledge base if it is out of date, so that the next
+     * server started here opens it instead of reading the text files, and
+     * warm the response path up (see QuickStart). Call it before start().
+     */
+    public void prepare()
+    {
+        responder.saveCompiled();
+        responder.warmUp(Responder.WARM_UP_LINES);
+    }
+
+    /**
+     * Accept connections until the server is stopped. Every connection
+     * becomes a separate support session. This method does not return
+     * until stop() is called from another thread.
+     */
+    public void start()
+    {
+        try {
+            serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+            sessions = newSessionExecutor();
+            watcher.start();
+            metrics.register();
+            metrics.startReports(REPORT_SECONDS, TimeUnit.SECONDS, System.out);
+            System.out.println("DodgySoft support server listening on port " + port);
+            while(!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                sessions.execute(() -> runSession(socket));
+            }
+        }
+        catch(IOException e) {
+            if(serverSocket == null || !serverSocket.isClosed()) {
+                System.err.println("The support server stopped: " + e.getMessage());
+            }
+        }
+        finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stop accepting new connections. Sessions already running are left
+     * to finish on their own.
+     */
+    public void stop()
+    {
+        try {
+            if(serverSocket != null) {
+                serverSocket.close();
+            }
+        }
+        catch(IOException e) {
+            System.err.println("A problem was encountered closing the server socket");
+        }
+        if(sessions != null) {
+            sessions.shutdown();
+        }
+        watcher.stop();
+        TranscriptJournal journal = responder.getJournal();
+        if(journal != null) {
+            responder.setJournal(null);
+            journal.close();
+        }
+        metrics.stopReports();
+    }
+
+    /**
+     * Run one support dialog over a connected socket.
+     *
+     * @param socket  The user's connection
+     */
+    private void runSession(Socket socket)
+    {
+        try (Socket s = socket;
+             PrintStream out = new PrintStream(s.getOutputStream(), true, "UTF-8")) {
+            SupportSystem session = new SupportSystem(responder, s.getInputStream(), out);
+            session.start();
+        }
+        catch(IOException e) {
+            System.err.println("A support session ended unexpectedly: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create the executor that sessions run on. Virtual threads are used when
+     * the runtime has them, since a session spends nearly all of its time
+     * waiting for the user to type.
+     *
+     * @return  An executor that starts one thread per session
+     */
+    private static ExecutorService newSessionExecutor()
+    {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch(ReflectiveOperationException e) {
+            // Older runtime: fall back to platform threads.
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Start a server from the command line.
+     *
+     * @param args  Optionally, the port number to listen on, followed by
+     *              "lazy" to read responses only when needed, "quick"
+     *              to prepare() before listening and "journal" to keep
+     *              an audit trail in the journal directory. Lines are
+     *              shed under overload with a "please try again", or
+     *              with no answer if "drop" is given
+     */
+    public static void main(String[] args)
+    {
+        int port = DEFAULT_PORT;
+        if(args.length > 0) {
+            port = Integer.parseInt(args[0]);
+        }
+        List<String> options = Arrays.asList(args).subList(Math.min(1, args.length), args.length);
+        SupportServer server = new SupportServer(port, options.contains("lazy"));
+        server.shedLoad(options.contains("drop") ? AdmissionController.ShedPolicy.DROP
+                                                 : AdmissionController.ShedPolicy.RETRY);
+        if(options.contains("journal")) {
+            try {
+                server.keepJournal(Paths.get(JOURNAL_DIRECTORY));
+            }
+            catch(IOException e) {
+                System.err.println("Unable to start the journal: " + e.getMessage());
+                return;
+            }
+        }
+        if(options.contains("quick")) {
+            server.prepare();
+        }
+        server.start();
+    }
+}
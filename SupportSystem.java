@@ -1,4 +1,6 @@
-import java.util.HashSet;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class implements a technical support system.
@@ -11,57 +13,153 @@ import java.util.HashSet;
  * It contains a loop that repeatedly reads input and generates
  * output until the users wants to leave.
  * 
+ * A SupportSystem can also be created for a single session on any pair of
+ * streams, sharing a Responder with other sessions (see SupportServer).
+ * 
  * @author David J. Barnes and Michael Kölling.
  * @version 2016.02.29
  */
 public class SupportSystem
 {
+    // The lines printed at the start of a dialog.
+    static final String[] WELCOME = {
+        "Welcome to the DodgySoft Technical Support System.",
+        "",
+        "Please tell us about your problem.",
+        "We will assist you with any problem you might have.",
+        "Please type 'bye' to exit our system.",
+    };
+    // The line printed at the end of a dialog.
+    static final String GOODBYE = "Nice talking to you. Bye...";
+    // How long the terminal dialog's session is remembered while idle.
+    private static final int SESSION_IDLE_HOURS = 24;
+
     private InputReader reader;
     private Responder responder;
+    private PrintStream out;
+    // Used to spot "bye" without splitting the line.
+    private Tokenizer tokenizer;
     
     /**
      * Creates a technical support system.
      */
     public SupportSystem()
     {
-        reader = new InputReader();
-        responder = new Responder();
+        this(new Responder(), System.in, System.out);
+        responder.setSessions(new SessionStore(1, SESSION_IDLE_HOURS, TimeUnit.HOURS));
+    }
+
+    /**
+     * Creates a technical support session that talks over the given streams.
+     * The responder may be shared between any number of sessions.
+     * 
+     * @param responder  The responder used to answer the user
+     * @param in         The stream the user's text arrives on
+     * @param out        The stream our answers are printed to
+     */
+    public SupportSystem(Responder responder, InputStream in, PrintStream out)
+    {
+        reader = new InputReader(in, out);
+        this.responder = responder;
+        this.out = out;
+        tokenizer = new Tokenizer();
     }
 
     /**
      * Start the technical support system. This will print a welcome message and enter
      * into a dialog with the user, until the user ends the dialog.
+     * If the Responder has SupportMetrics, the time taken to answer each
+     * line is recorded there (the Responder records the time taken to
+     * tokenize it). If it has a SessionStore, the
+     * dialog is a session there, so that each line is answered with the
+     * ones before it in mind. If it has an AdmissionController, each line
+     * is answered only if the controller admits it; a line it sheds is
+     * given a short "please try again", or no answer at all. The lines
+     * are then read into a SessionBacklog as soon as each answer is given,
+     * so that the controller knows how long each has waited.
      */
     public void start()
     {
         boolean finished = false;
+        SessionStore sessions = responder.getSessions();
+        long session = sessions == null ? SessionStore.NO_SESSION : sessions.open();
+        AdmissionController admission = responder.getAdmission();
+        AdmissionController.TokenBucket bucket =
+            admission == null ? null : admission.newSessionBucket();
 
         printWelcome();
+        SessionBacklog backlog =
+            admission == null ? null : new SessionBacklog(reader, responder, admission, session);
 
         while(!finished) {
-            HashSet<String> input = reader.getInput();
+            String input;
+            if(backlog == null) {
+                input = reader.getInputLine();
+            }
+            else {
+                reader.printPrompt();
+                input = nextLine(backlog);
+            }
 
-            if(input.contains("bye")) {
+            if(input == null || tokenizer.contains(input, "bye")) {
                 finished = true;
             }
             else {
-                String response = responder.generateResponse(input);
-                System.out.println(response);
+                // only look at the clock when someone is collecting the times
+                SupportMetrics metrics = responder.getMetrics();
+                long start = metrics == null ? 0 : System.nanoTime();
+                String response = admission == null
+                                  ? responder.generateResponse(input, session)
+                                  : admission.answer(responder, input, session, bucket,
+                                                     backlog.getArrivalTime(), true);
+                if(metrics != null) {
+                    metrics.recordRespond(System.nanoTime() - start);
+                }
+                // a line shed without an answer still ends the line
+                out.println(response == null ? "" : response);
             }
         }
+        if(sessions != null) {
+            sessions.close(session);
+        }
         printGoodbye();
     }
 
+    /**
+     * Take the next line from the backlog, first answering the lines shed
+     * from it just before that one, each followed by a prompt, all at
+     * once.
+     *
+     * @param backlog  The dialog's backlog
+     * @return         The line, or null if there is no more input
+     */
+    private String nextLine(SessionBacklog backlog)
+    {
+        String line = backlog.next();
+        int shed = backlog.getShedBefore();
+        if(shed > 0) {
+            String shedResponse = backlog.getShedResponse();
+            StringBuilder answers = new StringBuilder();
+            for(int i = 0; i < shed; i++) {
+                if(i == 0 && shedResponse != null) {
+                    answers.append(shedResponse);
+                }
+                answers.append(System.lineSeparator()).append(InputReader.PROMPT);
+            }
+            out.print(answers);
+            out.flush();
+        }
+        return line;
+    }
+
     /**
      * Print a welcome message to the screen.
      */
     private void printWelcome()
     {
-        System.out.println("Welcome to the DodgySoft Technical Support System.");
-        System.out.println();
-        System.out.println("Please tell us about your problem.");
-        System.out.println("We will assist you with any problem you might have.");
-        System.out.println("Please type 'bye' to exit our system.");
+        for(String line : WELCOME) {
+            out.println(line);
+        }
     }
 
     /**
@@ -69,6 +167,6 @@ public class SupportSystem
      */
     private void printGoodbye()
     {
-        System.out.println("Nice talking to you. Bye...");
+        out.println(GOODBYE);
     }
 }
@@ -0,0 +1,131 @@
+/**
+ * A TextKnowledgeBase is a frozen copy of everything a Responder knows: the
+ * key words with their responses, and the default responses used when no
+ * key word is recognised. It is built from the text files, and keeps all
+ * of its text on the heap. It is made by a KnowledgeBaseBuilder, which
+ * keeps each distinct response only once.
+ *
+ * The key words are found through a PerfectHashTable rather than a
+ * HashMap, so that any CharSequence (such as the buffer of a Tokenizer) can
+ * be looked up without first making a String of it, and a word that is not
+ * a key word is turned away without comparing any text. A hit reads the
+ * bucket's seed, the slot and then the word, which with a million key
+ * words are all far apart in memory, so it gains little: it was measured
+ * (see KeywordLookupBenchmark) at about 146 ns against 151 ns for the
+ * WordTable used before, while a miss went from 47 to 34 ns. Key word
+ * indexes follow the order in which the key words were given.
+ *
+ * A TextKnowledgeBase never changes after it has been created and all of its
+ * fields are final, so it can be shared between threads without locking.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public final class TextKnowledgeBase implements KnowledgeBase
+{
+    // Maps each key word to its index. Never modified after construction.
+    private final PerfectHashTable keywordTable;
+    // The key words, response ids and weights, indexed by key word index.
+    private final String[] keywords;
+    private final int[] responseIds;
+    private final int[] weights;
+    // Each distinct response, indexed by response id.
+    private final String[] responses;
+    // Default responses to use if we don't recognise a word.
+    private final String[] defaultResponses;
+
+    /**
+     * Create a knowledge base from the tables of a KnowledgeBaseBuilder,
+     * which are used as they are rather than copied.
+     *
+     * @param keywordTable      Maps each key word to its index
+     * @param keywords          The key words, by index
+     * @param responseIds       The response id of each key word
+     * @param weights           The weight of each key word
+     * @param responses         The distinct responses, by response id
+     * @param defaultResponses  The default responses; must not be empty
+     */
+    TextKnowledgeBase(PerfectHashTable keywordTable, String[] keywords, int[] responseIds,
+                      int[] weights, String[] responses, String[] defaultResponses)
+    {
+        this.keywordTable = keywordTable;
+        this.keywords = keywords;
+        this.responseIds = responseIds;
+        this.weights = weights;
+        this.responses = responses;
+        this.defaultResponses = defaultResponses;
+    }
+
+    /**
+     * Find a key word.
+     *
+     * @param word  A word entered by the user
+     * @return      The key word's index, or -1 if it is not a key word
+     */
+    public int findKeyword(CharSequence word)
+    {
+        return keywordTable.get(word);
+    }
+
+    /**
+     * @return  The number of key words
+     */
+    public int getKeywordCount()
+    {
+        return keywords.length;
+    }
+
+    /**
+     * @param keyword  A key word index, from 0 to getKeywordCount() - 1
+     * @return         The key word
+     */
+    public String getKeyword(int keyword)
+    {
+        return keywords[keyword];
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The response id of that key word
+     */
+    public int getResponseId(int keyword)
+    {
+        return responseIds[keyword];
+    }
+
+    /**
+     * @param keyword  A key word index
+     * @return         The weight of that key word
+     */
+    public int getWeight(int keyword)
+    {
+        return weights[keyword];
+    }
+
+    /**
+     * @param responseId  A response id
+     * @return            The text of that response
+     */
+    public String getResponse(int responseId)
+    {
+        return responses[responseId];
+    }
+
+    /**
+     * @return  The number of default responses
+     */
+    public int getDefaultResponseCount()
+    {
+        return defaultResponses.length;
+    }
+
+    /**
+     * @param index  The index of a default response
+     * @return       The default response at that index
+     */
+    public String getDefaultResponse(int index)
+    {
+        return defaultResponses[index];
+    }
+}
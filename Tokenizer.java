@@ -0,0 +1,153 @@
+/**
+ * A Tokenizer chops a line of text into words without creating a String
+ * for each word. It walks along the line and copies each word, in lower
+ * case, into a buffer that is reused for every word and every line. The
+ * current word can then be looked up directly (see KnowledgeBase).
+ *
+ * A word is a run of letters and digits. Everything else (spaces,
+ * punctuation, symbols) separates words, so "Crash?" and "crash" are the
+ * same word and double spaces never produce empty words.
+ *
+ * A Tokenizer is not thread safe; each thread or session should use its
+ * own. Once its buffer has grown to the longest word seen, it allocates
+ * nothing at all.
+ *
+ * A typical loop looks like this:
+ *      tokenizer.reset(line);
+ *      while(tokenizer.next()) {
+ *          CharSequence word = tokenizer.getToken();
+ *          ...
+ *      }
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class Tokenizer
+{
+    // Holds the current word. Reused for every word.
+    private final StringBuilder token;
+    // The line being tokenized.
+    private CharSequence line;
+    // Where to start looking for the next word.
+    private int position;
+
+    /**
+     * Create a Tokenizer.
+     */
+    public Tokenizer()
+    {
+        token = new StringBuilder(32);
+        line = "";
+    }
+
+    /**
+     * Start tokenizing a new line.
+     *
+     * @param line  The line to tokenize
+     */
+    public void reset(CharSequence line)
+    {
+        this.line = line;
+        position = 0;
+        token.setLength(0);
+    }
+
+    /**
+     * Move to the next word of the line.
+     *
+     * @return  true if there is another word, false at the end of the line
+     */
+    public boolean next()
+    {
+        token.setLength(0);
+        int length = line.length();
+        // skip separators
+        while(position < length && !isWordChar(line.charAt(position))) {
+            position++;
+        }
+        // copy the word, lower case
+        while(position < length) {
+            char c = line.charAt(position);
+            if(!isWordChar(c)) {
+                break;
+            }
+            token.append(Character.toLowerCase(c));
+            position++;
+        }
+        return token.length() > 0;
+    }
+
+    /**
+     * The current word. The returned object is overwritten by the next call
+     * to next() or reset(), so call toString() on it to keep it.
+     *
+     * @return  The current word, in lower case
+     */
+    public CharSequence getToken()
+    {
+        return token;
+    }
+
+    /**
+     * Check whether a line contains the given word.
+     *
+     * @param line  The line to search
+     * @param word  The word to find, in lower case
+     * @return      true if the word is one of the line's words
+     */
+    public boolean contains(CharSequence line, String word)
+    {
+        reset(line);
+        while(next()) {
+            if(word.contentEquals(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Put a key word into the form the Tokenizer produces: its words in
+     * lower case, separated by single spaces. "Blue  Screen" becomes
+     * "blue screen" and "Crash!" becomes "crash". This is used while
+     * loading key words, so it may allocate.
+     *
+     * @param text  The text to normalize
+     * @return      Its words, or an empty string if it has none
+     */
+    public String normalize(CharSequence text)
+    {
+        StringBuilder words = new StringBuilder(text.length());
+        normalize(text, words);
+        return words.toString();
+    }
+
+    /**
+     * Put a line into normalized form, as normalize(text) does, but into a
+     * buffer that the caller can reuse, so that nothing is allocated.
+     *
+     * @param text   The text to normalize
+     * @param words  The buffer to write the words to; it is cleared first
+     */
+    public void normalize(CharSequence text, StringBuilder words)
+    {
+        words.setLength(0);
+        reset(text);
+        while(next()) {
+            if(words.length() > 0) {
+                words.append(' ');
+            }
+            words.append(token);
+        }
+    }
+
+    /**
+     * @param c  A character
+     * @return   true if the character can be part of a word
+     */
+    private static boolean isWordChar(char c)
+    {
+        return Character.isLetterOrDigit(c);
+    }
+}
@@ -0,0 +1,520 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A TranscriptJournal keeps an audit trail of every line a user types and
+ * every response given to it, without making the dialog wait for the disk.
+ *
+ * record() only puts the exchange in a slot of a ring and returns: a slot
+ * is claimed with a compare and set on the ring's tail, so threads never
+ * take a lock, and if the ring is full the exchange is counted as dropped
+ * rather than waited for. A background thread takes the exchanges from the
+ * ring in order and appends them to the current segment file, which is
+ * memory mapped, so writing a record is copying bytes; the operating
+ * system gets them to the disk. When a segment is full the next one is
+ * started, and the old one is forced to disk by the background thread.
+ *
+ * The journal is a directory of segment files named journal-00000001.tsj,
+ * journal-00000002.tsj and so on. A new journal never appends to old
+ * segments, but starts after the last one there. Each segment is
+ * SEGMENT_HEADER_SIZE bytes of header:
+ *      int   MAGIC
+ *      int   VERSION
+ * followed by records:
+ *      int   the length of the rest of the record; 0 ends the segment
+ *      long  when the line was answered, in milliseconds since the epoch
+ *      long  the dialog's session id (see SessionStore), or 0
+ *      int   the length of the line in bytes
+ *            the line, in UTF-8
+ *            the response, in UTF-8, to the end of the record
+ * A record's length is written after the rest of it, so a journal cut off
+ * part way through a record reads as ending just before it. A segment is
+ * made large enough for its first record, however long that is.
+ *
+ * replay() reads a journal back, and running this class replays one to
+ * the terminal:
+ *      java TranscriptJournal journal
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class TranscriptJournal
+{
+    // The first int of every segment, "TSJ1".
+    public static final int MAGIC = 0x54534A31;
+    public static final int VERSION = 1;
+    public static final int SEGMENT_HEADER_SIZE = 8;
+    // The size of a segment file if none is given.
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    // The number of exchanges the ring holds if no size is given.
+    public static final int DEFAULT_RING_SIZE = 65536;
+    // The bytes of a record before its text.
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 4;
+    // The longest the writer sleeps when the ring is empty. The ring must
+    // hold the exchanges that can arrive in this time.
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // How often the writer forces the current segment to disk.
+    private static final long FORCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path directory;
+    private final int segmentSize;
+    // The ring. A slot holds the exchange with sequence number s when
+    // its published field is s.
+    private final Slot[] slots;
+    private final int mask;
+    // The next sequence number to claim, and the next one to write. Only
+    // the writer moves head.
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private volatile boolean closed;
+    private final Thread writer;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    // Used by the writer thread only.
+    private int segmentNumber;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private boolean failing;
+
+    /**
+     * Open a journal in a directory, with segments of the default size.
+     *
+     * @param directory  The directory the segments go in; it is made if
+     *                   it does not exist
+     * @throws IOException  If the first segment cannot be made
+     */
+    public TranscriptJournal(Path directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * Open a journal in a directory.
+     *
+     * @param directory    The directory the segments go in; it is made if
+     *                     it does not exist
+     * @param segmentSize  The size of a segment file in bytes
+     * @param ringSize     The most exchanges waiting to be written; rounded
+     *                     up to a power of two
+     * @throws IOException  If the first segment cannot be made
+     */
+    public TranscriptJournal(Path directory, int segmentSize, int ringSize) throws IOException
+    {
+        if(segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        if(ringSize < 1 || ringSize > 1 << 30) {
+            throw new IllegalArgumentException("ringSize must be from 1 to 2^30: " + ringSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        slots = new Slot[Integer.highestOneBit(ringSize * 2 - 1)];
+        for(int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        mask = slots.length - 1;
+
+        Files.createDirectories(directory);
+        List<Path> existing = segments(directory);
+        if(!existing.isEmpty()) {
+            segmentNumber = numberOf(existing.get(existing.size() - 1));
+        }
+        startSegment(0);
+        writer = new Thread(this::write, "transcript-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Add an exchange to the journal. This never waits: if the writer has
+     * fallen a whole ring behind, or the journal is closed, the exchange
+     * is dropped.
+     *
+     * @param session   The dialog's session id, or SessionStore.NO_SESSION
+     * @param line      The line the user typed; it is copied
+     * @param response  The response given
+     * @return          true if the exchange will be written
+     */
+    public boolean record(long session, CharSequence line, String response)
+    {
+        if(closed) {
+            dropped.increment();
+            return false;
+        }
+        long sequence;
+        do {
+            sequence = tail.get();
+            if(sequence - head >= slots.length) {
+                dropped.increment();
+                return false;
+            }
+        } while(!tail.compareAndSet(sequence, sequence + 1));
+        Slot slot = slots[(int) sequence & mask];
+        if(closed) {
+            // close() may have come between the check above and the claim,
+            // and the writer may be gone; let it skip the slot if not
+            slot.line = null;
+            slot.published = sequence;
+            dropped.increment();
+            return false;
+        }
+        slot.time = System.currentTimeMillis();
+        slot.session = session;
+        slot.line = line.toString();
+        slot.response = response;
+        // the writer takes the slot once it sees this
+        slot.published = sequence;
+        return true;
+    }
+
+    /**
+     * Write everything recorded so far, force it to disk and stop the
+     * writer. Exchanges recorded afterwards are dropped. An exchange
+     * recorded while the journal closes is either written, or dropped and
+     * counted, and record() returns false for it.
+     */
+    public void close()
+    {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return  The number of exchanges written to the segments
+     */
+    public long getWrittenCount()
+    {
+        return written.sum();
+    }
+
+    /**
+     * @return  The number of exchanges dropped because the ring was full,
+     *          the journal was closed or a segment could not be written
+     */
+    public long getDroppedCount()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * @return  A one line summary of the counters
+     */
+    public String toString()
+    {
+        return "TranscriptJournal[written=" + getWrittenCount() +
+               ", dropped=" + getDroppedCount() + ", segment=" + segmentNumber + "]";
+    }
+
+    /**
+     * The writer thread: take exchanges from the ring in order and append
+     * them, sleeping a little longer each time the ring is found empty.
+     */
+    private void write()
+    {
+        long idle = 1000;
+        long lastForce = System.nanoTime();
+        while(true) {
+            long sequence = head;
+            Slot slot = slots[(int) sequence & mask];
+            if(slot.published == sequence) {
+                if(slot.line != null) {
+                    append(slot);
+                }
+                slot.line = null;
+                slot.response = null;
+                head = sequence + 1;
+                idle = 1000;
+            }
+            else if(closed && tail.get() == sequence) {
+                break;
+            }
+            else {
+                if(System.nanoTime() - lastForce > FORCE_NANOS) {
+                    force();
+                    lastForce = System.nanoTime();
+                }
+                LockSupport.parkNanos(idle);
+                idle = Math.min(idle * 2, MAX_IDLE_NANOS);
+            }
+        }
+        force();
+        closeSegment();
+    }
+
+    /**
+     * Append one exchange to the current segment, starting a new one if
+     * it does not fit.
+     */
+    private void append(Slot slot)
+    {
+        byte[] line = slot.line.getBytes(StandardCharsets.UTF_8);
+        byte[] response = slot.response.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER_SIZE + line.length + response.length;
+        try {
+            if(segment == null || segment.remaining() < length) {
+                force();
+                closeSegment();
+                startSegment(length);
+            }
+        }
+        catch(IOException e) {
+            if(!failing) {
+                System.err.println("Unable to write the transcript journal in " + directory +
+                                   ": " + e.getMessage());
+                failing = true;
+            }
+            segment = null;
+            dropped.increment();
+            return;
+        }
+        failing = false;
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putLong(slot.time);
+        segment.putLong(slot.session);
+        segment.putInt(line.length);
+        segment.put(line);
+        segment.put(response);
+        // the length last, so a record is only seen once it is complete
+        segment.putInt(start, length - 4);
+        written.increment();
+    }
+
+    /**
+     * Make the next segment file and map it.
+     *
+     * @param recordLength  The length of the first record to go in it
+     * @throws IOException  If the file cannot be made or mapped
+     */
+    private void startSegment(int recordLength) throws IOException
+    {
+        segmentNumber++;
+        Path file = directory.resolve(String.format("journal-%08d.tsj", segmentNumber));
+        int size = Math.max(segmentSize, SEGMENT_HEADER_SIZE + recordLength);
+        segmentChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                                          StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        catch(IOException e) {
+            closeSegment();
+            throw e;
+        }
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+    }
+
+    /**
+     * Force what has been written to the current segment to disk.
+     */
+    private void force()
+    {
+        if(segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Close the current segment's file. The mapping stays until it is
+     * collected, but nothing more is written to it.
+     */
+    private void closeSegment()
+    {
+        segment = null;
+        if(segmentChannel != null) {
+            try {
+                segmentChannel.close();
+            }
+            catch(IOException e) {
+                // the mapping has what was written
+            }
+            segmentChannel = null;
+        }
+    }
+
+    /**
+     * Read every exchange in a journal, in the order they were written.
+     *
+     * @param directory  The journal's directory
+     * @param exchanges  Given each exchange in turn
+     * @throws IOException  If a segment cannot be read or is not a segment
+     */
+    public static void replay(Path directory, Consumer<Exchange> exchanges) throws IOException
+    {
+        for(Path file : segments(directory)) {
+            ByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if(segment.remaining() < SEGMENT_HEADER_SIZE || segment.getInt() != MAGIC) {
+                throw new IOException(file + " is not a journal segment");
+            }
+            int version = segment.getInt();
+            if(version != VERSION) {
+                throw new IOException(file + " is version " + version + ", not " + VERSION);
+            }
+            try {
+                while(segment.remaining() >= RECORD_HEADER_SIZE) {
+                    int length = segment.getInt();
+                    if(length <= 0 || length > segment.remaining()) {
+                        break;
+                    }
+                    long time = segment.getLong();
+                    long session = segment.getLong();
+                    int lineLength = segment.getInt();
+                    byte[] line = new byte[lineLength];
+                    segment.get(line);
+                    byte[] response = new byte[length - RECORD_HEADER_SIZE + 4 - lineLength];
+                    segment.get(response);
+                    exchanges.accept(new Exchange(time, session,
+                                                  new String(line, StandardCharsets.UTF_8),
+                                                  new String(response, StandardCharsets.UTF_8)));
+                }
+            }
+            catch(BufferUnderflowException | NegativeArraySizeException e) {
+                throw new IOException(file + " has a damaged record");
+            }
+        }
+    }
+
+    /**
+     * @param directory  A journal's directory
+     * @return           Its segment files, in order
+     * @throws IOException  If the directory cannot be listed
+     */
+    private static List<Path> segments(Path directory) throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.tsj")) {
+            for(Path file : stream) {
+                files.add(file);
+            }
+        }
+        // the numbers have leading zeros, so names sort in number order
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * @param file  A segment file
+     * @return      Its number
+     */
+    private static int numberOf(Path file)
+    {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("journal-".length(), name.length() - ".tsj".length()));
+    }
+
+    /**
+     * One slot of the ring.
+     */
+    private static final class Slot
+    {
+        private volatile long published = -1;
+        private long time;
+        private long session;
+        // null in a slot given up because the journal closed.
+        private String line;
+        private String response;
+    }
+
+    /**
+     * One line and the response to it, as read back from a journal.
+     */
+    public static final class Exchange
+    {
+        private final long time;
+        private final long session;
+        private final String line;
+        private final String response;
+
+        private Exchange(long time, long session, String line, String response)
+        {
+            this.time = time;
+            this.session = session;
+            this.line = line;
+            this.response = response;
+        }
+
+        /**
+         * @return  When the line was answered, in milliseconds since the epoch
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+        /**
+         * @return  The dialog's session id, or 0 if it had none
+         */
+        public long getSession()
+        {
+            return session;
+        }
+
+        /**
+         * @return  The line the user typed
+         */
+        public String getLine()
+        {
+            return line;
+        }
+
+        /**
+         * @return  The response given
+         */
+        public String getResponse()
+        {
+            return response;
+        }
+    }
+
+    /**
+     * Replay a journal to the terminal: each exchange's time and session,
+     * then the line and the response.
+     *
+     * @param args  The journal's directory
+     * @throws IOException  If the journal cannot be read
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 1) {
+            System.err.println("Usage: java TranscriptJournal <directory>");
+            return;
+        }
+        replay(Paths.get(args[0]), exchange -> {
+            System.out.println(Instant.ofEpochMilli(exchange.getTime()) + " session " +
+                               Long.toHexString(exchange.getSession()));
+            System.out.println("> " + exchange.getLine());
+            System.out.println(exchange.getResponse());
+            System.out.println();
+        });
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * TranscriptJournalCheck has several threads record exchanges into a
+ * TranscriptJournal whose ring is small, so that it wraps round many times
+ * and now and then fills up, and whose segments are small, so that many
+ * are started. It then reads the journal back and checks that every
+ * exchange record() accepted was written once, whole and in the order its
+ * thread recorded it, and that every other exchange was counted as
+ * dropped.
+ *
+ * Run it from the project directory:
+ *      java TranscriptJournalCheck
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class TranscriptJournalCheck
+{
+    // The number of threads recording at once.
+    private static final int THREADS = 4;
+    // The number of exchanges each thread records.
+    private static final int EXCHANGES = 50_000;
+    // The size of the ring and of a segment file.
+    private static final int RING_SIZE = 1024;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private final Path directory;
+    // How many exchanges of each thread record() accepted.
+    private final int[] accepted = new int[THREADS];
+
+    /**
+     * Create a check that keeps its journal in a new temporary directory.
+     *
+     * @throws IOException  If the directory cannot be made
+     */
+    public TranscriptJournalCheck() throws IOException
+    {
+        directory = Files.createTempDirectory("journal-check");
+    }
+
+    /**
+     * Record the exchanges from every thread, then close the journal.
+     *
+     * @return  The journal, closed
+     * @throws IOException           If the journal cannot be opened
+     * @throws InterruptedException  If interrupted while waiting
+     */
+    public TranscriptJournal record() throws IOException, InterruptedException
+    {
+        TranscriptJournal journal = new TranscriptJournal(directory, SEGMENT_SIZE, RING_SIZE);
+        Thread[] threads = new Thread[THREADS];
+        for(int t = 0; t < THREADS; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for(int i = 0; i < EXCHANGES; i++) {
+                    if(journal.record(thread + 1, thread + " " + i, "response " + i)) {
+                        accepted[thread]++;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        journal.close();
+        return journal;
+    }
+
+    /**
+     * Read the journal back.
+     *
+     * @param journal  The journal, closed
+     * @return         true if every accepted exchange, and nothing else,
+     *                 was written whole and in order
+     * @throws IOException  If the journal cannot be read
+     */
+    public boolean check(TranscriptJournal journal) throws IOException
+    {
+        int[] written = new int[THREADS];
+        int[] last = new int[THREADS];
+        boolean[] ok = { true };
+        TranscriptJournal.replay(directory, exchange -> {
+            int thread = (int) exchange.getSession() - 1;
+            String[] line = exchange.getLine().split(" ");
+            int i = Integer.parseInt(line[1]);
+            // each thread's exchanges come back in order, once each
+            ok[0] &= Integer.parseInt(line[0]) == thread &&
+                     (written[thread] == 0 || i > last[thread]) &&
+                     exchange.getResponse().equals("response " + i);
+            last[thread] = i;
+            written[thread]++;
+        });
+        long total = 0;
+        for(int t = 0; t < THREADS; t++) {
+            ok[0] &= written[t] == accepted[t];
+            total += written[t];
+        }
+        return ok[0] && journal.getWrittenCount() == total &&
+               journal.getWrittenCount() + journal.getDroppedCount() == (long) THREADS * EXCHANGES;
+    }
+
+    /**
+     * Delete the journal.
+     *
+     * @throws IOException  If it cannot be deleted
+     */
+    public void delete() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Record, read back and report.
+     *
+     * @param args  Not used
+     * @throws IOException           If the journal cannot be written or read
+     * @throws InterruptedException  If interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        TranscriptJournalCheck check = new TranscriptJournalCheck();
+        try {
+            TranscriptJournal journal = check.record();
+            boolean passed = check.check(journal);
+            System.out.println(journal);
+            System.out.println(passed ? "Every accepted exchange was written in order"
+                                      : "Exchanges were LOST, REPEATED or OUT OF ORDER");
+        }
+        finally {
+            check.delete();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * A WordTable maps words to non-negative int values. It is an
+ * open-addressing hash table with linear probing, built for one job: looking
+ * up any CharSequence (such as the buffer of a Tokenizer) without making a
+ * String of it, and without boxing the value.
+ *
+ * The table is filled with put() before it is shared, and grows as words
+ * are put in it. Once filled it must not be changed; it can then be read
+ * by any number of threads.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public final class WordTable
+{
+    // The words, at the slot their hash leads to (or just after it).
+    // Empty slots are null.
+    private String[] words;
+    // The value of the word in the same slot of words.
+    private int[] values;
+    private int size;
+
+    /**
+     * Create an empty table.
+     *
+     * @param capacity  The number of words expected; the table grows if
+     *                  more are put in it
+     */
+    public WordTable(int capacity)
+    {
+        // keep the table at most half full so that probes stay short
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+        words = new String[tableSize];
+        values = new int[tableSize];
+    }
+
+    /**
+     * Add a word, unless it is already in the table.
+     *
+     * @param word   The word
+     * @param value  Its value; must not be negative
+     * @return       true if the word was added, false if it was already there
+     */
+    public boolean put(String word, int value)
+    {
+        if(size == words.length / 2) {
+            grow();
+        }
+        int mask = words.length - 1;
+        int slot = KnowledgeBase.hash(word) & mask;
+        while(words[slot] != null) {
+            if(words[slot].equals(word)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        words[slot] = word;
+        values[slot] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Double the size of the table, keeping it at most half full.
+     */
+    private void grow()
+    {
+        String[] oldWords = words;
+        int[] oldValues = values;
+        words = new String[oldWords.length * 2];
+        values = new int[oldWords.length * 2];
+        int mask = words.length - 1;
+        for(int i = 0; i < oldWords.length; i++) {
+            if(oldWords[i] != null) {
+                int slot = KnowledgeBase.hash(oldWords[i]) & mask;
+                while(words[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                words[slot] = oldWords[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Look up a word.
+     *
+     * @param word  The word to find
+     * @return      Its value, or -1 if it is not in the table
+     */
+    public int get(CharSequence word)
+    {
+        int mask = words.length - 1;
+        int slot = KnowledgeBase.hash(word) & mask;
+        String key = words[slot];
+        while(key != null) {
+            if(key.contentEquals(word)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+            key = words[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * @return  The number of words in the table
+     */
+    public int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks like org.openjdk.jmh.Main, but with the GC profiler
+ * switched on unless another profiler is asked for, so that every result
+ * comes with its allocation rate (gc.alloc.rate.norm is the number of bytes
+ * allocated per operation).
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class BenchmarkMain
+{
+    /**
+     * @param args  JMH command line options
+     * @throws Exception  If JMH fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if(!Arrays.asList(args).contains("-prof")) {
+            String[] withProfiler = Arrays.copyOf(args, args.length + 2);
+            withProfiler[args.length] = "-prof";
+            withProfiler[args.length + 1] = "gc";
+            args = withProfiler;
+        }
+        org.openjdk.jmh.Main.main(args);
+    }
+}
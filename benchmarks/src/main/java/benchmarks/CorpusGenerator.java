@@ -0,0 +1,291 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A CorpusGenerator makes synthetic knowledge bases and input lines for the
+ * benchmarks. The key words are made of random syllables, so they look
+ * enough like words for stemming and spelling correction to behave as they
+ * would on real ones. The same seed always gives the same corpus.
+ *
+ * The files are written in the same format as keyvalue.txt and
+ * default2.txt: blocks separated by blank lines, with one to three keys per
+ * block, some of them weighted ("key:2") and some of them two word phrases.
+ *
+ * Run it on its own to write a corpus to a directory:
+ *      java -cp target/benchmarks.jar benchmarks.CorpusGenerator dir 100000
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+public class CorpusGenerator
+{
+    // Key words are built from these letters only, and words that must not
+    // match anything from the others, so the two never collide.
+    private static final String KEY_CONSONANTS = "bcdfgklmnprstv";
+    private static final String KEY_VOWELS = "aeiou";
+    private static final String MISS_CONSONANTS = "jqxz";
+    private static final String MISS_VOWELS = "yw";
+    // Short everyday words that surround the key words in input lines.
+    private static final String[] FILLER = {
+        "my", "the", "it", "is", "a", "when", "i", "to", "on", "and", "why",
+    };
+    // The number of default responses written.
+    private static final int DEFAULT_RESPONSES = 20;
+    // The number of words in an input line.
+    private static final int WORDS_PER_LINE = 8;
+
+    private final Random random;
+    // The single word key words of the last corpus written.
+    private final List<String> keywords;
+
+    /**
+     * Create a generator.
+     *
+     * @param seed  The seed for the random choices
+     */
+    public CorpusGenerator(long seed)
+    {
+        random = new Random(seed);
+        keywords = new ArrayList<>();
+    }
+
+    /**
+     * Write keyvalue.txt and default2.txt to a directory.
+     *
+     * @param directory     The directory; it must exist
+     * @param keywordCount  The number of keys to write
+     * @throws IOException  If a file cannot be written
+     */
+    public void write(Path directory, int keywordCount) throws IOException
+    {
+        LinkedHashSet<String> keys = new LinkedHashSet<>();
+        keywords.clear();
+        try (BufferedWriter out = Files.newBufferedWriter(directory.resolve("keyvalue.txt"),
+                                                          StandardCharsets.US_ASCII))
+        {
+            int written = 0;
+            while(written < keywordCount) {
+                StringBuilder keyLine = new StringBuilder();
+                int perBlock = Math.min(1 + random.nextInt(3), keywordCount - written);
+                for(int i = 0; i < perBlock; i++) {
+                    String key = newKey(keys);
+                    if(keyLine.length() > 0) {
+                        keyLine.append(", ");
+                    }
+                    keyLine.append(key);
+                    if(random.nextInt(10) == 0) {
+                        keyLine.append(":2");
+                    }
+                }
+                written += perBlock;
+                if(written > perBlock) {
+                    out.newLine();
+                }
+                out.write(keyLine.toString());
+                out.newLine();
+                out.write(sentence());
+                out.newLine();
+                out.write(sentence());
+                out.newLine();
+            }
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(directory.resolve("default2.txt"),
+                                                          StandardCharsets.US_ASCII))
+        {
+            for(int i = 0; i < DEFAULT_RESPONSES; i++) {
+                if(i > 0) {
+                    out.newLine();
+                }
+                out.write(sentence());
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * @return  A line with one or two key words of the last corpus among
+     *          filler words
+     */
+    public String hitLine()
+    {
+        String[] words = fillerWords();
+        words[random.nextInt(words.length)] = randomKeyword();
+        words[random.nextInt(words.length)] = randomKeyword();
+        return String.join(" ", words);
+    }
+
+    /**
+     * @return  A line with a misspelled key word of the last corpus, which
+     *          only spelling correction can find
+     */
+    public String misspelledLine()
+    {
+        String[] words = fillerWords();
+        String keyword = randomKeyword();
+        while(keyword.length() < 6) {
+            keyword = randomKeyword();
+        }
+        // change one letter in the middle
+        int at = 2 + random.nextInt(keyword.length() - 4);
+        char c = keyword.charAt(at) == 'a' ? 'o' : 'a';
+        words[random.nextInt(words.length)] = keyword.substring(0, at) + c +
+                                              keyword.substring(at + 1);
+        return String.join(" ", words);
+    }
+
+    /**
+     * @return  A line with no key word, not even a misspelled one, so that a
+     *          default response is given
+     */
+    public String missLine()
+    {
+        String[] words = fillerWords();
+        for(int i = 0; i < words.length; i += 2) {
+            words[i] = word(MISS_CONSONANTS, MISS_VOWELS, 2 + random.nextInt(3));
+        }
+        return String.join(" ", words);
+    }
+
+    /**
+     * @return  The single word key words of the last corpus, in the order
+     *          they were written
+     */
+    public String[] getKeywords()
+    {
+        return keywords.toArray(new String[0]);
+    }
+
+    /**
+     * @return  A word that is not a key word of any corpus
+     */
+    public String missWord()
+    {
+        return random.nextBoolean() ? FILLER[random.nextInt(FILLER.length)]
+                                    : word(MISS_CONSONANTS, MISS_VOWELS, 2 + random.nextInt(3));
+    }
+
+    /**
+     * @param count  How many lines
+     * @param kind   "hit", "misspelled" or "miss"
+     * @return       That many lines of that kind
+     */
+    public String[] lines(int count, String kind)
+    {
+        String[] lines = new String[count];
+        for(int i = 0; i < count; i++) {
+            switch(kind) {
+                case "hit":        lines[i] = hitLine();        break;
+                case "misspelled": lines[i] = misspelledLine(); break;
+                case "miss":       lines[i] = missLine();       break;
+                default:
+                    throw new IllegalArgumentException("unknown kind of line: " + kind);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Make a key that is not in keys yet, and add it. One in twenty is a
+     * two word phrase.
+     *
+     * @param keys  The keys so far
+     * @return      The new key
+     */
+    private String newKey(LinkedHashSet<String> keys)
+    {
+        while(true) {
+            String key = word(KEY_CONSONANTS, KEY_VOWELS, 2 + random.nextInt(3));
+            boolean phrase = random.nextInt(20) == 0;
+            if(phrase) {
+                key = key + " " + word(KEY_CONSONANTS, KEY_VOWELS, 2 + random.nextInt(2));
+            }
+            if(keys.add(key)) {
+                if(!phrase) {
+                    keywords.add(key);
+                }
+                return key;
+            }
+        }
+    }
+
+    /**
+     * @return  A key word of the last corpus
+     */
+    private String randomKeyword()
+    {
+        return keywords.get(random.nextInt(keywords.size()));
+    }
+
+    /**
+     * @return  A line's worth of filler words
+     */
+    private String[] fillerWords()
+    {
+        String[] words = new String[WORDS_PER_LINE];
+        for(int i = 0; i < words.length; i++) {
+            words[i] = FILLER[random.nextInt(FILLER.length)];
+        }
+        return words;
+    }
+
+    /**
+     * @return  A sentence of random words, for a response
+     */
+    private String sentence()
+    {
+        StringBuilder sentence = new StringBuilder();
+        int length = 6 + random.nextInt(8);
+        for(int i = 0; i < length; i++) {
+            if(i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(word(KEY_CONSONANTS, KEY_VOWELS, 1 + random.nextInt(3)));
+        }
+        return sentence.append('.').toString();
+    }
+
+    /**
+     * @param consonants  The consonants to use
+     * @param vowels      The vowels to use
+     * @param syllables   The number of syllables
+     * @return            A word of that many consonant-vowel syllables
+     */
+    private String word(String consonants, String vowels, int syllables)
+    {
+        StringBuilder word = new StringBuilder(syllables * 2);
+        for(int i = 0; i < syllables; i++) {
+            word.append(consonants.charAt(random.nextInt(consonants.length())));
+            word.append(vowels.charAt(random.nextInt(vowels.length())));
+        }
+        return word.toString();
+    }
+
+    /**
+     * Write a corpus.
+     *
+     * @param args  The directory and the number of keys, and optionally a seed
+     * @throws IOException  If a file cannot be written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 2) {
+            System.err.println("usage: CorpusGenerator directory keywords [seed]");
+            return;
+        }
+        Path directory = Paths.get(args[0]);
+        Files.createDirectories(directory);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        new CorpusGenerator(seed).write(directory, Integer.parseInt(args[1]));
+    }
+}
@@ -0,0 +1,119 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long it takes to look one word up among the key words: in the
+ * WordTable a KnowledgeBaseBuilder fills, and in the PerfectHashTable the
+ * knowledge base it builds keeps. Words are looked up as StringBuilders,
+ * as a Tokenizer hands them over, both key words ("hit") and other words
+ * ("miss"), which is what most words a user types are.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordLookupBenchmark
+{
+    // The number of different words looked up; a power of two.
+    private static final int WORDS = 4096;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int keywords;
+
+    private Object wordTable;
+    private Object perfectHashTable;
+    private CharSequence[] hits;
+    private CharSequence[] misses;
+    private int next;
+    // The directory the corpus is written to.
+    private Path directory;
+
+    /**
+     * Make the key words, both tables and the words to look up.
+     *
+     * @throws IOException  If the corpus cannot be written
+     */
+    @Setup(Level.Trial)
+    public void makeTables() throws IOException
+    {
+        CorpusGenerator generator = new CorpusGenerator(42);
+        directory = Files.createTempDirectory("techsupport-corpus");
+        generator.write(directory, keywords);
+        String[] words = generator.getKeywords();
+        wordTable = Support.newWordTable(words);
+        perfectHashTable = Support.newPerfectHashTable(words);
+        hits = new CharSequence[WORDS];
+        misses = new CharSequence[WORDS];
+        for(int i = 0; i < WORDS; i++) {
+            hits[i] = new StringBuilder(words[(int) ((long) i * words.length / WORDS)]);
+            misses[i] = new StringBuilder(generator.missWord());
+        }
+    }
+
+    /**
+     * Delete the corpus.
+     *
+     * @throws IOException  If it cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void deleteCorpus() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int wordTableHit()
+    {
+        next = (next + 1) & (WORDS - 1);
+        return Support.wordTableGet(wordTable, hits[next]);
+    }
+
+    @Benchmark
+    public int wordTableMiss()
+    {
+        next = (next + 1) & (WORDS - 1);
+        return Support.wordTableGet(wordTable, misses[next]);
+    }
+
+    @Benchmark
+    public int perfectHashTableHit()
+    {
+        next = (next + 1) & (WORDS - 1);
+        return Support.perfectHashTableGet(perfectHashTable, hits[next]);
+    }
+
+    @Benchmark
+    public int perfectHashTableMiss()
+    {
+        next = (next + 1) & (WORDS - 1);
+        return Support.perfectHashTableGet(perfectHashTable, misses[next]);
+    }
+}
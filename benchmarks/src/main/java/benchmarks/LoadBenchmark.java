@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long it takes to construct a Responder, that is to read a knowledge
+ * base and build its lookup tables, for knowledge bases of several sizes.
+ * The "text" format parses keyvalue.txt and default2.txt; the "compiled"
+ * format maps the file written by KnowledgeBaseCompiler.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoadBenchmark
+{
+    @Param({ "100", "10000", "100000" })
+    public int keywords;
+
+    @Param({ "text", "compiled" })
+    public String format;
+
+    // The directory the corpus is written to.
+    private Path directory;
+
+    /**
+     * Write the corpus, and compile it if needed.
+     *
+     * @throws IOException  If the corpus cannot be written
+     */
+    @Setup(Level.Trial)
+    public void writeCorpus() throws IOException
+    {
+        directory = Files.createTempDirectory("techsupport-corpus");
+        new CorpusGenerator(42).write(directory, keywords);
+        if(format.equals("compiled")) {
+            Support.compile(directory);
+        }
+    }
+
+    /**
+     * Delete the corpus.
+     *
+     * @throws IOException  If it cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void deleteCorpus() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object load()
+    {
+        return Support.newResponder(directory);
+    }
+}
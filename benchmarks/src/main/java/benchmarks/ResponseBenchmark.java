@@ -0,0 +1,139 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long Responder.generateResponse takes for a line of input, for
+ * knowledge bases of several sizes and three kinds of line:
+ *      hit         the line contains key words;
+ *      misspelled  the line contains a misspelled key word, which only
+ *                  the spelling index can find;
+ *      miss        nothing matches, so a default response is chosen.
+ * The parallel versions run one thread per processor against the same
+ * Responder, to show whether threads get in each other's way.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark
+{
+    // The number of different lines of each kind.
+    private static final int LINES = 1024;
+
+    @Param({ "100", "10000", "100000" })
+    public int keywords;
+
+    private Object responder;
+    private String[] hitLines;
+    private String[] misspelledLines;
+    private String[] missLines;
+    // The directory the corpus is written to.
+    private Path directory;
+
+    /**
+     * Each thread's place in the lines, so threads do not share a counter.
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private int next;
+
+        /**
+         * @return  The index of the next line to use
+         */
+        int next()
+        {
+            next = (next + 1) & (LINES - 1);
+            return next;
+        }
+    }
+
+    /**
+     * Write a corpus, load it and make the input lines.
+     *
+     * @throws IOException  If the corpus cannot be written
+     */
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        directory = Files.createTempDirectory("techsupport-corpus");
+        CorpusGenerator generator = new CorpusGenerator(42);
+        generator.write(directory, keywords);
+        responder = Support.newResponder(directory);
+        hitLines = generator.lines(LINES, "hit");
+        misspelledLines = generator.lines(LINES, "misspelled");
+        missLines = generator.lines(LINES, "miss");
+    }
+
+    /**
+     * Delete the corpus.
+     *
+     * @throws IOException  If it cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void deleteCorpus() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String hit(Cursor cursor)
+    {
+        return Support.generateResponse(responder, hitLines[cursor.next()]);
+    }
+
+    @Benchmark
+    public String misspelled(Cursor cursor)
+    {
+        return Support.generateResponse(responder, misspelledLines[cursor.next()]);
+    }
+
+    @Benchmark
+    public String miss(Cursor cursor)
+    {
+        return Support.generateResponse(responder, missLines[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String hitParallel(Cursor cursor)
+    {
+        return Support.generateResponse(responder, hitLines[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String missParallel(Cursor cursor)
+    {
+        return Support.generateResponse(responder, missLines[cursor.next()]);
+    }
+}
@@ -0,0 +1,126 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to first response, as a newly started process sees it. Every
+ * sample is taken in a JVM of its own, with no JMH warm up, so nothing has
+ * been loaded or compiled before it.
+ *      firstResponse       constructs a Responder and answers one line:
+ *                          the wait of the first user of a new process;
+ *      firstResponseReady  answers one line with a Responder constructed
+ *                          and warmed up (Responder.warmUp) beforehand, or
+ *                          not warmed up when warmUpLines is 0.
+ * The "text" format parses keyvalue.txt and default2.txt; the "compiled"
+ * format opens the file written by KnowledgeBaseCompiler, which holds the
+ * Responder's lookup tables ready built.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark
+{
+    @Param({ "1000", "100000" })
+    public int keywords;
+
+    @Param({ "text", "compiled" })
+    public String format;
+
+    // The directory the corpus is written to.
+    private Path directory;
+    // The line answered first.
+    private String line;
+
+    /**
+     * A Responder constructed before the measurement.
+     */
+    @State(Scope.Benchmark)
+    public static class Ready
+    {
+        @Param({ "0", "10000" })
+        public int warmUpLines;
+
+        private Object responder;
+
+        /**
+         * Construct the Responder and warm it up.
+         *
+         * @param corpus  The benchmark, whose corpus is used
+         */
+        @Setup(Level.Trial)
+        public void construct(StartupBenchmark corpus)
+        {
+            responder = Support.newResponder(corpus.directory);
+            Support.warmUp(responder, warmUpLines);
+        }
+    }
+
+    /**
+     * Write the corpus, and compile it if needed.
+     *
+     * @throws IOException  If the corpus cannot be written
+     */
+    @Setup(Level.Trial)
+    public void writeCorpus() throws IOException
+    {
+        directory = Files.createTempDirectory("techsupport-corpus");
+        CorpusGenerator generator = new CorpusGenerator(42);
+        generator.write(directory, keywords);
+        if(format.equals("compiled")) {
+            Support.compile(directory);
+        }
+        line = generator.hitLine();
+        Support.linkGenerateResponse();
+    }
+
+    /**
+     * Delete the corpus.
+     *
+     * @throws IOException  If it cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void deleteCorpus() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String firstResponse()
+    {
+        return Support.generateResponse(Support.newResponder(directory), line);
+    }
+
+    @Benchmark
+    public String firstResponseReady(Ready ready)
+    {
+        return Support.generateResponse(ready.responder, line);
+    }
+}
@@ -0,0 +1,364 @@
+package benchmarks;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Support gives the benchmarks access to the TechSupport classes. Those
+ * classes are in the default package, as BlueJ keeps them, and Java code in
+ * a named package (which JMH requires) cannot refer to them by name. So
+ * each method used is looked up once, as a constant MethodHandle, and
+ * called through it. The JIT compiles a call through a constant handle
+ * like a direct call, so this does not show in the results.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+final class Support
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final MethodHandle NEW_RESPONDER =
+        constructor("Responder", Path.class);
+    private static final MethodHandle GENERATE_RESPONSE =
+        method("Responder", "generateResponse", String.class, CharSequence.class);
+    private static final MethodHandle WARM_UP =
+        method("Responder", "warmUp", void.class, int.class);
+    private static final MethodHandle COMPILE =
+        mainMethod("KnowledgeBaseCompiler");
+    private static final MethodHandle NEW_TOKENIZER =
+        constructor("Tokenizer");
+    private static final MethodHandle TOKENIZER_RESET =
+        method("Tokenizer", "reset", void.class, CharSequence.class);
+    private static final MethodHandle TOKENIZER_NEXT =
+        method("Tokenizer", "next", boolean.class);
+    private static final MethodHandle TOKENIZER_TOKEN =
+        method("Tokenizer", "getToken", CharSequence.class);
+    private static final MethodHandle NEW_WORD_TABLE =
+        constructor("WordTable", int.class);
+    private static final MethodHandle WORD_TABLE_PUT =
+        method("WordTable", "put", boolean.class, String.class, int.class);
+    private static final MethodHandle WORD_TABLE_GET =
+        method("WordTable", "get", int.class, CharSequence.class);
+    private static final MethodHandle NEW_PERFECT_HASH_TABLE =
+        constructor("PerfectHashTable", String[].class);
+    private static final MethodHandle PERFECT_HASH_TABLE_GET =
+        method("PerfectHashTable", "get", int.class, CharSequence.class);
+    private static final MethodHandle NEW_INPUT_READER =
+        constructor("InputReader", InputStream.class, PrintStream.class);
+    private static final MethodHandle GET_INPUT =
+        method("InputReader", "getInput", HashSet.class);
+
+    private Support()
+    {
+    }
+
+    /**
+     * @param directory  The directory holding keyvalue.txt and default2.txt
+     * @return           A new Responder
+     */
+    static Object newResponder(Path directory)
+    {
+        try {
+            return (Object) NEW_RESPONDER.invokeExact(directory);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param responder  A Responder
+     * @param line       A line of input
+     * @return           Its response
+     */
+    static String generateResponse(Object responder, CharSequence line)
+    {
+        try {
+            return (String) GENERATE_RESPONSE.invokeExact(responder, line);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Make the first call through the generateResponse handle, which is
+     * slow because the JVM links the call site then, without a Responder.
+     * Benchmarks that time a first response call this first, so that they
+     * time the Responder and not the handle.
+     */
+    static void linkGenerateResponse()
+    {
+        try {
+            generateResponse(null, "");
+        }
+        catch(NullPointerException e) {
+            // thrown for the missing Responder, after linking
+        }
+    }
+
+    /**
+     * @param responder  A Responder
+     * @param lineCount  The number of made-up lines to warm it up with
+     */
+    static void warmUp(Object responder, int lineCount)
+    {
+        try {
+            WARM_UP.invokeExact(responder, lineCount);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Run the KnowledgeBaseCompiler on the text files in a directory.
+     *
+     * @param directory  The directory
+     */
+    static void compile(Path directory)
+    {
+        try {
+            COMPILE.invokeExact(new String[] { directory.toString() });
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @return  A new Tokenizer
+     */
+    static Object newTokenizer()
+    {
+        try {
+            return (Object) NEW_TOKENIZER.invokeExact();
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param tokenizer  A Tokenizer
+     * @param line       The line to start tokenizing
+     */
+    static void reset(Object tokenizer, CharSequence line)
+    {
+        try {
+            TOKENIZER_RESET.invokeExact(tokenizer, line);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param tokenizer  A Tokenizer
+     * @return           true if it moved to another word
+     */
+    static boolean next(Object tokenizer)
+    {
+        try {
+            return (boolean) TOKENIZER_NEXT.invokeExact(tokenizer);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param tokenizer  A Tokenizer
+     * @return           Its current word
+     */
+    static CharSequence getToken(Object tokenizer)
+    {
+        try {
+            return (CharSequence) TOKENIZER_TOKEN.invokeExact(tokenizer);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param words  The words, each given its index as its value
+     * @return       A new WordTable holding them
+     */
+    static Object newWordTable(String[] words)
+    {
+        try {
+            Object table = (Object) NEW_WORD_TABLE.invokeExact(words.length);
+            for(int i = 0; i < words.length; i++) {
+                if(!(boolean) WORD_TABLE_PUT.invokeExact(table, words[i], i)) {
+                    throw new IllegalArgumentException("The word " + words[i] + " is there twice");
+                }
+            }
+            return table;
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param wordTable  A WordTable
+     * @param word       A word
+     * @return           Its value, or -1
+     */
+    static int wordTableGet(Object wordTable, CharSequence word)
+    {
+        try {
+            return (int) WORD_TABLE_GET.invokeExact(wordTable, word);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param words  The words
+     * @return       A new PerfectHashTable of them
+     */
+    static Object newPerfectHashTable(String[] words)
+    {
+        try {
+            return (Object) NEW_PERFECT_HASH_TABLE.invokeExact(words);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param perfectHashTable  A PerfectHashTable
+     * @param word              A word
+     * @return                  Its index, or -1
+     */
+    static int perfectHashTableGet(Object perfectHashTable, CharSequence word)
+    {
+        try {
+            return (int) PERFECT_HASH_TABLE_GET.invokeExact(perfectHashTable, word);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param in   Where the input comes from
+     * @param out  Where the prompts go
+     * @return     A new InputReader
+     */
+    static Object newInputReader(InputStream in, PrintStream out)
+    {
+        try {
+            return (Object) NEW_INPUT_READER.invokeExact(in, out);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * @param inputReader  An InputReader
+     * @return             The words of its next line, or null at the end
+     */
+    @SuppressWarnings("unchecked")
+    static Set<String> getInput(Object inputReader)
+    {
+        try {
+            return (Set<String>) (Object) GET_INPUT.invokeExact(inputReader);
+        }
+        catch(Throwable e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Look up a public constructor, typed to return Object.
+     *
+     * @param className   The class
+     * @param parameters  The parameter types
+     * @return            The handle
+     */
+    private static MethodHandle constructor(String className, Class<?>... parameters)
+    {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(Class.forName(className),
+                MethodType.methodType(void.class, parameters));
+            return handle.asType(handle.type().changeReturnType(Object.class));
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Look up a public instance method, typed to take the object as Object
+     * and to return Object unless it returns void, a primitive or a
+     * CharSequence or String.
+     *
+     * @param className   The class
+     * @param name        The method
+     * @param returns     Its return type
+     * @param parameters  Its parameter types
+     * @return            The handle
+     */
+    private static MethodHandle method(String className, String name, Class<?> returns,
+                                       Class<?>... parameters)
+    {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(Class.forName(className), name,
+                MethodType.methodType(returns, parameters));
+            MethodType type = handle.type().changeParameterType(0, Object.class);
+            if(!returns.isPrimitive() && returns != String.class && returns != CharSequence.class) {
+                type = type.changeReturnType(Object.class);
+            }
+            return handle.asType(type);
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Look up the main method of a class.
+     *
+     * @param className  The class
+     * @return           The handle
+     */
+    private static MethodHandle mainMethod(String className)
+    {
+        try {
+            return LOOKUP.findStatic(Class.forName(className), "main",
+                MethodType.methodType(void.class, String[].class));
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * @param e  What a handle threw
+     * @return   An unchecked exception to throw instead
+     */
+    private static RuntimeException failed(Throwable e)
+    {
+        if(e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if(e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,122 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long it takes to split a line of input into words: with a Tokenizer
+ * on its own, which is what generateResponse does, and with
+ * InputReader.getInput, which also reads the line from a stream and builds
+ * a set of Strings.
+ *
+ * @author Catherine Oldfield
+ * for RVCC GDEV242 - Fall 2020
+ * @version 11/29/2020
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark
+{
+    // The number of different lines.
+    private static final int LINES = 1024;
+
+    private String[] lines;
+    private int next;
+    private Object tokenizer;
+    // All the lines as one stream's worth of bytes, for the InputReader.
+    private byte[] stream;
+    private Object inputReader;
+    private PrintStream prompts;
+    // The directory the corpus is written to.
+    private Path directory;
+
+    /**
+     * Make the lines and the objects that read them.
+     *
+     * @throws IOException   If the corpus cannot be written
+     */
+    @Setup(Level.Trial)
+    public void makeLines() throws IOException
+    {
+        CorpusGenerator generator = new CorpusGenerator(42);
+        directory = Files.createTempDirectory("techsupport-corpus");
+        generator.write(directory, 1000);
+        lines = generator.lines(LINES, "hit");
+        lines[0] = "Is it a BUG?  or a feature?!  It CRASHES, every... single... time.";
+        tokenizer = Support.newTokenizer();
+        stream = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        prompts = new PrintStream(OutputStream.nullOutputStream());
+        inputReader = Support.newInputReader(new ByteArrayInputStream(stream), prompts);
+    }
+
+    /**
+     * Delete the corpus.
+     *
+     * @throws IOException  If it cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void deleteCorpus() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int tokenizer()
+    {
+        next = (next + 1) & (LINES - 1);
+        Support.reset(tokenizer, lines[next]);
+        int length = 0;
+        while(Support.next(tokenizer)) {
+            length += Support.getToken(tokenizer).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int tokenizerParallel()
+    {
+        return tokenizer();
+    }
+
+    @Benchmark
+    public Set<String> inputReader()
+    {
+        Set<String> words = Support.getInput(inputReader);
+        if(words == null) {
+            // all the lines have been read; start again
+            inputReader = Support.newInputReader(new ByteArrayInputStream(stream), prompts);
+            words = Support.getInput(inputReader);
+        }
+        return words;
+    }
+}